@@ -0,0 +1,70 @@
+package org.opentripplanner.middleware.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.middleware.otp.response.Itinerary;
+import org.opentripplanner.middleware.otp.response.OtpResponse;
+import org.opentripplanner.middleware.otp.response.OtpResponseGraphQLWrapper;
+import org.opentripplanner.middleware.testutils.CommonTestUtils;
+import org.opentripplanner.middleware.utils.ItineraryFingerprint;
+import org.opentripplanner.middleware.utils.ItineraryUtils;
+import org.opentripplanner.middleware.utils.JsonUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares finding the itinerary of a trip among the itineraries of an OTP response with the full comparison of
+ * {@link ItineraryUtils#itinerariesMatch} only, and with an {@link ItineraryFingerprint} pre-check followed by the full
+ * comparison, as done when monitored trips are checked. The plan response used has three itineraries, the trip
+ * itinerary being the last one, so that all candidates are compared.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ItineraryFingerprintBenchmark {
+    /** The itinerary of the trip, equal to the last itinerary of the response. */
+    private Itinerary referenceItinerary;
+
+    /** Copies of the itineraries of an OTP response whose candidate hashes are kept, as in a monitoring cycle. */
+    private List<Itinerary> candidateItineraries;
+
+    @Setup
+    public void setUp() throws IOException, CloneNotSupportedException {
+        String planResponse = CommonTestUtils.getTestResourceAsString("otp/response/planResponse-otp2.json");
+        OtpResponse sharedResponse = JsonUtils.getPOJOFromJSON(planResponse, OtpResponseGraphQLWrapper.class).data;
+        ItineraryFingerprint.hashCandidateFields(sharedResponse);
+        candidateItineraries = sharedResponse.copyWithItineraries().plan.itineraries;
+        referenceItinerary = JsonUtils.getPOJOFromJSON(planResponse, OtpResponseGraphQLWrapper.class)
+            .data.plan.itineraries.get(candidateItineraries.size() - 1);
+    }
+
+    @Benchmark
+    public Itinerary fullComparisonOnly() {
+        for (Itinerary candidateItinerary : candidateItineraries) {
+            if (ItineraryUtils.itinerariesMatch(referenceItinerary, candidateItinerary)) return candidateItinerary;
+        }
+        return null;
+    }
+
+    @Benchmark
+    public Itinerary fingerprintThenFullComparison() {
+        ItineraryFingerprint fingerprint = new ItineraryFingerprint(referenceItinerary);
+        for (Itinerary candidateItinerary : candidateItineraries) {
+            if (fingerprint.matches(candidateItinerary)) return candidateItinerary;
+        }
+        return null;
+    }
+}
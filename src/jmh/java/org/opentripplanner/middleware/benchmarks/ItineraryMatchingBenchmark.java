@@ -0,0 +1,61 @@
+package org.opentripplanner.middleware.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.middleware.otp.response.Itinerary;
+import org.opentripplanner.middleware.otp.response.OtpResponseGraphQLWrapper;
+import org.opentripplanner.middleware.testutils.CommonTestUtils;
+import org.opentripplanner.middleware.utils.ItineraryUtils;
+import org.opentripplanner.middleware.utils.JsonUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ItineraryUtils#itinerariesMatch}, which is called for each itinerary of each OTP response when
+ * monitored trips are checked.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ItineraryMatchingBenchmark {
+    private Itinerary referenceItinerary;
+
+    /** An itinerary equal to the reference itinerary, but not the same instance. */
+    private Itinerary matchingItinerary;
+
+    private Itinerary otherItinerary;
+
+    @Setup
+    public void setUp() throws IOException {
+        String planResponse = CommonTestUtils.getTestResourceAsString("otp/response/planResponse-otp2.json");
+        List<Itinerary> itineraries = JsonUtils.getPOJOFromJSON(planResponse, OtpResponseGraphQLWrapper.class)
+            .data.plan.itineraries;
+        referenceItinerary = itineraries.get(0);
+        otherItinerary = itineraries.get(1);
+        matchingItinerary = JsonUtils.getPOJOFromJSON(planResponse, OtpResponseGraphQLWrapper.class)
+            .data.plan.itineraries.get(0);
+    }
+
+    @Benchmark
+    public boolean matchingItineraries() {
+        return ItineraryUtils.itinerariesMatch(referenceItinerary, matchingItinerary);
+    }
+
+    @Benchmark
+    public boolean nonMatchingItineraries() {
+        return ItineraryUtils.itinerariesMatch(referenceItinerary, otherItinerary);
+    }
+}
@@ -0,0 +1,82 @@
+package org.opentripplanner.middleware.benchmarks;
+
+import freemarker.template.TemplateException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.middleware.i18n.Message;
+import org.opentripplanner.middleware.models.TripMonitorAlertNotification;
+import org.opentripplanner.middleware.models.TripMonitorNotification;
+import org.opentripplanner.middleware.otp.response.LocalizedAlert;
+import org.opentripplanner.middleware.tripmonitor.jobs.NotificationType;
+import org.opentripplanner.middleware.utils.ConfigUtils;
+import org.opentripplanner.middleware.utils.TemplateUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.opentripplanner.middleware.utils.I18nUtils.label;
+
+/**
+ * Measures the rendering of the notification templates sent for monitored trips, with data similar to what
+ * CheckMonitoredTrip#sendNotifications provides.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NotificationTemplateBenchmark {
+    @Param({"MonitoredTripText.ftl", "MonitoredTripHtml.ftl", "MonitoredTripSms.ftl", "MonitoredTripPush.ftl"})
+    public String templatePath;
+
+    private Map<String, Object> templateData;
+
+    @Setup
+    public void setUp() throws IOException {
+        ConfigUtils.loadConfig(new String[]{"configurations/test/env.yml"});
+        TemplateUtils.initialize();
+
+        Locale locale = Locale.ENGLISH;
+        String tripLinkLabel = Message.TRIP_LINK_TEXT.get(locale);
+        String tripUrl = "http://otp-ui.example.com/#/account/trips/test-trip-id";
+        TripMonitorAlertNotification alertNotification = TripMonitorAlertNotification.createAlertNotification(
+            Set.of(new LocalizedAlert("Resolved Alert", null)),
+            Set.of(new LocalizedAlert("New Alert 1", null), new LocalizedAlert(null, "New Alert 2 description")),
+            locale
+        );
+        templateData = Map.of(
+            "tripNameOrReminder", "Test Trip",
+            "emailGreeting", Message.TRIP_EMAIL_GREETING.get(locale),
+            "tripLinkLabelAndUrl", label(tripLinkLabel, tripUrl, locale),
+            "tripLinkAnchorLabel", tripLinkLabel,
+            "tripUrl", tripUrl,
+            "emailFooter", String.format(Message.TRIP_EMAIL_FOOTER.get(locale), "Test Trip Planner"),
+            "manageLinkText", Message.TRIP_EMAIL_MANAGE_NOTIFICATIONS.get(locale),
+            "manageLinkUrl", "http://otp-ui.example.com/#/account/settings",
+            "notifications", List.of(
+                alertNotification,
+                new TripMonitorNotification(NotificationType.DEPARTURE_DELAY, "This is the departure delay text")
+            ),
+            "smsFooter", Message.SMS_STOP_NOTIFICATIONS.get(locale)
+        );
+    }
+
+    @Benchmark
+    public String renderTemplate() throws IOException, TemplateException {
+        return TemplateUtils.renderTemplate(templatePath, templateData);
+    }
+}
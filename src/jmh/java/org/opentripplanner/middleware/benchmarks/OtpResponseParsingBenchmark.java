@@ -0,0 +1,43 @@
+package org.opentripplanner.middleware.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.middleware.otp.response.OtpResponseGraphQLWrapper;
+import org.opentripplanner.middleware.testutils.CommonTestUtils;
+import org.opentripplanner.middleware.utils.JsonUtils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the deserialization of a realistic OTP GraphQL plan response (several itineraries with geometries, steps
+ * and intermediate stops), as done for each OTP response received by the middleware.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OtpResponseParsingBenchmark {
+    private String planResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        planResponse = CommonTestUtils.getTestResourceAsString("otp/response/planResponse-otp2.json");
+    }
+
+    @Benchmark
+    public OtpResponseGraphQLWrapper parsePlanResponse() throws JsonProcessingException {
+        return JsonUtils.getPOJOFromJSON(planResponse, OtpResponseGraphQLWrapper.class);
+    }
+}
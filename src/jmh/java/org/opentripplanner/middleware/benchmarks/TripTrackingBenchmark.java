@@ -0,0 +1,107 @@
+package org.opentripplanner.middleware.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.middleware.otp.response.Itinerary;
+import org.opentripplanner.middleware.otp.response.Leg;
+import org.opentripplanner.middleware.testutils.CommonTestUtils;
+import org.opentripplanner.middleware.triptracker.LegSegment;
+import org.opentripplanner.middleware.triptracker.ManageLegTraversal;
+import org.opentripplanner.middleware.triptracker.TravelerLocator;
+import org.opentripplanner.middleware.triptracker.TravelerPosition;
+import org.opentripplanner.middleware.triptracker.TripStatus;
+import org.opentripplanner.middleware.triptracker.instruction.TripInstruction;
+import org.opentripplanner.middleware.utils.ConfigUtils;
+import org.opentripplanner.middleware.utils.Coordinates;
+import org.opentripplanner.middleware.utils.GeometryUtils;
+import org.opentripplanner.middleware.utils.JsonUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the computations done for each location update sent by a traveler whose trip is tracked: locating the
+ * traveler on the expected walk leg, building the instruction for the traveler, and the underlying geometry functions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TripTrackingBenchmark {
+    private Leg walkLeg;
+
+    private TravelerPosition travelerPosition;
+
+    private Coordinates segmentStart;
+
+    private Coordinates segmentEnd;
+
+    private Coordinates traveler;
+
+    @Setup
+    public void setUp() throws IOException {
+        // The trip tracking thresholds are read from the configuration.
+        ConfigUtils.loadConfig(new String[]{"configurations/test/env.yml"});
+        Itinerary itinerary = JsonUtils.getPOJOFromJSON(
+            CommonTestUtils.getTestResourceAsString("controllers/api/adair-avenue-to-monroe-drive.json"),
+            Itinerary.class
+        );
+        walkLeg = itinerary.legs.get(0);
+        segmentStart = new Coordinates(walkLeg.steps.get(0));
+        segmentEnd = new Coordinates(walkLeg.steps.get(1));
+        // Place the traveler a few meters off the middle of the first step.
+        Coordinates midpoint = GeometryUtils.createPoint(
+            segmentStart,
+            GeometryUtils.getDistance(segmentStart, segmentEnd) / 2,
+            GeometryUtils.calculateBearing(segmentStart, segmentEnd)
+        );
+        traveler = GeometryUtils.createPoint(midpoint, 5, GeometryUtils.calculateBearing(segmentStart, segmentEnd) + 90);
+        travelerPosition = new TravelerPosition(walkLeg, traveler);
+    }
+
+    @Benchmark
+    public String getInstruction() {
+        return TravelerLocator.getInstruction(TripStatus.ON_SCHEDULE, travelerPosition, false);
+    }
+
+    @Benchmark
+    public TripInstruction alignTravelerToTrip() {
+        return TravelerLocator.alignTravelerToTrip(travelerPosition, false, TripStatus.ON_SCHEDULE);
+    }
+
+    @Benchmark
+    public List<LegSegment> interpolatePoints() {
+        return ManageLegTraversal.interpolatePoints(walkLeg);
+    }
+
+    @Benchmark
+    public double getDistance() {
+        return GeometryUtils.getDistance(segmentStart, traveler);
+    }
+
+    @Benchmark
+    public double getDistanceFromLine() {
+        return GeometryUtils.getDistanceFromLine(segmentStart, segmentEnd, traveler);
+    }
+
+    @Benchmark
+    public double calculateBearing() {
+        return GeometryUtils.calculateBearing(segmentStart, segmentEnd);
+    }
+
+    @Benchmark
+    public boolean isPointBetween() {
+        return GeometryUtils.isPointBetween(segmentStart, segmentEnd, traveler);
+    }
+}
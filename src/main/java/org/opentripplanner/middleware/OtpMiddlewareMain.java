@@ -20,11 +20,22 @@ import org.opentripplanner.middleware.controllers.api.TrackedTripController;
 import org.opentripplanner.middleware.controllers.api.TripHistoryController;
 import org.opentripplanner.middleware.docs.PublicApiDocGenerator;
 import org.opentripplanner.middleware.models.MonitoredComponent;
+import org.opentripplanner.middleware.otp.OtpCircuitBreaker;
+import org.opentripplanner.middleware.otp.OtpConcurrencyLimiter;
+import org.opentripplanner.middleware.otp.OtpProxyCache;
+import org.opentripplanner.middleware.otp.OtpRequestCoalescer;
 import org.opentripplanner.middleware.otp.OtpVersion;
 import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.tripmonitor.NotificationOutbox;
+import org.opentripplanner.middleware.tripmonitor.RealtimeChangeFeed;
+import org.opentripplanner.middleware.tripmonitor.RealtimeChangeIngestion;
 import org.opentripplanner.middleware.tripmonitor.jobs.MonitorAllTripsJob;
+import org.opentripplanner.middleware.tripmonitor.jobs.MonitoredTripLocks;
+import org.opentripplanner.middleware.tripmonitor.jobs.MonitoringCycle;
 import org.opentripplanner.middleware.utils.ConfigUtils;
+import org.opentripplanner.middleware.utils.HttpClientPool;
 import org.opentripplanner.middleware.utils.HttpUtils;
+import org.opentripplanner.middleware.utils.JsonUtils;
 import org.opentripplanner.middleware.utils.Scheduler;
 import org.opentripplanner.middleware.utils.TemplateUtils;
 import org.slf4j.Logger;
@@ -34,7 +45,9 @@ import spark.Service;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
@@ -78,15 +91,105 @@ public class OtpMiddlewareMain {
             // Schedule recurring Monitor All Trips Job.
             // TODO: Determine whether this should go in some other process.
             MonitorAllTripsJob monitorAllTripsJob = new MonitorAllTripsJob();
+            monitorAllTripsJob.releaseLeasesOnShutdown();
             Scheduler.scheduleJob(
                 monitorAllTripsJob,
                 0,
                 1,
                 TimeUnit.MINUTES
             );
+
+            // Deliver the notifications queued by trip checks, if the notification outbox is enabled.
+            if (NotificationOutbox.isEnabled()) {
+                Scheduler.scheduleJob(
+                    new NotificationOutbox(),
+                    0,
+                    NotificationOutbox.NOTIFICATION_OUTBOX_POLL_SECONDS,
+                    TimeUnit.SECONDS
+                );
+            }
+
+            // Re-check the monitored trips affected by realtime changes, if a realtime change feed is configured.
+            if (RealtimeChangeIngestion.isEnabled()) {
+                Scheduler.scheduleJob(
+                    new RealtimeChangeIngestion(),
+                    0,
+                    RealtimeChangeIngestion.REALTIME_CHANGE_FEED_POLL_SECONDS,
+                    TimeUnit.SECONDS
+                );
+            }
         }
     }
 
+    /**
+     * @return the state of the OTP circuit breaker, concurrency limits and HTTP connection pools, and statistics about
+     * trip monitoring and notification delivery on this node.
+     */
+    private static Map<String, Object> getServiceStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        OtpCircuitBreaker breaker = OtpCircuitBreaker.INSTANCE;
+        status.put("otpCircuitBreaker", Map.of(
+            "state", breaker.getState(),
+            "consecutiveFailures", breaker.getConsecutiveFailures(),
+            "rejectedRequests", breaker.getRejectedCount()
+        ));
+        Map<String, Object> otpConcurrency = new LinkedHashMap<>();
+        List<OtpConcurrencyLimiter> limiters = List.of(OtpConcurrencyLimiter.MONITORING, OtpConcurrencyLimiter.INTERACTIVE);
+        for (OtpConcurrencyLimiter limiter : limiters) {
+            otpConcurrency.put(limiter.getName(), Map.of(
+                "limit", limiter.getLimit(),
+                "inFlight", limiter.getInFlight()
+            ));
+        }
+        status.put("otpConcurrency", otpConcurrency);
+        status.put("otpProxy", OtpRequestProcessor.getProxyStats());
+        status.put("otpProxyCache", OtpProxyCache.INSTANCE.getStats());
+        status.put("otpRequestCoalescing", OtpRequestCoalescer.INSTANCE.getStats());
+        Map<String, Object> httpClientPools = new LinkedHashMap<>();
+        for (HttpClientPool pool : HttpClientPool.getAllPools()) {
+            httpClientPools.put(pool.getName(), pool.getStats());
+        }
+        status.put("httpClientPools", httpClientPools);
+        MonitoringCycle cycle = MonitorAllTripsJob.getLastCompletedCycle();
+        if (cycle != null) {
+            Map<String, Object> cycleStatus = new LinkedHashMap<>();
+            cycleStatus.put("startTimeMillis", cycle.getStartTimeMillis());
+            cycleStatus.put("durationMillis", cycle.getDurationMillis());
+            cycleStatus.put("tripCount", cycle.getTripCount());
+            cycleStatus.put("checkedCount", cycle.getCheckedCount());
+            cycleStatus.put("skippedCount", cycle.getSkippedCount());
+            cycleStatus.put("failedCount", cycle.getFailedCount());
+            cycleStatus.put("deferredCount", cycle.getDeferredCount());
+            cycleStatus.put("maxStalenessMillis", cycle.getMaxStalenessMillis());
+            cycleStatus.put("averageStalenessMillis", cycle.getAverageStalenessMillis());
+            cycleStatus.put("maxCheckDelayMillis", cycle.getMaxCheckDelayMillis());
+            cycleStatus.put("averageCheckDelayMillis", cycle.getAverageCheckDelayMillis());
+            status.put("lastMonitoringCycle", cycleStatus);
+        }
+        if (NotificationOutbox.isEnabled()) {
+            status.put("notificationOutbox", Map.of(
+                "queueDepth", NotificationOutbox.getQueueDepth(),
+                "sentCount", NotificationOutbox.getSentCount(),
+                "retriedCount", NotificationOutbox.getRetriedCount(),
+                "failedCount", NotificationOutbox.getFailedCount(),
+                "averageDeliveryLatencyMillis", NotificationOutbox.getAverageDeliveryLatencyMillis()
+            ));
+        }
+        status.put("monitoredTripLocks", Map.of(
+            "lockCount", MonitoredTripLocks.getLockCount(),
+            "releasedCount", MonitoredTripLocks.getReleasedCount(),
+            "averageHoldMillis", MonitoredTripLocks.getAverageHoldMillis(),
+            "maxHoldMillis", MonitoredTripLocks.getMaxHoldMillis(),
+            "reclaimedCount", MonitoredTripLocks.getReclaimedCount(),
+            "waitCount", MonitoredTripLocks.getWaitCount(),
+            "waitTimeoutCount", MonitoredTripLocks.getWaitTimeoutCount()
+        ));
+        status.put("realtimeChanges", Map.of(
+            "affectedTripCount", RealtimeChangeIngestion.getAffectedTripCount()
+        ));
+        return status;
+    }
+
     private static void initializeHttpEndpoints() throws IOException, InterruptedException {
         // Must start spark explicitly to use spark-swagger.
         // https://github.com/manusant/spark-swagger#endpoints-binding
@@ -188,6 +291,16 @@ public class OtpMiddlewareMain {
             response.header("Content-Encoding", "gzip");
         });
 
+        // Undocumented endpoint reporting the state of OTP request handling and trip monitoring on this node.
+        spark.get(API_PREFIX + "admin/status", (request, response) -> JsonUtils.toJson(getServiceStatus()));
+
+        // Undocumented endpoint to push realtime changes, so that the monitored trips they affect are checked right
+        // away.
+        spark.post(API_PREFIX + "admin/realtime-changes", (request, response) -> {
+            RealtimeChangeFeed feed = JsonUtils.getPOJOFromRequestBody(request, RealtimeChangeFeed.class);
+            return JsonUtils.toJson(Map.of("affectedTripCount", RealtimeChangeIngestion.enqueueAffectedTrips(feed)));
+        });
+
         /////////////////    Final API routes     /////////////////////
 
         // Return 404 for any API path that is not configured.
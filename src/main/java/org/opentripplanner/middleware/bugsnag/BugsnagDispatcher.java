@@ -7,6 +7,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.eclipse.jetty.http.HttpMethod;
 import org.opentripplanner.middleware.models.BugsnagEvent;
 import org.opentripplanner.middleware.models.BugsnagEventRequest;
+import org.opentripplanner.middleware.utils.HttpClientPool;
 import org.opentripplanner.middleware.utils.HttpResponseValues;
 import org.opentripplanner.middleware.utils.HttpUtils;
 import org.opentripplanner.middleware.utils.JsonUtils;
@@ -149,6 +150,7 @@ public class BugsnagDispatcher {
             ? buildEventRequestFilter(daysInPast)
             : null;
         HttpResponseValues response = HttpUtils.httpRequestRawResponse(
+            HttpClientPool.BUGSNAG,
             eventDataRequestUri,
             CONNECTION_TIMEOUT_IN_SECONDS,
             create ? HttpMethod.POST : HttpMethod.GET,
@@ -175,6 +177,7 @@ public class BugsnagDispatcher {
         URI eventDataRequestUri = HttpUtils.buildUri(eventDataRequestUrl);
         LOG.debug("Making GET Bugsnag request: {}", eventDataRequestUri);
         HttpResponseValues events = HttpUtils.httpRequestRawResponse(
+            HttpClientPool.BUGSNAG,
             eventDataRequestUri,
             CONNECTION_TIMEOUT_IN_SECONDS,
             HttpMethod.GET,
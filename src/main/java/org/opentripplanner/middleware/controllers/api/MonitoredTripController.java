@@ -86,15 +86,17 @@ public class MonitoredTripController extends ApiController<MonitoredTrip> {
      */
     @Override
     MonitoredTrip postCreateHook(MonitoredTrip monitoredTrip, Request req) {
+        MonitoredTripLocks.TripLock lock = MonitoredTripLocks.tryLock(monitoredTrip.id, "trip creation request");
+        // If a monitoring cycle already picked up the new trip, let it perform the check.
+        if (lock == null) return monitoredTrip;
         try {
-            MonitoredTripLocks.lock(monitoredTrip.id);
             return runCheckMonitoredTrip(monitoredTrip);
         } catch (Exception e) {
             // FIXME: an error happened while checking the trip, but the trip was saved to the DB, so return the raw
             //  trip as it was saved in the db?
             return monitoredTrip;
         } finally {
-            MonitoredTripLocks.unlock(monitoredTrip.id);
+            MonitoredTripLocks.unlock(lock);
         }
     }
 
@@ -136,7 +138,7 @@ public class MonitoredTripController extends ApiController<MonitoredTrip> {
     @Override
     MonitoredTrip preUpdateHook(MonitoredTrip monitoredTrip, MonitoredTrip preExisting, Request req) {
         // lock the trip so that the a CheckMonitoredTrip job won't concurrently analyze/update the trip.
-        MonitoredTripLocks.lockTripForUpdating(monitoredTrip, req);
+        MonitoredTripLocks.TripLock lock = MonitoredTripLocks.lockTripForUpdating(monitoredTrip, req);
 
         try {
             // Forbid the editing of certain values that are analyzed and set during the CheckMonitoredTrip job.
@@ -152,6 +154,14 @@ public class MonitoredTripController extends ApiController<MonitoredTrip> {
             monitoredTrip.from = preExisting.from;
             monitoredTrip.to = preExisting.to;
             monitoredTrip.arriveBy = preExisting.arriveBy;
+            // Signal the update to trip checks that may be saving their results for the previous version of the trip.
+            monitoredTrip.version = preExisting.version + 1;
+
+            // Changes made by the user (e.g. monitored days, lead time, snoozing) can change when the trip should be
+            // checked next, so make it due immediately. The check below recomputes the next check time.
+            if (monitoredTrip.journeyState != null) {
+                monitoredTrip.journeyState.nextCheckEpochMillis = 0;
+            }
 
             // TODO: Update itinerary existence record when updating a trip?
             //   (Currently, we let web requests change the monitored days regardless of existence.)
@@ -165,7 +175,7 @@ public class MonitoredTripController extends ApiController<MonitoredTrip> {
             //  the raw trip as it was saved in the db before the check monitored trip job ran?
             return monitoredTrip;
         } finally {
-            MonitoredTripLocks.unlock(monitoredTrip.id);
+            MonitoredTripLocks.unlock(lock);
         }
     }
 
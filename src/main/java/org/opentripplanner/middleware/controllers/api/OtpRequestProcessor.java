@@ -7,9 +7,16 @@ import io.github.manusant.ss.rest.Endpoint;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.apache.http.Header;
+import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.auth.Auth0Connection;
 import org.opentripplanner.middleware.auth.RequestingUser;
@@ -17,6 +24,8 @@ import org.opentripplanner.middleware.models.OtpUser;
 import org.opentripplanner.middleware.models.TripRequest;
 import org.opentripplanner.middleware.models.TripSummary;
 import org.opentripplanner.middleware.otp.OtpDispatcher;
+import org.opentripplanner.middleware.otp.OtpProxyCache;
+import org.opentripplanner.middleware.otp.OtpRequestCoalescer;
 import org.opentripplanner.middleware.otp.graphql.Query;
 import org.opentripplanner.middleware.otp.graphql.QueryVariables;
 import org.opentripplanner.middleware.otp.OtpVersion;
@@ -24,13 +33,19 @@ import org.opentripplanner.middleware.otp.OtpDispatcherResponse;
 import org.opentripplanner.middleware.otp.response.OtpResponse;
 import org.opentripplanner.middleware.persistence.Persistence;
 import org.opentripplanner.middleware.utils.DateTimeUtils;
+import org.opentripplanner.middleware.utils.HttpStreamingResponse;
 import org.opentripplanner.middleware.utils.HttpUtils;
+import org.opentripplanner.middleware.utils.JsonUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Request;
 import spark.Response;
+import spark.Spark;
 
 import javax.ws.rs.core.MediaType;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 import static io.github.manusant.ss.descriptor.MethodDescriptor.path;
@@ -38,6 +53,7 @@ import static org.opentripplanner.middleware.auth.Auth0Connection.checkUser;
 import static org.opentripplanner.middleware.auth.Auth0Connection.getUserFromRequest;
 import static org.opentripplanner.middleware.auth.Auth0Connection.isAuthHeaderPresent;
 import static org.opentripplanner.middleware.controllers.api.ApiController.USER_ID_PARAM;
+import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsInt;
 import static org.opentripplanner.middleware.utils.JsonUtils.getPOJOFromJSON;
 import static org.opentripplanner.middleware.utils.JsonUtils.logMessageAndHalt;
 
@@ -45,6 +61,10 @@ import static org.opentripplanner.middleware.utils.JsonUtils.logMessageAndHalt;
  * Responsible for getting a response from OTP based on the parameters provided by the requester. If the target service
  * is of interest the response is intercepted and processed. In all cases, the response from OTP (content and HTTP
  * status) is passed back to the requester.
+ *
+ * Each proxied request holds a web server thread until OTP responds. So that a slow OTP server cannot tie up all the
+ * threads and block unrelated API calls, at most OTP_PROXY_MAX_IN_FLIGHT_REQUESTS requests are proxied at the same
+ * time, and further requests are rejected right away with a 503 status.
  */
 public class OtpRequestProcessor implements Endpoint {
 
@@ -68,6 +88,22 @@ public class OtpRequestProcessor implements Endpoint {
             .map(String::toLowerCase)
             .collect(Collectors.toSet());
 
+    /**
+     * Headers from OTP responses that are not returned to the requester.
+     */
+    private static final Set<String> HEADERS_NOT_TO_RETURN = Set.of("content-length", "transfer-encoding");
+
+    /** The number of seconds after which clients should retry requests rejected because too many are in progress. */
+    private static final String PROXY_RETRY_AFTER_SECONDS = "5";
+
+    private static final int MAX_IN_FLIGHT_PROXY_REQUESTS =
+        getConfigPropertyAsInt("OTP_PROXY_MAX_IN_FLIGHT_REQUESTS", 100);
+
+    /** Permits for proxied requests, shared by the proxies of all OTP versions. */
+    private static final Semaphore proxyPermits = new Semaphore(MAX_IN_FLIGHT_PROXY_REQUESTS);
+
+    private static final AtomicLong rejectedProxyRequestCount = new AtomicLong();
+
     /**
      * URL to OTP's documentation.
      */
@@ -107,12 +143,84 @@ public class OtpRequestProcessor implements Endpoint {
                 .withDescription("Forwards any GET request to " + otpVersion.toString() + ". " + OTP_DOC_LINK)
                 .withQueryParam(USER_ID)
                 .withProduces(List.of(MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML)),
-                this::proxyGet
+                this::limitedProxyGet
         ).post(path("/*")
                 .withDescription("Forwards any POST request to " + otpVersion.toString() + ". " + OTP_DOC_LINK)
                 .withQueryParam(USER_ID)
                 .withProduces(List.of(MediaType.APPLICATION_JSON)),
-                this::proxyPost
+                this::limitedProxyPost
+        );
+    }
+
+    private Object limitedProxyGet(Request request, Response response) throws Exception {
+        // Check permissions first, so that requests rejected by the check don't take up proxied request slots.
+        OtpUser otpUser = checkUserPermissions(request);
+        return withProxyPermit(request, response, (req, res) -> proxyGet(req, res, otpUser));
+    }
+
+    private Object limitedProxyPost(Request request, Response response) throws Exception {
+        // Check permissions first, so that requests rejected by the check don't take up proxied request slots.
+        OtpUser otpUser = checkUserPermissions(request);
+        return withProxyPermit(request, response, (req, res) -> proxyPost(req, res, otpUser));
+    }
+
+    /**
+     * Proxies a request if fewer than the maximum number of proxied requests are in progress, otherwise halts the
+     * request with a 503 status, without waiting for a proxied request to complete. Rejections are expected under
+     * load, so they are only counted (see {@link #getProxyStats}) rather than logged as errors and reported to Bugsnag.
+     *
+     * Streamed OTP response bodies are copied to the requester by Spark after the proxy returns, so the permit of a
+     * streamed request is only released once Spark closes the body, i.e. once the OTP connection is released too.
+     */
+    private static Object withProxyPermit(Request request, Response response, spark.Route proxy) throws Exception {
+        if (!proxyPermits.tryAcquire()) {
+            rejectedProxyRequestCount.incrementAndGet();
+            LOG.debug("Too many proxied OTP requests in progress, rejecting {}.", request.uri());
+            response.header("Retry-After", PROXY_RETRY_AFTER_SECONDS);
+            Spark.halt(
+                HttpStatus.SERVICE_UNAVAILABLE_503,
+                JsonUtils.formatJSON(
+                    "Too many trip planner requests are in progress, please try again later.",
+                    HttpStatus.SERVICE_UNAVAILABLE_503,
+                    null
+                )
+            );
+            return null;
+        }
+        AtomicBoolean isPermitReleased = new AtomicBoolean();
+        Runnable releasePermit = () -> {
+            if (isPermitReleased.compareAndSet(false, true)) proxyPermits.release();
+        };
+        boolean isStreamed = false;
+        try {
+            Object body = proxy.handle(request, response);
+            if (body instanceof InputStream) {
+                isStreamed = true;
+                return new FilterInputStream((InputStream) body) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            releasePermit.run();
+                        }
+                    }
+                };
+            }
+            return body;
+        } finally {
+            if (!isStreamed) releasePermit.run();
+        }
+    }
+
+    /**
+     * @return the number of proxied requests in progress, their maximum, and the number of rejected requests.
+     */
+    public static Map<String, Object> getProxyStats() {
+        return Map.of(
+            "maxInFlight", MAX_IN_FLIGHT_PROXY_REQUESTS,
+            "inFlight", MAX_IN_FLIGHT_PROXY_REQUESTS - proxyPermits.availablePermits(),
+            "rejectedCount", rejectedProxyRequestCount.get()
         );
     }
 
@@ -122,10 +230,35 @@ public class OtpRequestProcessor implements Endpoint {
      * trip history) the response is intercepted and processed. In all cases, the response from OTP (content and HTTP
      * status) is passed back to the requester.
      */
-    private String proxyGet(Request request, spark.Response response) throws JsonProcessingException {
-        OtpUser otpUser = checkUserPermissions(request);
+    private Object proxyGet(Request request, spark.Response response, OtpUser otpUser) throws JsonProcessingException {
         // Get request path intended for OTP API by removing the proxy endpoint (/otp).
         String otpRequestPath = request.uri().replaceFirst(basePath, "");
+        boolean isStoredInTripHistory = isStoredInTripHistory(otpUser, otpRequestPath, OtpDispatcher.OTP_PLAN_ENDPOINT);
+        // Serve responses that rarely change (e.g. from the index endpoints) from the cache when possible.
+        if (!isStoredInTripHistory && OtpProxyCache.INSTANCE.isCacheable(otpRequestPath)) {
+            OtpDispatcherResponse otpDispatcherResponse =
+                OtpProxyCache.INSTANCE.getResponse(otpVersion, request.queryString(), otpRequestPath);
+            if (otpDispatcherResponse.responseBody == null) {
+                logMessageAndHalt(request, HttpStatus.INTERNAL_SERVER_ERROR_500, "No response from OTP server.");
+                return null;
+            }
+            response.type(MediaType.APPLICATION_JSON);
+            response.status(otpDispatcherResponse.statusCode);
+            return otpDispatcherResponse.responseBody;
+        }
+        // Pass the OTP response on as it is received, unless it must be parsed to be stored in the trip history.
+        if (!isStoredInTripHistory) {
+            HttpStreamingResponse otpResponse = OtpDispatcher.streamOtpRequest(
+                otpVersion,
+                request.queryString(),
+                otpRequestPath,
+                HttpMethod.GET,
+                null,
+                null
+            );
+            response.type(MediaType.APPLICATION_JSON);
+            return getStreamingResponseBody(request, response, otpResponse);
+        }
         // attempt to get response from OTP server based on requester's query parameters
         OtpDispatcherResponse otpDispatcherResponse = OtpDispatcher.sendOtpRequest(otpVersion, request.queryString(), otpRequestPath);
         if (otpDispatcherResponse.responseBody == null) {
@@ -155,9 +288,7 @@ public class OtpRequestProcessor implements Endpoint {
      * Since we will use the REST API (GET) for routing requests for the foreseeable future the
      * POST requests are not logged.
      */
-    private String proxyPost(Request request, Response response) {
-        OtpUser otpUser = checkUserPermissions(request);
-
+    private Object proxyPost(Request request, Response response, OtpUser otpUser) {
         // Get request path intended for OTP API by removing the proxy endpoint (/otp).
         String otpRequestPath = request.uri().replaceFirst(basePath, "");
 
@@ -170,13 +301,41 @@ public class OtpRequestProcessor implements Endpoint {
 
         String requestBody = request.body();
 
-        OtpDispatcherResponse otpDispatcherResponse = OtpDispatcher.sendOtpPostRequest(
+        // Identical GraphQL requests received at the same time share the response of a single OTP request.
+        boolean isCoalesced = OtpRequestCoalescer.INSTANCE.isEnabled() &&
+            otpRequestPath.endsWith(OtpDispatcher.OTP_GRAPHQL_ENDPOINT);
+
+        // Pass the OTP response on as it is received, unless it must be parsed to be stored in the trip history.
+        if (!isCoalesced && !isStoredInTripHistory(otpUser, otpRequestPath, OtpDispatcher.OTP_GRAPHQL_ENDPOINT)) {
+            HttpStreamingResponse otpResponse = OtpDispatcher.streamOtpRequest(
+                otpVersion,
+                request.queryString(),
+                otpRequestPath,
+                HttpMethod.POST,
+                headers,
+                requestBody
+            );
+            if (otpResponse != null) copyOtpResponseHeaders(otpResponse.headers, response);
+            return getStreamingResponseBody(request, response, otpResponse);
+        }
+
+        Supplier<OtpDispatcherResponse> otpRequester = () -> OtpDispatcher.sendOtpPostRequest(
                 otpVersion,
                 request.queryString(),
                 otpRequestPath,
                 headers,
                 requestBody
         );
+        OtpDispatcherResponse otpDispatcherResponse = isCoalesced
+            ? OtpRequestCoalescer.INSTANCE.getResponse(
+                otpVersion,
+                otpRequestPath,
+                request.queryString(),
+                headers,
+                requestBody,
+                otpRequester
+            )
+            : otpRequester.get();
 
         // If the request path ends with the graphQL endpoint (e.g., '/graphql'), process response.
         if (otpRequestPath.endsWith(OtpDispatcher.OTP_GRAPHQL_ENDPOINT) && otpUser != null) {
@@ -206,14 +365,45 @@ public class OtpRequestProcessor implements Endpoint {
             }
         }
 
-        // Add response headers to requester as it was received from OTP server, but beware that
-        // spark.Response#header() will duplicate rather than update, so filter out duplicates.
-        Arrays.stream(otpDispatcherResponse.headers)
+        copyOtpResponseHeaders(otpDispatcherResponse.headers, response);
+        response.status(otpDispatcherResponse.statusCode);
+        return otpDispatcherResponse.responseBody;
+    }
+
+    /**
+     * @return true if the OTP response to a request to the given path must be stored in the trip history of the user.
+     */
+    private static boolean isStoredInTripHistory(OtpUser otpUser, String otpRequestPath, String endpoint) {
+        return otpUser != null && otpUser.storeTripHistory && otpRequestPath.endsWith(endpoint);
+    }
+
+    /**
+     * Add response headers to requester as it was received from OTP server, but beware that
+     * spark.Response#header() will duplicate rather than update, so filter out duplicates. The headers describing the
+     * length of the body are not passed on, because the body may be compressed before it is returned to the requester.
+     */
+    private static void copyOtpResponseHeaders(Header[] otpResponseHeaders, Response response) {
+        Arrays.stream(otpResponseHeaders)
+            .filter(h -> !HEADERS_NOT_TO_RETURN.contains(h.getName().toLowerCase()))
             .filter(h -> !response.raw().containsHeader(h.getName()))
             .forEach(h -> response.header(h.getName(), h.getValue()));
+    }
 
-        response.status(otpDispatcherResponse.statusCode);
-        return otpDispatcherResponse.responseBody;
+    /**
+     * Sets the status of the response to that of the OTP response, and returns the OTP response body for Spark to copy
+     * to the requester. The OTP response is closed once its body has been copied.
+     */
+    private static InputStream getStreamingResponseBody(
+        Request request,
+        Response response,
+        HttpStreamingResponse otpResponse
+    ) {
+        if (otpResponse == null) {
+            logMessageAndHalt(request, HttpStatus.INTERNAL_SERVER_ERROR_500, "No response from OTP server.");
+            return null;
+        }
+        response.status(otpResponse.status);
+        return otpResponse.getBody();
     }
 
     /**
@@ -12,6 +12,7 @@ import org.opentripplanner.middleware.models.AdminUser;
 import org.opentripplanner.middleware.models.ApiUser;
 import org.opentripplanner.middleware.models.ItineraryExistence;
 import org.opentripplanner.middleware.models.OtpUser;
+import org.opentripplanner.middleware.otp.response.Leg;
 import org.opentripplanner.middleware.utils.HttpResponseValues;
 import org.opentripplanner.middleware.utils.HttpUtils;
 import org.opentripplanner.middleware.utils.YamlUtils;
@@ -120,7 +121,16 @@ public class PublicApiDocGenerator {
         // Remove unwanted fields that spark-swagger created, add fields that were missed.
         removeTypeFields(ItineraryExistence.ItineraryExistenceResult.class.getSimpleName(), "itineraries");
         addTypeField(ItineraryExistence.ItineraryExistenceResult.class.getSimpleName(), "valid", "boolean");
-        removeTypeFields(ItineraryExistence.class.getSimpleName(), "otpRequests", "referenceItinerary", "tripIsArriveBy", "otpResponseProvider");
+        removeTypeFields(
+            ItineraryExistence.class.getSimpleName(),
+            "otpRequests",
+            "referenceItinerary",
+            "tripIsArriveBy",
+            "otpResponseProvider",
+            "otpRequestExecutor",
+            "timeoutMillis"
+        );
+        removeTypeFields(Leg.class.getSimpleName(), "fingerprintFieldHashes");
 
         // Cleanup the final document.
         generateMissingTypes();
@@ -9,8 +9,13 @@ import org.opentripplanner.middleware.otp.OtpRequest;
 import org.opentripplanner.middleware.otp.response.Itinerary;
 import org.opentripplanner.middleware.otp.response.OtpResponse;
 import org.opentripplanner.middleware.otp.response.TripPlan;
+import org.opentripplanner.middleware.utils.ConfigUtils;
 import org.opentripplanner.middleware.utils.DateTimeUtils;
+import org.opentripplanner.middleware.utils.ItineraryFingerprint;
 import org.opentripplanner.middleware.utils.ItineraryUtils;
+import org.opentripplanner.middleware.utils.TtlCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.time.DayOfWeek;
 import java.time.ZonedDateTime;
@@ -19,6 +24,12 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 
 import static org.opentripplanner.middleware.utils.DateTimeUtils.DEFAULT_DATE_FORMAT_PATTERN;
@@ -29,6 +40,8 @@ import static org.opentripplanner.middleware.utils.DateTimeUtils.DEFAULT_DATE_FO
  * particular day of the week.
  */
 public class ItineraryExistence extends Model {
+    private static final Logger LOG = LoggerFactory.getLogger(ItineraryExistence.class);
+
     /**
      * Initial set of requests on which to base the itinerary existence checks. We do not want these persisted.
      */
@@ -68,8 +81,52 @@ public class ItineraryExistence extends Model {
 
     private transient Function<OtpRequest, OtpResponse> otpResponseProvider = getOtpResponseProvider();
 
+    /** Sends the OTP requests of this check concurrently, or null to send them one at a time. */
+    private transient ExecutorService otpRequestExecutor;
+
+    /** The maximum time allowed for all OTP requests of this check to complete. */
+    private transient long timeoutMillis = TimeUnit.SECONDS.toMillis(ITINERARY_EXISTENCE_TIMEOUT_SECONDS);
+
     public static Function<OtpRequest, OtpResponse> otpResponseProviderOverride = null;
 
+    private static final Function<OtpRequest, OtpResponse> DEFAULT_OTP_RESPONSE_PROVIDER =
+        ItineraryExistence::getOtpResponse;
+
+    /** The maximum number of OTP requests made at the same time for all itinerary existence checks. */
+    private static final int ITINERARY_EXISTENCE_THREAD_COUNT =
+        ConfigUtils.getConfigPropertyAsInt("ITINERARY_EXISTENCE_THREAD_COUNT", 14);
+
+    /** The maximum time allowed for all OTP requests of an itinerary existence check to complete. */
+    private static final int ITINERARY_EXISTENCE_TIMEOUT_SECONDS =
+        ConfigUtils.getConfigPropertyAsInt("ITINERARY_EXISTENCE_TIMEOUT_SECONDS", 45);
+
+    /** How long OTP responses are reused for identical itinerary existence requests. Zero disables the cache. */
+    private static final int ITINERARY_EXISTENCE_CACHE_TTL_SECONDS =
+        ConfigUtils.getConfigPropertyAsInt("ITINERARY_EXISTENCE_CACHE_TTL_SECONDS", 300);
+
+    /** The maximum number of itineraries and legs kept in the OTP response cache. */
+    private static final int ITINERARY_EXISTENCE_CACHE_MAX_LEGS =
+        ConfigUtils.getConfigPropertyAsInt("ITINERARY_EXISTENCE_CACHE_MAX_LEGS", 50000);
+
+    /** OTP responses to recent itinerary existence requests, by normalized request and date. */
+    private static final TtlCache<String, OtpResponse> otpResponseCache = ITINERARY_EXISTENCE_CACHE_TTL_SECONDS > 0
+        ? new TtlCache<>(
+            ITINERARY_EXISTENCE_CACHE_MAX_LEGS,
+            TimeUnit.SECONDS.toMillis(ITINERARY_EXISTENCE_CACHE_TTL_SECONDS),
+            ItineraryExistence::getResponseWeight
+        )
+        : null;
+
+    /** Sends the OTP requests of itinerary existence checks, shared by all checks. */
+    private static final ExecutorService sharedOtpRequestExecutor = Executors.newFixedThreadPool(
+        Math.max(1, ITINERARY_EXISTENCE_THREAD_COUNT),
+        runnable -> {
+            Thread thread = new Thread(runnable, "itinerary-existence");
+            thread.setDaemon(true);
+            return thread;
+        }
+    );
+
     // Required for persistence.
     public ItineraryExistence() {}
 
@@ -83,12 +140,34 @@ public class ItineraryExistence extends Model {
         this.referenceItinerary = referenceItinerary;
         this.tripIsArriveBy = tripIsArriveBy;
         if (otpResponseProvider != null) this.otpResponseProvider = otpResponseProvider;
+        // Custom response providers (e.g. mock responses in tests) are called one at a time, in the order of the
+        // requests.
+        if (this.otpResponseProvider == DEFAULT_OTP_RESPONSE_PROVIDER) {
+            this.otpRequestExecutor = sharedOtpRequestExecutor;
+        }
+    }
+
+    /**
+     * Creates a check that calls the given response provider concurrently with the given executor, abandoning the
+     * responses not received within the given time.
+     */
+    ItineraryExistence(
+        List<OtpRequest> otpRequests,
+        Itinerary referenceItinerary,
+        boolean tripIsArriveBy,
+        Function<OtpRequest, OtpResponse> otpResponseProvider,
+        ExecutorService otpRequestExecutor,
+        long timeoutMillis
+    ) {
+        this(otpRequests, referenceItinerary, tripIsArriveBy, otpResponseProvider);
+        this.otpRequestExecutor = otpRequestExecutor;
+        this.timeoutMillis = timeoutMillis;
     }
 
     private Function<OtpRequest, OtpResponse> getOtpResponseProvider() {
         return OtpMiddlewareMain.inTestEnvironment && otpResponseProviderOverride != null
             ? otpResponseProviderOverride
-            : ItineraryExistence::getOtpResponse;
+            : DEFAULT_OTP_RESPONSE_PROVIDER;
     }
 
     /**
@@ -184,9 +263,13 @@ public class ItineraryExistence extends Model {
      * Checks whether the itinerary of a trip matches any of the OTP itineraries from the trip query params.
      */
     public void checkExistence(MonitoredTrip trip) {
-        // TODO: Consider multi-threading?
-        // Check existence of itinerary in the response for each OTP request.
-        for (OtpRequest otpRequest : otpRequests) {
+        ItineraryFingerprint referenceFingerprint = new ItineraryFingerprint(referenceItinerary);
+        List<OtpResponse> responses = getOtpResponses();
+        List<String> uncheckedDates = new ArrayList<>();
+        // Check existence of itinerary in the response for each OTP request. Responses are processed in the order of
+        // the requests regardless of the order in which they were received, so that the results are deterministic.
+        for (int i = 0; i < otpRequests.size(); i++) {
+            OtpRequest otpRequest = otpRequests.get(i);
             boolean hasMatchingItinerary = false;
             DayOfWeek dayOfWeek = otpRequest.dateTime.getDayOfWeek();
             // Get existing result for day of week if a date for that day of week has already been processed, or create
@@ -197,8 +280,15 @@ public class ItineraryExistence extends Model {
                 setResultForDayOfWeek(result, dayOfWeek);
             }
 
-            // Send off each plan query to OTP.
-            OtpResponse response = this.otpResponseProvider.apply(otpRequest);
+            OtpResponse response = responses.get(i);
+            if (response == null) {
+                // The trip can't be confirmed for a date OTP did not answer for in time.
+                uncheckedDates.add(
+                    DateTimeUtils.getStringFromDate(otpRequest.dateTime.toLocalDate(), DEFAULT_DATE_FORMAT_PATTERN)
+                );
+                result.handleInvalidDate(otpRequest.dateTime);
+                continue;
+            }
             TripPlan plan = response.plan;
 
             // Handle response if valid itineraries exist.
@@ -209,7 +299,7 @@ public class ItineraryExistence extends Model {
                     // (The matching itinerary will replace the original trip.itinerary.)
                     if (
                         ItineraryUtils.occursOnSameServiceDay(itineraryCandidate, otpRequest.dateTime, tripIsArriveBy) &&
-                        ItineraryUtils.itinerariesMatch(referenceItinerary, itineraryCandidate)
+                        referenceFingerprint.matches(itineraryCandidate)
                     ) {
                         result.handleValidDate(otpRequest.dateTime, itineraryCandidate);
                         hasMatchingItinerary = true;
@@ -221,7 +311,13 @@ public class ItineraryExistence extends Model {
                 result.handleInvalidDate(otpRequest.dateTime);
             }
         }
-        if (!allMonitoredDaysAreValid(trip)) {
+        if (!uncheckedDates.isEmpty()) {
+            this.message = String.format(
+                "The trip could not be checked on the following dates, please try again later: %s",
+                String.join(", ", uncheckedDates)
+            );
+            this.error = true;
+        } else if (!allMonitoredDaysAreValid(trip)) {
             this.message = String.format(
                 "The trip is not possible on the following days of the week you have selected: %s",
                 getInvalidDaysOfWeekMessage()
@@ -230,8 +326,92 @@ public class ItineraryExistence extends Model {
         }
     }
 
+    /**
+     * Sends the OTP requests of this check. Requests to OTP are sent concurrently, and responses not received within
+     * ITINERARY_EXISTENCE_TIMEOUT_SECONDS of the start of this check are abandoned. Custom response providers (e.g.
+     * mock responses in tests) are called one at a time, in the order of the requests, unless an executor is given.
+     * @return the response for each request, in the order of the requests, with null for the requests that failed or
+     * timed out.
+     */
+    private List<OtpResponse> getOtpResponses() {
+        List<OtpResponse> responses = new ArrayList<>();
+        if (otpRequestExecutor == null) {
+            for (OtpRequest otpRequest : otpRequests) {
+                responses.add(otpResponseProvider.apply(otpRequest));
+            }
+            return responses;
+        }
+
+        long deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+        List<Future<OtpResponse>> futures = new ArrayList<>();
+        for (OtpRequest otpRequest : otpRequests) {
+            futures.add(otpRequestExecutor.submit(() -> otpResponseProvider.apply(otpRequest)));
+        }
+        for (Future<OtpResponse> future : futures) {
+            OtpResponse response = null;
+            try {
+                response = future.get(Math.max(0, deadlineMillis - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                LOG.warn("OTP request for itinerary existence check timed out.");
+                future.cancel(true);
+            } catch (ExecutionException e) {
+                LOG.error("OTP request for itinerary existence check failed.", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+            }
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    /**
+     * Gets the OTP response for the given request, reusing the response to an identical request made within
+     * ITINERARY_EXISTENCE_CACHE_TTL_SECONDS (e.g. when several users save the same trip, or a user edits a trip).
+     */
     private static OtpResponse getOtpResponse(OtpRequest otpRequest) {
-        return OtpDispatcher.sendOtpRequestWithErrorHandling(otpRequest);
+        return getOtpResponse(otpRequest, otpResponseCache, OtpDispatcher::sendOtpRequestWithErrorHandling);
+    }
+
+    /**
+     * Gets the OTP response for the given request from the given cache, or from the given requester.
+     * @param responseCache the cache of OTP responses, or null if responses are not cached.
+     */
+    static OtpResponse getOtpResponse(
+        OtpRequest otpRequest,
+        TtlCache<String, OtpResponse> responseCache,
+        Function<OtpRequest, OtpResponse> otpRequester
+    ) {
+        if (responseCache == null) return otpRequester.apply(otpRequest);
+        String cacheKey = otpRequest.requestParameters.toNormalizedKey() + otpRequest.dateTime.toLocalDate();
+        OtpResponse response = responseCache.get(cacheKey);
+        if (response == null) {
+            response = otpRequester.apply(otpRequest);
+            // Only cache responses with a plan and no error, so that errors are not repeated.
+            if (response == null || response.plan == null || response.error != null) return response;
+            ItineraryFingerprint.hashCandidateFields(response);
+            responseCache.put(cacheKey, response);
+        }
+        try {
+            // Callers may modify the itineraries of the response, so don't hand out the cached ones.
+            return response.copyWithItineraries();
+        } catch (CloneNotSupportedException e) {
+            LOG.error("Could not copy OTP response", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the weight of an OTP response in the response cache, i.e. its number of itineraries and legs.
+     */
+    private static long getResponseWeight(OtpResponse response) {
+        long weight = 1;
+        if (response.plan != null && response.plan.itineraries != null) {
+            for (Itinerary itinerary : response.plan.itineraries) {
+                weight += 1 + (itinerary.legs == null ? 0 : itinerary.legs.size());
+            }
+        }
+        return weight;
     }
 
     /**
@@ -178,6 +178,12 @@ public class MonitoredTrip extends Model {
      */
     public int attemptsToGetMatchingItinerary;
 
+    /**
+     * Incremented whenever the trip is updated by its user, so that trip checks running at the same time do not
+     * overwrite such updates.
+     */
+    public long version;
+
     public MonitoredTrip() {
     }
 
@@ -0,0 +1,39 @@
+package org.opentripplanner.middleware.models;
+
+/**
+ * A time-limited claim made by a middleware node when trip monitoring runs in cluster mode (see
+ * {@link org.opentripplanner.middleware.tripmonitor.MonitoringLeaseManager}). A lease is either:
+ * - a node lease, which a node renews on every monitoring cycle to signal that it is alive, or
+ * - a partition lease, which gives the owning node the exclusive right to check the monitored trips of a partition.
+ *
+ * A lease that is not renewed before it expires (e.g. because its node died) can be claimed by another node.
+ */
+public class MonitoringLease extends Model {
+    private static final long serialVersionUID = 1L;
+
+    public enum LeaseType {
+        NODE, PARTITION
+    }
+
+    /** Whether this is a node or partition lease. */
+    public LeaseType type;
+
+    /** The partition this lease is for (partition leases only). */
+    public int partition;
+
+    /** The ID of the node that holds this lease. */
+    public String ownerId;
+
+    /** The time at which this lease expires, unless renewed by its owner. */
+    public long expirationEpochMillis;
+
+    /** The ID of the lease document for the given partition. */
+    public static String partitionLeaseId(int partition) {
+        return "partition-" + partition;
+    }
+
+    /** The ID of the lease document for the given node. */
+    public static String nodeLeaseId(String nodeId) {
+        return "node-" + nodeId;
+    }
+}
@@ -0,0 +1,94 @@
+package org.opentripplanner.middleware.models;
+
+/**
+ * A rendered notification waiting in the notification outbox to be delivered through one channel (see
+ * {@link org.opentripplanner.middleware.tripmonitor.NotificationOutbox}). Notifications are rendered when queued, so
+ * that the delivery workers only need to call the email, SMS, or push provider.
+ */
+public class QueuedNotification extends Model {
+    private static final long serialVersionUID = 1L;
+
+    public enum Channel {
+        EMAIL, SMS, PUSH
+    }
+
+    public enum Status {
+        /** Waiting for its first or next delivery attempt. */
+        PENDING,
+        /** Claimed by a delivery worker. */
+        SENDING,
+        /** Delivered, or not needed anymore (e.g. no push device is registered). */
+        SENT,
+        /** Not delivered after the maximum number of attempts. */
+        FAILED
+    }
+
+    /**
+     * Identifies the event this notification is for, so that the same notification is not queued twice, e.g. if the
+     * trip check that produced it is repeated.
+     */
+    public String idempotencyKey;
+
+    public Channel channel;
+
+    public Status status = Status.PENDING;
+
+    /** The ID of the {@link OtpUser} to notify. */
+    public String userId;
+
+    /** The ID of the {@link MonitoredTrip} the notification is about. */
+    public String tripId;
+
+    /** The email address (email and push notifications) or phone number (SMS) to send the notification to. */
+    public String recipient;
+
+    /** The email subject, or the push notification title. */
+    public String subject;
+
+    /** The text body of the notification. */
+    public String text;
+
+    /** The HTML body of the notification (email only). */
+    public String html;
+
+    /** The number of delivery attempts made so far. */
+    public int attempts;
+
+    /** The time this notification was queued. */
+    public long queuedEpochMillis;
+
+    /**
+     * The earliest time of the next delivery attempt while pending, or the time after which the claim of a delivery
+     * worker can be taken over while sending (e.g. if the worker's node died).
+     */
+    public long nextAttemptEpochMillis;
+
+    /** The time this notification was delivered. */
+    public long sentEpochMillis;
+
+    /** The reason the last delivery attempt failed, if any. */
+    public String lastError;
+
+    public QueuedNotification() {
+    }
+
+    public QueuedNotification(
+        Channel channel,
+        String idempotencyKey,
+        OtpUser otpUser,
+        String tripId,
+        String recipient,
+        String subject,
+        String text,
+        String html
+    ) {
+        this.channel = channel;
+        this.idempotencyKey = idempotencyKey;
+        this.userId = otpUser.id;
+        this.tripId = tripId;
+        this.recipient = recipient;
+        this.subject = subject;
+        this.text = text;
+        this.html = html;
+    }
+}
@@ -4,6 +4,7 @@ import org.opentripplanner.middleware.i18n.Message;
 import org.opentripplanner.middleware.otp.response.LocalizedAlert;
 import org.opentripplanner.middleware.tripmonitor.jobs.NotificationType;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.Set;
@@ -51,6 +52,20 @@ public class TripMonitorAlertNotification extends TripMonitorNotification {
         // Resolved alerts consists of all previous alerts that no longer exist.
         HashSet<LocalizedAlert> resolvedAlerts = new HashSet<>(previousAlerts);
         resolvedAlerts.removeAll(currentAlerts);
+        return createAlertNotification(unseenAlerts, resolvedAlerts, previousAlerts.size(), locale);
+    }
+
+    /**
+     * Creates a notification from the alerts of a trip that were added or removed since the previous check.
+     * @param previousAlertCount the number of distinct alerts at the previous check.
+     * @return the notification, or null if no alerts were added or removed.
+     */
+    public static TripMonitorAlertNotification createAlertNotification(
+        Collection<LocalizedAlert> unseenAlerts,
+        Collection<LocalizedAlert> resolvedAlerts,
+        int previousAlertCount,
+        Locale locale
+    ) {
         // If there is no change in alerts from previous check, no notification should be created.
         if (unseenAlerts.isEmpty() && resolvedAlerts.isEmpty()) {
             return null;
@@ -78,7 +93,7 @@ public class TripMonitorAlertNotification extends TripMonitorNotification {
         // If there are any resolved alerts, include list of these.
         boolean isAllClear = false;
         if (!resolvedAlerts.isEmpty()) {
-            isAllClear = previousAlerts.size() == resolvedAlerts.size() && unseenAlerts.isEmpty();
+            isAllClear = previousAlertCount == resolvedAlerts.size() && unseenAlerts.isEmpty();
             resolvedAlertsNotification = new TripMonitorAlertSubNotification(
                 // If all previous alerts were resolved and there are no unseen alerts, send ALL CLEAR.
                 resolvedAlerts,
@@ -93,8 +108,8 @@ public class TripMonitorAlertNotification extends TripMonitorNotification {
     }
 
     public static String getSummary(
-        Set<LocalizedAlert> newAlerts,
-        Set<LocalizedAlert> resolvedAlerts,
+        Collection<LocalizedAlert> newAlerts,
+        Collection<LocalizedAlert> resolvedAlerts,
         boolean isAllClear,
         Locale locale
     ) {
@@ -114,7 +129,11 @@ public class TripMonitorAlertNotification extends TripMonitorNotification {
     }
 
     /** Formats alert counts (assuming at least one alert). */
-    private static String formatAlertCount(Set<LocalizedAlert> newAlerts, Set<LocalizedAlert> resolvedAlerts, Locale locale) {
+    private static String formatAlertCount(
+        Collection<LocalizedAlert> newAlerts,
+        Collection<LocalizedAlert> resolvedAlerts,
+        Locale locale
+    ) {
         boolean hasNewAlerts = !newAlerts.isEmpty();
         boolean hasResolvedAlerts = !resolvedAlerts.isEmpty();
 
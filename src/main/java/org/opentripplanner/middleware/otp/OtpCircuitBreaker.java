@@ -0,0 +1,130 @@
+package org.opentripplanner.middleware.otp;
+
+import org.opentripplanner.middleware.utils.ConfigUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops requests from being sent to OTP while OTP appears to be down, so that callers fail fast instead of waiting for
+ * each request to time out:
+ * - While CLOSED, requests are sent to OTP. After OTP_CIRCUIT_BREAKER_FAILURE_THRESHOLD consecutive failed requests
+ *   (no response or a server error), the breaker opens.
+ * - While OPEN, requests are rejected without calling OTP. After OTP_CIRCUIT_BREAKER_OPEN_SECONDS, the breaker becomes
+ *   half-open.
+ * - While HALF_OPEN, a single trial request is sent to OTP. The breaker closes if it succeeds, and opens again if it
+ *   fails.
+ */
+public class OtpCircuitBreaker {
+    private static final Logger LOG = LoggerFactory.getLogger(OtpCircuitBreaker.class);
+
+    /** The number of consecutive failed requests after which OTP is considered down. */
+    public static final int OTP_CIRCUIT_BREAKER_FAILURE_THRESHOLD =
+        ConfigUtils.getConfigPropertyAsInt("OTP_CIRCUIT_BREAKER_FAILURE_THRESHOLD", 5);
+
+    /** The number of seconds requests are rejected after OTP is considered down, before OTP is tried again. */
+    public static final int OTP_CIRCUIT_BREAKER_OPEN_SECONDS =
+        ConfigUtils.getConfigPropertyAsInt("OTP_CIRCUIT_BREAKER_OPEN_SECONDS", 30);
+
+    /** The circuit breaker for all requests to OTP. */
+    public static final OtpCircuitBreaker INSTANCE = new OtpCircuitBreaker(
+        OTP_CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+        TimeUnit.SECONDS.toMillis(OTP_CIRCUIT_BREAKER_OPEN_SECONDS)
+    );
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+
+    private final long openDurationMillis;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openedAtMillis;
+
+    /** Whether the trial request of the half-open state has been sent and has not completed yet. */
+    private boolean trialInProgress;
+
+    private long rejectedCount;
+
+    public OtpCircuitBreaker(int failureThreshold, long openDurationMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDurationMillis = openDurationMillis;
+    }
+
+    /**
+     * @return true if a request can be sent to OTP, in which case {@link #recordSuccess} or {@link #recordFailure} must
+     * be called when it completes.
+     */
+    public synchronized boolean allowRequest() {
+        State currentState = getState();
+        if (currentState == State.CLOSED) return true;
+        if (currentState == State.HALF_OPEN && state == State.OPEN) {
+            // The open period has elapsed, switch to half-open.
+            state = State.HALF_OPEN;
+            LOG.info("Trying OTP again after the OTP circuit breaker was open for {} ms.", openDurationMillis);
+        }
+        if (state == State.HALF_OPEN && !trialInProgress) {
+            trialInProgress = true;
+            return true;
+        }
+        rejectedCount++;
+        return false;
+    }
+
+    /**
+     * @return true if requests are currently rejected without calling OTP (i.e. the breaker is open, or half-open with
+     * a trial request in progress).
+     */
+    public synchronized boolean isOpen() {
+        State currentState = getState();
+        return currentState == State.OPEN || (currentState == State.HALF_OPEN && trialInProgress);
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) LOG.info("OTP is responding again, closing the OTP circuit breaker.");
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInProgress = false;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            LOG.warn(
+                "OTP failed to respond to {} consecutive requests, rejecting requests for {} ms.",
+                consecutiveFailures,
+                openDurationMillis
+            );
+            state = State.OPEN;
+            openedAtMillis = System.currentTimeMillis();
+            trialInProgress = false;
+        }
+    }
+
+    /**
+     * @return the state of the breaker. An open breaker is reported as half-open once its open period has elapsed.
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAtMillis >= openDurationMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return the number of requests rejected without calling OTP since startup.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+}
@@ -0,0 +1,125 @@
+package org.opentripplanner.middleware.otp;
+
+import org.opentripplanner.middleware.utils.ConfigUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of concurrent requests made to OTP, adapting the limit to how OTP copes with the load (additive
+ * increase, multiplicative decrease): the limit grows by about one request each time a full limit's worth of requests
+ * completes quickly, and is cut whenever a request is slow or fails, down to a minimum of one request.
+ *
+ * Background monitoring requests and interactive requests (proxied OTP requests, itinerary existence checks for trips
+ * being saved) have separate limiters, so that a backlog of trip checks cannot use up the capacity reserved for users.
+ */
+public class OtpConcurrencyLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(OtpConcurrencyLimiter.class);
+
+    /** Requests that take longer than this are considered a sign that OTP is overloaded. */
+    private static final long LATENCY_THRESHOLD_MILLIS =
+        ConfigUtils.getConfigPropertyAsInt("OTP_LATENCY_THRESHOLD_MILLIS", 5000);
+
+    /** The factor applied to the limit when a request is slow or fails. */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /** Limits the OTP requests made by the trip monitor. */
+    public static final OtpConcurrencyLimiter MONITORING = new OtpConcurrencyLimiter(
+        "monitoring",
+        ConfigUtils.getConfigPropertyAsInt("OTP_MONITORING_MAX_CONCURRENCY", 10),
+        TimeUnit.SECONDS.toMillis(30)
+    );
+
+    /** Limits the OTP requests made on behalf of users. */
+    public static final OtpConcurrencyLimiter INTERACTIVE = new OtpConcurrencyLimiter(
+        "interactive",
+        ConfigUtils.getConfigPropertyAsInt("OTP_INTERACTIVE_MAX_CONCURRENCY", 50),
+        TimeUnit.SECONDS.toMillis(10)
+    );
+
+    private final String name;
+
+    private final int maxLimit;
+
+    /** How long to wait for a permit before giving up on a request. */
+    private final long maxWaitMillis;
+
+    /** The current limit. Fractional so that the limit can grow by less than one request per completed request. */
+    private double limit;
+
+    private int inFlight;
+
+    public OtpConcurrencyLimiter(String name, int maxLimit, long maxWaitMillis) {
+        this.name = name;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.maxWaitMillis = maxWaitMillis;
+        // Start at the maximum, and back off if OTP can't keep up.
+        this.limit = this.maxLimit;
+    }
+
+    /**
+     * Waits until a request can be made within the current limit.
+     * @return true if the request can be made, in which case {@link #release} must be called when it completes, or
+     * false if no permit became available in time.
+     */
+    public synchronized boolean acquire() {
+        long deadlineMillis = System.currentTimeMillis() + maxWaitMillis;
+        while (inFlight >= getLimit()) {
+            long remainingMillis = deadlineMillis - System.currentTimeMillis();
+            if (remainingMillis <= 0) {
+                LOG.warn("No OTP request permit available for {} requests (limit {}).", name, getLimit());
+                return false;
+            }
+            try {
+                wait(remainingMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Records the outcome of a request made after {@link #acquire} and adjusts the limit accordingly.
+     * @param latencyMillis how long the request took.
+     * @param succeeded false if the request failed in a way that suggests OTP is overloaded (e.g. a timeout or a server
+     *                  error).
+     */
+    public synchronized void release(long latencyMillis, boolean succeeded) {
+        inFlight--;
+        if (!succeeded || latencyMillis > LATENCY_THRESHOLD_MILLIS) {
+            limit = Math.max(1, limit * BACKOFF_RATIO);
+        } else if (inFlight + 1 >= getLimit()) {
+            // Only grow the limit when it is actually being used.
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Releases the permit of a request that was not sent to OTP after all (e.g. because the circuit breaker is open),
+     * without adjusting the limit, since the request says nothing about how OTP copes with the load.
+     */
+    public synchronized void releaseUnused() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * @return the current maximum number of concurrent requests.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -3,11 +3,15 @@ package org.opentripplanner.middleware.otp;
 import java.util.Map;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import org.apache.http.Header;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
 import org.opentripplanner.middleware.otp.response.OtpResponse;
 import org.opentripplanner.middleware.utils.GraphQLUtils;
+import org.opentripplanner.middleware.utils.HttpClientPool;
 import org.opentripplanner.middleware.utils.HttpResponseValues;
+import org.opentripplanner.middleware.utils.HttpStreamingResponse;
 import org.opentripplanner.middleware.utils.HttpUtils;
 import org.opentripplanner.middleware.utils.JsonUtils;
 import org.slf4j.Logger;
@@ -15,8 +19,14 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.core.UriBuilder;
 import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
+import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsInt;
 import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsText;
 
 /**
@@ -44,17 +54,53 @@ public class OtpDispatcher {
      */
     private static final int OTP_SERVER_REQUEST_TIMEOUT_IN_SECONDS = 30;
 
+    /** The minimum time between two reports of OTP errors to Bugsnag. */
+    private static final long OTP_ERROR_REPORT_INTERVAL_MILLIS =
+        TimeUnit.SECONDS.toMillis(getConfigPropertyAsInt("OTP_ERROR_REPORT_INTERVAL_SECONDS", 60));
+
+    private static final AtomicLong lastErrorReportMillis = new AtomicLong();
+
+    private static final AtomicInteger suppressedErrorReportCount = new AtomicInteger();
+
+    /** The response body returned when the circuit breaker is open. */
+    private static final String UNAVAILABLE_RESPONSE_BODY =
+        "{\"message\":\"The trip planner is unavailable, please try again later.\"}";
+
+    /** The response body returned when the concurrency limit is reached. */
+    private static final String BUSY_RESPONSE_BODY =
+        "{\"message\":\"The trip planner is busy, please try again later.\"}";
+
     /**
-     * Provides a response from the OTP server target service based on the query parameters provided.
+     * Provides a response from the OTP server target service based on the query parameters provided. The request is
+     * subject to the {@link OtpConcurrencyLimiter#INTERACTIVE} limit.
      */
     public static OtpDispatcherResponse sendOtpRequest(OtpVersion version, String query, String path) {
+        return sendOtpRequest(version, query, path, null);
+    }
+
+    /**
+     * Same as {@link #sendOtpRequest(OtpVersion, String, String)}, with the given request headers (e.g. to make a
+     * conditional request).
+     */
+    public static OtpDispatcherResponse sendOtpRequest(
+        OtpVersion version,
+        String query,
+        String path,
+        Map<String, String> headers
+    ) {
         LOG.debug("Original query string: {}", query);
-        return sendOtpRequest(buildOtpUri(version, query, path));
+        return sendOtpRequest(
+            buildOtpUri(version, query, path),
+            HttpMethod.GET,
+            headers,
+            null,
+            OtpConcurrencyLimiter.INTERACTIVE
+        );
     }
 
     /**
      * Sends a POST request to OTP where all the HTTP entities (path, query, headers, body) are
-     * settable.
+     * settable. The request is subject to the {@link OtpConcurrencyLimiter#INTERACTIVE} limit.
      */
     public static OtpDispatcherResponse sendOtpPostRequest(
             OtpVersion version,
@@ -64,7 +110,53 @@ public class OtpDispatcher {
             String bodyContent
     ) {
         LOG.debug("Original query string: {}", query);
-        return sendOtpRequest(buildOtpUri(version, query, path), HttpMethod.POST, headers, bodyContent);
+        return sendOtpRequest(
+            buildOtpUri(version, query, path),
+            HttpMethod.POST,
+            headers,
+            bodyContent,
+            OtpConcurrencyLimiter.INTERACTIVE
+        );
+    }
+
+    /**
+     * Sends a request to OTP and returns the response as soon as its headers are received, so that the response body
+     * can be passed on to the requester without holding it in memory. The request is subject to the
+     * {@link OtpCircuitBreaker} and to the {@link OtpConcurrencyLimiter#INTERACTIVE} limit, whose permit is released
+     * once the response headers are received. The limiter therefore does not count the time spent copying the body
+     * to the requester, which mostly depends on the requester's connection and would otherwise let slow requesters
+     * shrink the limit as if OTP were slow. The trade-off is that bodies still being copied from OTP are not counted
+     * against the limit: their number is bounded by the proxy permits of the caller instead, which are held until the
+     * body is closed.
+     * @return the OTP response, a response with a 503 status if OTP was not called, or null if OTP did not respond. The
+     * caller must close the response.
+     */
+    public static HttpStreamingResponse streamOtpRequest(
+        OtpVersion version,
+        String query,
+        String path,
+        HttpMethod method,
+        Map<String, String> headers,
+        String bodyContent
+    ) {
+        URI uri = buildOtpUri(version, query, path);
+        return sendGuardedOtpRequest(
+            OtpConcurrencyLimiter.INTERACTIVE,
+            OtpCircuitBreaker.INSTANCE,
+            () -> {
+                LOG.info("Sending request to OTP: {}", uri);
+                return HttpUtils.httpRequestStreamingResponse(
+                    HttpClientPool.OTP,
+                    uri,
+                    OTP_SERVER_REQUEST_TIMEOUT_IN_SECONDS,
+                    method,
+                    headers,
+                    bodyContent
+                );
+            },
+            otpResponse -> otpResponse.status,
+            rejectionBody -> HttpStreamingResponse.of(HttpStatus.SERVICE_UNAVAILABLE_503, rejectionBody)
+        );
     }
 
     /**
@@ -86,16 +178,22 @@ public class OtpDispatcher {
      * Provides a response from the OTP server target service based on the input {@link OtpRequest}.
      */
     public static OtpDispatcherResponse sendOtpPlanRequest(OtpVersion version, OtpGraphQLVariables params) {
+        return sendOtpRequest(
+            buildOtpUri(version, "", OTP_GRAPHQL_ENDPOINT),
+            HttpMethod.POST,
+            HttpUtils.HEADERS_JSON,
+            getPlanRequestBody(params)
+        );
+    }
+
+    /**
+     * @return the body of a GraphQL plan request with the given variables.
+     */
+    private static String getPlanRequestBody(OtpGraphQLVariables params) {
         OtpGraphQLQuery query = new OtpGraphQLQuery();
         query.query = GraphQLUtils.getPlanQueryTemplate();
         query.variables = params;
-        return sendOtpPostRequest(
-            version,
-            "",
-            OTP_GRAPHQL_ENDPOINT,
-            HttpUtils.HEADERS_JSON,
-            JsonUtils.toJson(query).replace("\\\\n", "\\n").replace("\\\\\"", "\"")
-        );
+        return JsonUtils.toJson(query).replace("\\\\n", "\\n").replace("\\\\\"", "\"");
     }
 
     /**
@@ -126,57 +224,185 @@ public class OtpDispatcher {
     private static OtpDispatcherResponse sendOtpRequest(URI uri) {
        return sendOtpRequest(uri, HttpMethod.GET, null, null);
     }
+
     /**
-     * Makes a call to the OTP server end point. The original response and status are wrapped in a single object and
-     * returned. It will fail if a connection is not made.
+     * Makes a call to the OTP server end point, subject to the {@link OtpCircuitBreaker} but not to a concurrency
+     * limit.
      */
     private static OtpDispatcherResponse sendOtpRequest(
             URI uri,
             HttpMethod method,
             Map<String, String> headers,
             String bodyContent
+    ) {
+        return sendOtpRequest(uri, method, headers, bodyContent, null);
+    }
+
+    /**
+     * Makes a call to the OTP server end point. The original response and status are wrapped in a single object and
+     * returned. If the {@link OtpCircuitBreaker} is open or the given limiter's concurrency limit is still reached
+     * after waiting, a 503 response is returned without calling OTP. If no response is received from OTP, a 502
+     * response without a body is returned.
+     * @param limiter the concurrency limiter for the request, or null if the request is not limited.
+     */
+    private static OtpDispatcherResponse sendOtpRequest(
+        URI uri,
+        HttpMethod method,
+        Map<String, String> headers,
+        String bodyContent,
+        OtpConcurrencyLimiter limiter
+    ) {
+        return sendGuardedOtpRequest(
+            limiter,
+            OtpCircuitBreaker.INSTANCE,
+            () -> sendUnguardedOtpRequest(uri, method, headers, bodyContent),
+            otpResponse -> otpResponse.statusCode,
+            rejectionBody -> createUnavailableResponse(uri, HttpStatus.SERVICE_UNAVAILABLE_503, rejectionBody)
+        );
+    }
+
+    /**
+     * Makes a call to the OTP server end point, regardless of the circuit breaker and concurrency limits.
+     * @return the OTP response, or a 502 response without a body if no response is received from OTP.
+     */
+    private static OtpDispatcherResponse sendUnguardedOtpRequest(
+        URI uri,
+        HttpMethod method,
+        Map<String, String> headers,
+        String bodyContent
     ) {
         LOG.info("Sending request to OTP: {}", uri);
-        HttpResponseValues otpResponse =
-            HttpUtils.httpRequestRawResponse(
-                uri,
-                OTP_SERVER_REQUEST_TIMEOUT_IN_SECONDS,
-                method,
-                headers,
-                bodyContent);
-        return new OtpDispatcherResponse(otpResponse);
+        HttpResponseValues otpResponse = HttpUtils.httpRequestRawResponse(
+            HttpClientPool.OTP,
+            uri,
+            OTP_SERVER_REQUEST_TIMEOUT_IN_SECONDS,
+            method,
+            headers,
+            bodyContent
+        );
+        return otpResponse == null
+            ? createUnavailableResponse(uri, HttpStatus.BAD_GATEWAY_502, null)
+            : new OtpDispatcherResponse(otpResponse);
+    }
+
+    /**
+     * Sends a request to OTP, unless the given limiter's concurrency limit is still reached after waiting or the
+     * circuit breaker rejects it, in which case a rejection is returned without calling OTP. The outcome of requests
+     * sent to OTP, including requests that throw, is recorded by the circuit breaker and the limiter. Rejected requests
+     * release their permit without affecting the limit, so that requests rejected during an OTP outage don't keep the
+     * limit low after OTP has recovered.
+     * @param limiter the concurrency limiter for the request, or null if the request is not limited.
+     * @param otpRequester sends the request to OTP and returns its response, or null if OTP did not respond.
+     * @param getStatus returns the HTTP status of a response.
+     * @param createRejection creates the response to return, given the body explaining why OTP was not called.
+     */
+    static <T> T sendGuardedOtpRequest(
+        OtpConcurrencyLimiter limiter,
+        OtpCircuitBreaker circuitBreaker,
+        Supplier<T> otpRequester,
+        ToIntFunction<T> getStatus,
+        Function<String, T> createRejection
+    ) {
+        if (limiter != null && !limiter.acquire()) {
+            return createRejection.apply(BUSY_RESPONSE_BODY);
+        }
+        if (!circuitBreaker.allowRequest()) {
+            LOG.debug("OTP circuit breaker is open, not sending request to OTP.");
+            if (limiter != null) limiter.releaseUnused();
+            return createRejection.apply(UNAVAILABLE_RESPONSE_BODY);
+        }
+        long startMillis = System.currentTimeMillis();
+        boolean succeeded = false;
+        try {
+            T otpResponse = otpRequester.get();
+            succeeded = otpResponse != null && getStatus.applyAsInt(otpResponse) < 500;
+            return otpResponse;
+        } finally {
+            if (succeeded) {
+                circuitBreaker.recordSuccess();
+            } else {
+                circuitBreaker.recordFailure();
+            }
+            if (limiter != null) limiter.release(System.currentTimeMillis() - startMillis, succeeded);
+        }
+    }
+
+    /**
+     * Creates a response for a request that OTP did not respond to or that was not sent to OTP.
+     */
+    private static OtpDispatcherResponse createUnavailableResponse(URI uri, int statusCode, String responseBody) {
+        OtpDispatcherResponse response = new OtpDispatcherResponse();
+        response.requestUri = uri;
+        response.statusCode = statusCode;
+        response.headers = new Header[0];
+        response.responseBody = responseBody;
+        return response;
     }
 
     public static OtpResponse sendOtpRequestWithErrorHandling(String sentParams) {
-        return handleOtpDispatcherResponse(() -> sendOtpPlanRequest(OtpVersion.OTP2, sentParams));
+        return handleOtpDispatcherResponse(
+            buildOtpUri(OtpVersion.OTP2, sentParams, OTP_PLAN_ENDPOINT),
+            HttpMethod.GET,
+            null,
+            null,
+            OtpConcurrencyLimiter.INTERACTIVE
+        );
     }
 
     public static OtpResponse sendOtpRequestWithErrorHandling(OtpRequest otpRequest) {
-        return handleOtpDispatcherResponse(() -> sendOtpPlanRequest(OtpVersion.OTP2, otpRequest));
+        return sendOtpRequestWithErrorHandling(otpRequest.requestParameters);
     }
 
     public static OtpResponse sendOtpRequestWithErrorHandling(OtpGraphQLVariables params) {
-        return handleOtpDispatcherResponse(() -> sendOtpPlanRequest(OtpVersion.OTP2, params));
+        return sendOtpRequestWithErrorHandling(params, OtpConcurrencyLimiter.INTERACTIVE);
+    }
+
+    /**
+     * Sends a plan request to OTP, subject to the concurrency limit of the given limiter (e.g.
+     * {@link OtpConcurrencyLimiter#MONITORING} for trip checks).
+     * @return the OTP response, or null if the request could not be made or failed.
+     */
+    public static OtpResponse sendOtpRequestWithErrorHandling(
+        OtpGraphQLVariables params,
+        OtpConcurrencyLimiter limiter
+    ) {
+        return handleOtpDispatcherResponse(
+            buildOtpUri(OtpVersion.OTP2, "", OTP_GRAPHQL_ENDPOINT),
+            HttpMethod.POST,
+            HttpUtils.HEADERS_JSON,
+            getPlanRequestBody(params),
+            limiter
+        );
     }
 
-    private static OtpResponse handleOtpDispatcherResponse(Supplier<OtpDispatcherResponse> otpDispatcherResponseSupplier) {
+    private static OtpResponse handleOtpDispatcherResponse(
+        URI uri,
+        HttpMethod method,
+        Map<String, String> headers,
+        String bodyContent,
+        OtpConcurrencyLimiter limiter
+    ) {
+        // Fail fast while OTP is known to be down. This is reported when the circuit breaker opens, not per request.
+        if (OtpCircuitBreaker.INSTANCE.isOpen()) return null;
         OtpDispatcherResponse otpDispatcherResponse;
         try {
-            otpDispatcherResponse = otpDispatcherResponseSupplier.get();
-        } catch (Exception e) {
-            BugsnagReporter.reportErrorToBugsnag(
-                "Encountered an error while making a request to the OTP server.",
-                e
+            otpDispatcherResponse = sendGuardedOtpRequest(
+                limiter,
+                OtpCircuitBreaker.INSTANCE,
+                () -> sendUnguardedOtpRequest(uri, method, headers, bodyContent),
+                otpResponse -> otpResponse.statusCode,
+                // A request that can't be made right away is not an error worth reporting, and is logged by the
+                // limiter or the circuit breaker.
+                rejectionBody -> null
             );
+        } catch (Exception e) {
+            reportOtpError("Encountered an error while making a request to the OTP server.", null, e);
             return null;
         }
+        if (otpDispatcherResponse == null) return null;
 
         if (otpDispatcherResponse.statusCode >= 400) {
-            BugsnagReporter.reportErrorToBugsnag(
-                "Received an error from the OTP server.",
-                otpDispatcherResponse,
-                null
-            );
+            reportOtpError("Received an error from the OTP server.", otpDispatcherResponse, null);
             return null;
         }
 
@@ -189,4 +415,29 @@ public class OtpDispatcher {
         }
     }
 
+    /**
+     * Reports an OTP error to Bugsnag, unless another OTP error was reported less than
+     * OTP_ERROR_REPORT_INTERVAL_SECONDS ago, in which case the error is only logged. This prevents a flood of identical
+     * reports when OTP is down or misbehaving.
+     */
+    private static void reportOtpError(String message, Object badEntity, Throwable throwable) {
+        long nowMillis = System.currentTimeMillis();
+        long lastReportMillis = lastErrorReportMillis.get();
+        if (
+            nowMillis - lastReportMillis < OTP_ERROR_REPORT_INTERVAL_MILLIS ||
+            !lastErrorReportMillis.compareAndSet(lastReportMillis, nowMillis)
+        ) {
+            suppressedErrorReportCount.incrementAndGet();
+            LOG.warn("{} Not reported to Bugsnag, another OTP error was reported recently.", message, throwable);
+            return;
+        }
+        int suppressedCount = suppressedErrorReportCount.getAndSet(0);
+        BugsnagReporter.reportErrorToBugsnag(
+            suppressedCount > 0
+                ? String.format("%s (%d other OTP errors since the last report)", message, suppressedCount)
+                : message,
+            badEntity,
+            throwable
+        );
+    }
 }
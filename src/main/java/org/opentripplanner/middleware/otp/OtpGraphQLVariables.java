@@ -4,9 +4,12 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.opentripplanner.middleware.models.MonitoredTrip;
+import org.opentripplanner.middleware.utils.JsonUtils;
 import spark.Request;
 
+import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.opentripplanner.middleware.utils.JsonUtils.getPOJOFromJSON;
 
@@ -35,6 +38,20 @@ public class OtpGraphQLVariables implements Cloneable {
         return getPOJOFromJSON(request.body(), MonitoredTrip.class).otp2QueryParams;
     }
 
+    /**
+     * @return a key that identifies the plan request made with these variables, regardless of the order in which the
+     * transport modes are listed. Identical plan requests (e.g. from different monitored trips) have the same key.
+     */
+    public String toNormalizedKey() {
+        OtpGraphQLVariables normalized = clone();
+        if (modes != null) {
+            normalized.modes = modes.stream()
+                .sorted(Comparator.comparing(OtpGraphQLTransportMode::toString))
+                .collect(Collectors.toList());
+        }
+        return JsonUtils.toJson(normalized);
+    }
+
     @Override
     public OtpGraphQLVariables clone() {
         OtpGraphQLVariables clone = new OtpGraphQLVariables();
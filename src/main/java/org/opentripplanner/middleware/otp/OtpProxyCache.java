@@ -0,0 +1,233 @@
+package org.opentripplanner.middleware.otp;
+
+import org.apache.http.Header;
+import org.eclipse.jetty.http.HttpStatus;
+import org.opentripplanner.middleware.utils.TtlCache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsInt;
+import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsText;
+
+/**
+ * Caches the responses to GET requests proxied to OTP, for the paths matching OTP_PROXY_CACHE_PATH_PATTERN. By default,
+ * only the index and server info endpoints are cached, as their responses only change when OTP loads a new graph. Plan
+ * requests are not cached unless the pattern is changed to include them.
+ *
+ * A response is fresh for the max-age set by OTP in its Cache-Control header, or for OTP_PROXY_CACHE_TTL_SECONDS if
+ * OTP does not set one, and is not cached at all if OTP sets no-store or private. Once stale, a response with an ETag
+ * or Last-Modified header is revalidated with a conditional request, and is reused if OTP reports it is unchanged.
+ * Responses are evicted OTP_PROXY_CACHE_TTL_SECONDS plus {@link #STALE_RETENTION_MILLIS} after they are cached or
+ * revalidated, so a response with a longer max-age is requested again from OTP after that time.
+ */
+public class OtpProxyCache {
+    private static final String DEFAULT_PATH_PATTERN =
+        ".*/(index/(agencies|feeds|patterns|routes|stops|trips)|serverinfo)(/.*)?";
+
+    /** How long stale responses are kept for revalidation. */
+    private static final long STALE_RETENTION_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /** Returned by {@link #getFreshnessMillis} for responses that must not be cached. */
+    static final long NOT_CACHEABLE = -1;
+
+    public static final OtpProxyCache INSTANCE = new OtpProxyCache(
+        getConfigPropertyAsText("OTP_PROXY_CACHE_PATH_PATTERN", DEFAULT_PATH_PATTERN),
+        TimeUnit.SECONDS.toMillis(getConfigPropertyAsInt("OTP_PROXY_CACHE_TTL_SECONDS", 300)),
+        getConfigPropertyAsInt("OTP_PROXY_CACHE_MAX_ENTRY_BYTES", 1_000_000),
+        getConfigPropertyAsInt("OTP_PROXY_CACHE_MAX_BYTES", 50_000_000),
+        System::currentTimeMillis
+    );
+
+    /** The paths to cache, or null if caching is disabled. */
+    private final Pattern pathPattern;
+
+    private final long defaultTtlMillis;
+
+    private final int maxEntryBytes;
+
+    private final LongSupplier clockMillis;
+
+    private final TtlCache<String, CachedResponse> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong revalidations = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    OtpProxyCache(
+        String pathPattern,
+        long defaultTtlMillis,
+        int maxEntryBytes,
+        int maxBytes,
+        LongSupplier clockMillis
+    ) {
+        this.pathPattern = pathPattern == null || pathPattern.isBlank() ? null : Pattern.compile(pathPattern);
+        this.defaultTtlMillis = defaultTtlMillis;
+        this.maxEntryBytes = maxEntryBytes;
+        this.clockMillis = clockMillis;
+        this.cache = new TtlCache<>(
+            maxBytes,
+            defaultTtlMillis + STALE_RETENTION_MILLIS,
+            response -> response.body.length()
+        );
+    }
+
+    /**
+     * @return true if responses to GET requests to the given OTP path are cached.
+     */
+    public boolean isCacheable(String otpRequestPath) {
+        return pathPattern != null && pathPattern.matcher(otpRequestPath).matches();
+    }
+
+    /**
+     * @return the response to the given GET request, from the cache if a fresh response is cached or if OTP reports
+     * that the stale cached response is unchanged, or from OTP otherwise.
+     */
+    public OtpDispatcherResponse getResponse(OtpVersion version, String query, String path) {
+        return getResponse(
+            query != null ? version + path + "?" + query : version + path,
+            headers -> OtpDispatcher.sendOtpRequest(version, query, path, headers)
+        );
+    }
+
+    /**
+     * @param otpRequester sends the request to OTP with the given additional headers.
+     */
+    OtpDispatcherResponse getResponse(
+        String key,
+        Function<Map<String, String>, OtpDispatcherResponse> otpRequester
+    ) {
+        CachedResponse cachedResponse = cache.get(key);
+        if (cachedResponse != null && cachedResponse.freshUntilMillis > clockMillis.getAsLong()) {
+            hits.incrementAndGet();
+            return cachedResponse.toDispatcherResponse();
+        }
+
+        OtpDispatcherResponse response = otpRequester.apply(
+            cachedResponse != null ? cachedResponse.getConditionalHeaders() : Map.of()
+        );
+        long nowMillis = clockMillis.getAsLong();
+        if (cachedResponse != null && response.statusCode == HttpStatus.NOT_MODIFIED_304) {
+            revalidations.incrementAndGet();
+            long freshnessMillis = getFreshnessMillis(response.headers);
+            if (freshnessMillis == NOT_CACHEABLE) {
+                cache.remove(key);
+            } else {
+                cache.put(key, cachedResponse.withFreshUntil(nowMillis + freshnessMillis));
+            }
+            return cachedResponse.toDispatcherResponse();
+        }
+
+        misses.incrementAndGet();
+        if (response.statusCode == HttpStatus.OK_200 && response.responseBody != null) {
+            long freshnessMillis = getFreshnessMillis(response.headers);
+            if (freshnessMillis != NOT_CACHEABLE && response.responseBody.length() <= maxEntryBytes) {
+                cache.put(key, new CachedResponse(response, nowMillis + freshnessMillis));
+            }
+        }
+        return response;
+    }
+
+    /**
+     * @return how long a response with the given headers is fresh for, or {@link #NOT_CACHEABLE}.
+     */
+    long getFreshnessMillis(Header[] headers) {
+        Long maxAgeMillis = null;
+        if (headers == null) return defaultTtlMillis;
+        for (Header header : headers) {
+            if (!header.getName().equalsIgnoreCase("Cache-Control")) continue;
+            for (String directive : header.getValue().toLowerCase().split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-store") || directive.equals("private")) return NOT_CACHEABLE;
+                if (directive.equals("no-cache")) {
+                    maxAgeMillis = 0L;
+                } else if (directive.startsWith("max-age=") && maxAgeMillis == null) {
+                    try {
+                        maxAgeMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(directive.substring(8)));
+                    } catch (NumberFormatException e) {
+                        // Ignore invalid max-age values.
+                    }
+                }
+            }
+        }
+        return maxAgeMillis != null ? maxAgeMillis : defaultTtlMillis;
+    }
+
+    /**
+     * @return the number of cached responses, and the number of requests served from the cache (including after
+     * revalidation) or from OTP.
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get();
+        long revalidationCount = revalidations.get();
+        long requestCount = hitCount + revalidationCount + misses.get();
+        return Map.of(
+            "size", cache.size(),
+            "sizeBytes", cache.getTotalWeight(),
+            "hitCount", hitCount,
+            "revalidatedCount", revalidationCount,
+            "missCount", misses.get(),
+            "hitRate", requestCount == 0 ? 0 : (double) (hitCount + revalidationCount) / requestCount
+        );
+    }
+
+    private static class CachedResponse {
+        private final String body;
+        private final String eTag;
+        private final String lastModified;
+        private final long freshUntilMillis;
+
+        private CachedResponse(OtpDispatcherResponse response, long freshUntilMillis) {
+            this(
+                response.responseBody,
+                getHeaderValue(response.headers, "ETag"),
+                getHeaderValue(response.headers, "Last-Modified"),
+                freshUntilMillis
+            );
+        }
+
+        private CachedResponse(String body, String eTag, String lastModified, long freshUntilMillis) {
+            this.body = body;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.freshUntilMillis = freshUntilMillis;
+        }
+
+        private CachedResponse withFreshUntil(long freshUntilMillis) {
+            return new CachedResponse(body, eTag, lastModified, freshUntilMillis);
+        }
+
+        /**
+         * @return the headers to make a request that OTP only responds to if the response has changed.
+         */
+        private Map<String, String> getConditionalHeaders() {
+            Map<String, String> headers = new HashMap<>();
+            if (eTag != null) headers.put("If-None-Match", eTag);
+            if (lastModified != null) headers.put("If-Modified-Since", lastModified);
+            return headers;
+        }
+
+        private OtpDispatcherResponse toDispatcherResponse() {
+            OtpDispatcherResponse response = new OtpDispatcherResponse();
+            response.statusCode = HttpStatus.OK_200;
+            response.responseBody = body;
+            response.headers = new Header[0];
+            return response;
+        }
+
+        private static String getHeaderValue(Header[] headers, String name) {
+            if (headers == null) return null;
+            for (Header header : headers) {
+                if (header.getName().equalsIgnoreCase(name)) return header.getValue();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.opentripplanner.middleware.otp;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsInt;
+import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsText;
+
+/**
+ * Coalesces identical GraphQL requests proxied to OTP at the same time, when enabled with
+ * OTP_PROXY_COALESCE_GRAPHQL_REQUESTS: while a request is in flight to OTP, identical requests (same path, query,
+ * language and body, regardless of the formatting of the body and of the order of its JSON fields) wait for its
+ * response instead of sending their own request. This avoids sending the same plan request many times during peak
+ * events, when many clients request the same trips. Coalesced responses are buffered rather than streamed.
+ *
+ * At most OTP_PROXY_COALESCE_MAX_WAITERS requests wait for the same in-flight request, additional identical requests
+ * are sent to OTP.
+ */
+public class OtpRequestCoalescer {
+    private static final Logger LOG = LoggerFactory.getLogger(OtpRequestCoalescer.class);
+
+    /** Serializes the request bodies with sorted JSON fields, so that equivalent bodies have the same key. */
+    private static final ObjectMapper mapper = new ObjectMapper()
+        .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    public static final OtpRequestCoalescer INSTANCE = new OtpRequestCoalescer(
+        getConfigPropertyAsText("OTP_PROXY_COALESCE_GRAPHQL_REQUESTS", "false").equalsIgnoreCase("true"),
+        getConfigPropertyAsInt("OTP_PROXY_COALESCE_MAX_WAITERS", 50)
+    );
+
+    private final boolean enabled;
+
+    private final int maxWaiters;
+
+    private final ConcurrentHashMap<String, InFlightRequest> inFlightRequests = new ConcurrentHashMap<>();
+
+    private final AtomicLong sentCount = new AtomicLong();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    private final AtomicLong waiterLimitCount = new AtomicLong();
+
+    private static class InFlightRequest {
+        private final CompletableFuture<OtpDispatcherResponse> response = new CompletableFuture<>();
+        private final AtomicInteger waiterCount = new AtomicInteger();
+    }
+
+    OtpRequestCoalescer(boolean enabled, int maxWaiters) {
+        this.enabled = enabled;
+        this.maxWaiters = maxWaiters;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the response to the given request, either from an identical in-flight request, or from the given
+     * requester, whose response is then shared with the identical requests received in the meantime.
+     */
+    public OtpDispatcherResponse getResponse(
+        OtpVersion version,
+        String path,
+        String query,
+        Map<String, String> headers,
+        String body,
+        Supplier<OtpDispatcherResponse> otpRequester
+    ) {
+        String key = getKey(version + path, query, getLanguage(headers), body);
+        InFlightRequest newRequest = new InFlightRequest();
+        InFlightRequest inFlightRequest = inFlightRequests.putIfAbsent(key, newRequest);
+        if (inFlightRequest != null) {
+            if (inFlightRequest.waiterCount.incrementAndGet() <= maxWaiters) {
+                try {
+                    OtpDispatcherResponse response = inFlightRequest.response.join();
+                    coalescedCount.incrementAndGet();
+                    return response;
+                } catch (CompletionException e) {
+                    // The in-flight request failed, send this request on its own.
+                    LOG.warn("Coalesced OTP request failed, resending it.", e);
+                }
+            } else {
+                waiterLimitCount.incrementAndGet();
+            }
+            sentCount.incrementAndGet();
+            return otpRequester.get();
+        }
+
+        sentCount.incrementAndGet();
+        try {
+            OtpDispatcherResponse response = otpRequester.get();
+            newRequest.response.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            newRequest.response.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightRequests.remove(key, newRequest);
+        }
+    }
+
+    /**
+     * @return a key identifying the request, made of its path, query, language (which OTP uses to translate names in
+     * its response) and a hash of its normalized body.
+     */
+    static String getKey(String path, String query, String language, String body) {
+        return path + "?" + query + "#" + language + "#" + hash(normalize(body));
+    }
+
+    private static String getLanguage(Map<String, String> headers) {
+        if (headers == null) return null;
+        return headers.entrySet().stream()
+            .filter(header -> header.getKey().equalsIgnoreCase("Accept-Language"))
+            .map(Map.Entry::getValue)
+            .findFirst()
+            .orElse(null);
+    }
+
+    /**
+     * @return the given JSON body with its fields sorted and without whitespace, or the body itself if it is not JSON.
+     */
+    static String normalize(String body) {
+        if (body == null) return "";
+        try {
+            return mapper.writeValueAsString(mapper.readValue(body, Object.class));
+        } catch (JsonProcessingException e) {
+            return body.strip();
+        }
+    }
+
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the number of requests sent to OTP, of requests that shared the response of an identical request, and of
+     * requests sent to OTP because too many requests were already waiting for an identical request.
+     */
+    public Map<String, Object> getStats() {
+        return Map.of(
+            "enabled", enabled,
+            "inFlight", inFlightRequests.size(),
+            "sentCount", sentCount.get(),
+            "coalescedCount", coalescedCount.get(),
+            "waiterLimitCount", waiterLimitCount.get()
+        );
+    }
+}
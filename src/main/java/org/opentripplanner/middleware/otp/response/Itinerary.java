@@ -205,6 +205,21 @@ public class Itinerary implements Cloneable {
         return cloned;
     }
 
+    /**
+     * Creates a copy of this itinerary with shallow copies of its legs, so that the start and end times of the copy can
+     * be offset (see {@link #offsetTimes}) without affecting this itinerary. Other nested objects are shared.
+     */
+    public Itinerary copyWithLegs() throws CloneNotSupportedException {
+        Itinerary copy = (Itinerary) super.clone();
+        if (legs != null) {
+            copy.legs = new ArrayList<>();
+            for (Leg leg : legs) {
+                copy.legs.add(leg.shallowCopy());
+            }
+        }
+        return copy;
+    }
+
     /**
      * Returns the scheduled start time of the itinerary in epoch milliseconds by subtracting any delay found in the
      * first transit leg if a transit leg exists.
@@ -274,6 +289,7 @@ public class Itinerary implements Cloneable {
         for (Leg leg : legs) {
             leg.startTime = new Date(leg.startTime.getTime() + offsetMillis);
             leg.endTime = new Date(leg.endTime.getTime() + offsetMillis);
+            leg.fingerprintFieldHashes = null;
         }
     }
 }
@@ -5,8 +5,10 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import org.bson.codecs.pojo.annotations.BsonIgnore;
 import org.opentripplanner.middleware.utils.DateTimeUtils;
+import org.opentripplanner.middleware.utils.ItineraryFingerprint;
 
 import java.time.ZonedDateTime;
+import java.time.zone.ZoneRules;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -58,6 +60,25 @@ public class Leg implements Cloneable {
     public Route route;
     public Trip trip;
 
+    /**
+     * The hashes of the fields of this leg compared by {@link ItineraryFingerprint}, computed on first use. They are
+     * cleared when the times of the leg are offset, and must otherwise not be used once the leg is modified.
+     */
+    transient volatile int[] fingerprintFieldHashes;
+
+    /**
+     * @return the hashes of the fields of this leg compared by {@link ItineraryFingerprint}, which are computed once
+     * and kept by the copies of this leg made afterwards (see {@link #shallowCopy}).
+     */
+    public int[] getFingerprintFieldHashes(ZoneRules otpZoneRules) {
+        int[] fieldHashes = fingerprintFieldHashes;
+        if (fieldHashes == null) {
+            fieldHashes = ItineraryFingerprint.hashFields(this, otpZoneRules);
+            fingerprintFieldHashes = fieldHashes;
+        }
+        return fieldHashes;
+    }
+
     /**
      * Gets the scheduled start time of this itinerary in the OTP timezone.
      */
@@ -82,6 +103,13 @@ public class Leg implements Cloneable {
         );
     }
 
+    /**
+     * Creates a shallow copy of this leg. Nested objects (places, alerts, geometry, etc.) are shared with this leg.
+     */
+    Leg shallowCopy() throws CloneNotSupportedException {
+        return (Leg) super.clone();
+    }
+
     /**
      * Clone this object.
      * NOTE: This is used primarily during testing and only clones certain needed items so not all entities are
@@ -20,6 +20,14 @@ public class LocalizedAlert {
     /** Regex to find both Windows and Unix line endings. */
     private static final Pattern NEWLINE_PATTERN = Pattern.compile("\\R");
 
+    /**
+     * The hash code, computed the first time it is needed, since the same alerts are hashed for many trips during a
+     * monitoring cycle. Alerts must therefore not be modified once they have been hashed.
+     */
+    private transient int hashCode;
+
+    private transient boolean isHashCodeComputed;
+
     /** Main, passive constructor for persistence */
     public LocalizedAlert() {
         // Does nothing
@@ -58,10 +66,17 @@ public class LocalizedAlert {
         // Exclude effectiveEndDate from the hash code for cases where a given alert is "extended",
         // e.g. incidents that take longer to resolve than initially planned.
         // Use getters instead of fields to treat null same as "" for comparison purposes.
-        return Objects.hash(getAlertHeaderText(), getAlertDescriptionText(), alertUrl, effectiveStartDate);
+        if (!isHashCodeComputed) {
+            hashCode = Objects.hash(getAlertHeaderText(), getAlertDescriptionText(), alertUrl, effectiveStartDate);
+            isHashCodeComputed = true;
+        }
+        return hashCode;
     }
 
     public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
         if (!(o instanceof LocalizedAlert)) {
             return false;
         }
@@ -3,6 +3,7 @@ package org.opentripplanner.middleware.otp.response;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import org.opentripplanner.middleware.utils.DateTimeUtils;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -20,6 +21,30 @@ public class OtpResponse {
     /** A timestamp representing when the response was received */
     public long timestamp = DateTimeUtils.currentTimeMillis();
 
+    /**
+     * Creates a copy of this response with copies of its itineraries (see {@link Itinerary#copyWithLegs}), so that the
+     * itineraries of the copy can be modified (e.g. by offsetting their times) without affecting this response.
+     */
+    public OtpResponse copyWithItineraries() throws CloneNotSupportedException {
+        OtpResponse copy = new OtpResponse();
+        copy.requestParameters = requestParameters;
+        copy.error = error;
+        copy.timestamp = timestamp;
+        if (plan != null) {
+            copy.plan = new TripPlan();
+            copy.plan.date = plan.date;
+            copy.plan.from = plan.from;
+            copy.plan.to = plan.to;
+            if (plan.itineraries != null) {
+                copy.plan.itineraries = new ArrayList<>();
+                for (Itinerary itinerary : plan.itineraries) {
+                    copy.plan.itineraries.add(itinerary.copyWithLegs());
+                }
+            }
+        }
+        return copy;
+    }
+
     @Override
     public String toString() {
         return "Response{" +
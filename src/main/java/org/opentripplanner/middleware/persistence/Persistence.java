@@ -5,6 +5,8 @@ import com.mongodb.MongoClientSettings;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
 import org.bson.codecs.configuration.CodecProvider;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.PojoCodecProvider;
@@ -15,14 +17,19 @@ import org.opentripplanner.middleware.models.BugsnagEventRequest;
 import org.opentripplanner.middleware.models.CDPUser;
 import org.opentripplanner.middleware.models.MonitoredComponent;
 import org.opentripplanner.middleware.models.MonitoredTrip;
+import org.opentripplanner.middleware.models.MonitoringLease;
 import org.opentripplanner.middleware.models.OtpUser;
+import org.opentripplanner.middleware.models.QueuedNotification;
 import org.opentripplanner.middleware.models.TrackedJourney;
 import org.opentripplanner.middleware.models.TripHistoryUpload;
 import org.opentripplanner.middleware.models.TripRequest;
 import org.opentripplanner.middleware.models.TripSummary;
+import org.opentripplanner.middleware.tripmonitor.RealtimeChangeIngestion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.TimeUnit;
+
 import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
 import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsText;
@@ -53,11 +60,13 @@ public class Persistence {
     public static TypedPersistence<TripRequest> tripRequests;
     public static TypedPersistence<TripSummary> tripSummaries;
     public static TypedPersistence<MonitoredTrip> monitoredTrips;
+    public static TypedPersistence<QueuedNotification> queuedNotifications;
 
     // admin and system reliability collections
     public static TypedPersistence<BugsnagEventRequest> bugsnagEventRequests;
     public static TypedPersistence<BugsnagEvent> bugsnagEvents;
     public static TypedPersistence<MonitoredComponent> monitoredComponents;
+    public static TypedPersistence<MonitoringLease> monitoringLeases;
 
     public static void initialize () {
         // TODO Add custom codec libraries
@@ -102,11 +111,35 @@ public class Persistence {
         tripRequests = new TypedPersistence(mongoDatabase, TripRequest.class);
         tripSummaries = new TypedPersistence(mongoDatabase, TripSummary.class);
         monitoredTrips = new TypedPersistence(mongoDatabase, MonitoredTrip.class);
+        queuedNotifications = new TypedPersistence(mongoDatabase, QueuedNotification.class);
 
         // admin and system reliability items
         bugsnagEventRequests = new TypedPersistence(mongoDatabase, BugsnagEventRequest.class);
         bugsnagEvents = new TypedPersistence(mongoDatabase, BugsnagEvent.class);
         monitoredComponents = new TypedPersistence(mongoDatabase, MonitoredComponent.class);
+        monitoringLeases = new TypedPersistence(mongoDatabase, MonitoringLease.class);
+
+        createIndexes();
+    }
+
+    /**
+     * Create the indexes needed by frequently-run queries (no-op for indexes that already exist).
+     */
+    private static void createIndexes() {
+        // Used by MonitorAllTripsJob to find the monitored trips that are due to be checked.
+        monitoredTrips.createIndex(Indexes.ascending("isActive", "journeyState.nextCheckEpochMillis"));
+        // Used by RealtimeChangeIngestion to find the monitored trips affected by realtime changes.
+        for (String field : RealtimeChangeIngestion.INDEXED_FIELDS) {
+            monitoredTrips.createIndex(Indexes.ascending(field));
+        }
+        // Used by NotificationOutbox to avoid queuing the same notification twice, to find the notifications to deliver,
+        // and to discard old notifications.
+        queuedNotifications.createIndex(Indexes.ascending("idempotencyKey"), new IndexOptions().unique(true));
+        queuedNotifications.createIndex(Indexes.ascending("channel", "status", "nextAttemptEpochMillis"));
+        queuedNotifications.createIndex(
+            Indexes.ascending("dateCreated"),
+            new IndexOptions().expireAfter(7L, TimeUnit.DAYS)
+        );
     }
 
 }
@@ -6,8 +6,14 @@ import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.result.DeleteResult;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWrapper;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
@@ -22,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static com.mongodb.client.model.Filters.eq;
@@ -106,8 +113,12 @@ public class TypedPersistence<T extends Model> {
         mongoCollection.insertMany(newObjects);
     }
 
-    public void replace(String id, T replaceObject) {
-        mongoCollection.replaceOne(eq(id), replaceObject);
+    /**
+     * Replaces the object with the given ID. The object is not re-created if it was deleted.
+     * @return true if an object with the given ID was found.
+     */
+    public boolean replace(String id, T replaceObject) {
+        return mongoCollection.replaceOne(eq(id), replaceObject).getMatchedCount() > 0;
     }
 
     /**
@@ -134,6 +145,86 @@ public class TypedPersistence<T extends Model> {
         return update(id, new Document(fieldName, value));
     }
 
+    /**
+     * Set the provided fields for the Mongo object referenced by ID. Unlike {@link #update}, this does not modify the
+     * lastUpdated field, so it is suited for bookkeeping values maintained by background jobs.
+     * @return true if an object with the given ID was found.
+     */
+    public boolean setFields(String id, Document fields) {
+        return mongoCollection.updateOne(eq(id), new Document("$set", fields)).getMatchedCount() > 0;
+    }
+
+    /**
+     * Same as {@link #setFields}, but only if the object has the expected value in the given version field, so that
+     * changes made to the object in the meantime (which increment the version) are not overwritten. An expected version
+     * of zero also matches objects saved before the version field existed.
+     * @return true if an object with the given ID and version was found.
+     */
+    public boolean setFieldsIfVersionMatches(String id, String versionField, long expectedVersion, Document fields) {
+        Bson versionFilter = getVersionFilter(id, versionField, expectedVersion);
+        return mongoCollection.updateOne(versionFilter, new Document("$set", fields)).getMatchedCount() > 0;
+    }
+
+    /**
+     * Same as {@link #setFieldsIfVersionMatches(String, String, long, Document)}, followed, in the same request, by the
+     * given update if the object also matches the given filter. The follow-up update is also subject to the version
+     * check, so it only applies if the fields were set.
+     * @return true if an object with the given ID and version was found.
+     */
+    public boolean setFieldsIfVersionMatches(
+        String id,
+        String versionField,
+        long expectedVersion,
+        Document fields,
+        Bson followUpFilter,
+        Bson followUpUpdate
+    ) {
+        Bson versionFilter = getVersionFilter(id, versionField, expectedVersion);
+        List<UpdateOneModel<T>> updates = List.of(
+            new UpdateOneModel<>(versionFilter, new Document("$set", fields)),
+            new UpdateOneModel<>(Filters.and(versionFilter, followUpFilter), followUpUpdate)
+        );
+        return mongoCollection.bulkWrite(updates).getMatchedCount() > 0;
+    }
+
+    /**
+     * Matches the object with the given ID if it has the expected value in the given version field. An expected version
+     * of zero also matches objects saved before the version field existed.
+     */
+    private static Bson getVersionFilter(String id, String versionField, long expectedVersion) {
+        Bson versionFilter = expectedVersion == 0
+            ? Filters.or(eq(versionField, 0L), Filters.exists(versionField, false))
+            : eq(versionField, expectedVersion);
+        return Filters.and(eq(id), versionFilter);
+    }
+
+    /**
+     * Encodes the given object (e.g. the value of a field of this collection's objects) as it would be saved to Mongo.
+     */
+    public BsonDocument toBsonDocument(Object value) {
+        return BsonDocumentWrapper.asBsonDocument(value, mongoCollection.getCodecRegistry());
+    }
+
+    /**
+     * Compares the previous and current encoded values of an embedded object (see {@link #toBsonDocument}) and returns
+     * the fields to set, prefixed with the path of the embedded object, to turn the previous value into the current
+     * one. Fields missing from the current value are set to null.
+     */
+    public static Document getChangedFields(String path, BsonDocument previousValue, BsonDocument currentValue) {
+        Document changedFields = new Document();
+        for (Map.Entry<String, BsonValue> field : currentValue.entrySet()) {
+            if (!field.getValue().equals(previousValue.get(field.getKey()))) {
+                changedFields.put(path + "." + field.getKey(), field.getValue());
+            }
+        }
+        for (String fieldName : previousValue.keySet()) {
+            if (!currentValue.containsKey(fieldName)) {
+                changedFields.put(path + "." + fieldName, BsonNull.VALUE);
+            }
+        }
+        return changedFields;
+    }
+
     public T getById(String id) {
         return mongoCollection.find(eq(id)).first();
     }
@@ -284,6 +375,20 @@ public class TypedPersistence<T extends Model> {
         return false;
     }
 
+    /**
+     * Create an index with the provided keys, if such an index does not already exist.
+     */
+    public void createIndex(Bson keys) {
+        mongoCollection.createIndex(keys);
+    }
+
+    /**
+     * Create an index with the provided keys and options (e.g. unique or TTL), if such an index does not already exist.
+     */
+    public void createIndex(Bson keys, IndexOptions options) {
+        mongoCollection.createIndex(keys, options);
+    }
+
     /**
      * Get distinct field values within the filter parameters.
      */
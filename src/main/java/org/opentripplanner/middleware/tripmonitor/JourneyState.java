@@ -38,6 +38,20 @@ public class JourneyState implements Cloneable {
      */
     public long lastCheckedEpochMillis;
 
+    /**
+     * The earliest time at which the trip should be checked again. The {@link CheckMonitoredTrip} job only loads trips
+     * whose next check time has been reached. This is maintained by {@link CheckMonitoredTrip} and reset when the trip
+     * is updated by the user.
+     */
+    public long nextCheckEpochMillis;
+
+    /**
+     * The last time realtime changes affecting the trip were received (see {@link RealtimeChangeIngestion}). If the trip
+     * was not checked since then, it is checked regardless of the usual check interval, provided it is within its lead
+     * time.
+     */
+    public long recheckRequestedEpochMillis;
+
     /**
      * The notifications already sent.
      * FIXME this is never set, so it has no effect.
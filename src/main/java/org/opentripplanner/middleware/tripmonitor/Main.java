@@ -19,11 +19,32 @@ public class Main {
 
         // Schedule recurring Monitor All Trips Job
         MonitorAllTripsJob monitorAllTripsJob = new MonitorAllTripsJob();
+        monitorAllTripsJob.releaseLeasesOnShutdown();
         Scheduler.scheduleJob(
             monitorAllTripsJob,
             0,
             1,
             TimeUnit.MINUTES
         );
+
+        // Deliver the notifications queued by trip checks, if the notification outbox is enabled.
+        if (NotificationOutbox.isEnabled()) {
+            Scheduler.scheduleJob(
+                new NotificationOutbox(),
+                0,
+                NotificationOutbox.NOTIFICATION_OUTBOX_POLL_SECONDS,
+                TimeUnit.SECONDS
+            );
+        }
+
+        // Re-check the monitored trips affected by realtime changes, if a realtime change feed is configured.
+        if (RealtimeChangeIngestion.isEnabled()) {
+            Scheduler.scheduleJob(
+                new RealtimeChangeIngestion(),
+                0,
+                RealtimeChangeIngestion.REALTIME_CHANGE_FEED_POLL_SECONDS,
+                TimeUnit.SECONDS
+            );
+        }
     }
 }
@@ -0,0 +1,223 @@
+package org.opentripplanner.middleware.tripmonitor;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.conversions.Bson;
+import org.opentripplanner.middleware.models.MonitoringLease;
+import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.utils.ConfigUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.eq;
+
+/**
+ * Splits the monitored trips between the middleware nodes that run the trip monitor, when cluster mode is enabled
+ * (MONITORING_CLUSTER_MODE_ENABLED). Each trip belongs to one of a fixed number of partitions based on its ID, and the
+ * nodes share the partitions through {@link MonitoringLease} documents in Mongo. At the start of each monitoring cycle,
+ * a node:
+ * - renews its node lease, which signals that the node is alive,
+ * - renews the partition leases it holds, and releases the partitions beyond its share (number of partitions divided
+ *     by number of live nodes) so that newly started nodes can claim them,
+ * - claims unowned or expired partitions until it holds its share.
+ *
+ * Leases of a node that stops renewing them (e.g. because it died) expire and are claimed by the remaining nodes.
+ * Claims are atomic: a partition lease is only modified if it is held by the claiming node or has expired, and
+ * concurrent attempts to create the same lease fail with a duplicate key error.
+ */
+public class MonitoringLeaseManager {
+    private static final Logger LOG = LoggerFactory.getLogger(MonitoringLeaseManager.class);
+
+    private static final String MONITORING_CLUSTER_MODE_ENABLED =
+        ConfigUtils.getConfigPropertyAsText("MONITORING_CLUSTER_MODE_ENABLED", "false");
+
+    public static final int MONITORING_PARTITION_COUNT =
+        ConfigUtils.getConfigPropertyAsInt("MONITORING_PARTITION_COUNT", 64);
+
+    public static final int MONITORING_LEASE_DURATION_SECONDS =
+        ConfigUtils.getConfigPropertyAsInt("MONITORING_LEASE_DURATION_SECONDS", 180);
+
+    private final String nodeId;
+
+    private final int partitionCount;
+
+    private final long leaseDurationMillis;
+
+    /** The partitions held by this node and the time at which the lease for each of them expires. */
+    private volatile Map<Integer, Long> heldPartitions = Collections.emptyMap();
+
+    public MonitoringLeaseManager() {
+        this(
+            UUID.randomUUID().toString(),
+            MONITORING_PARTITION_COUNT,
+            TimeUnit.SECONDS.toMillis(MONITORING_LEASE_DURATION_SECONDS)
+        );
+    }
+
+    public MonitoringLeaseManager(String nodeId, int partitionCount, long leaseDurationMillis) {
+        this.nodeId = nodeId;
+        this.partitionCount = Math.max(1, partitionCount);
+        this.leaseDurationMillis = leaseDurationMillis;
+    }
+
+    /**
+     * @return true if trip monitoring is configured to be split between several nodes.
+     */
+    public static boolean isClusterModeEnabled() {
+        return MONITORING_CLUSTER_MODE_ENABLED.equalsIgnoreCase("true");
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return the partition that the given monitored trip belongs to.
+     */
+    public int getPartition(String tripId) {
+        return Math.floorMod(tripId.hashCode(), partitionCount);
+    }
+
+    /**
+     * Renews the leases of this node, and claims or releases partitions so that this node holds its share of the
+     * partitions.
+     * @return the partitions held by this node.
+     */
+    public Set<Integer> updateLeases() {
+        return updateLeases(System.currentTimeMillis());
+    }
+
+    /**
+     * Same as {@link #updateLeases()}, with the current time provided by the caller.
+     */
+    public synchronized Set<Integer> updateLeases(long nowMillis) {
+        MongoCollection<MonitoringLease> leases = Persistence.monitoringLeases.getMongoCollection();
+        long expirationMillis = nowMillis + leaseDurationMillis;
+
+        // Signal that this node is alive and count the nodes that are alive.
+        leases.updateOne(
+            eq(MonitoringLease.nodeLeaseId(nodeId)),
+            Updates.combine(
+                Updates.set("type", MonitoringLease.LeaseType.NODE.name()),
+                Updates.set("ownerId", nodeId),
+                Updates.set("expirationEpochMillis", expirationMillis)
+            ),
+            new UpdateOptions().upsert(true)
+        );
+        long liveNodeCount = Math.max(1, leases.countDocuments(Filters.and(
+            eq("type", MonitoringLease.LeaseType.NODE.name()),
+            Filters.gt("expirationEpochMillis", nowMillis)
+        )));
+        int targetPartitionCount = (int) Math.ceil((double) partitionCount / liveNodeCount);
+
+        // Renew the partitions still held by this node, releasing any beyond this node's share.
+        List<Integer> renewedPartitions = new ArrayList<>();
+        for (int partition : new TreeSet<>(heldPartitions.keySet())) {
+            if (renewedPartitions.size() >= targetPartitionCount) {
+                release(leases, partition);
+            } else if (tryClaim(leases, partition, nowMillis, expirationMillis)) {
+                renewedPartitions.add(partition);
+            }
+        }
+
+        // Claim unowned or expired partitions until this node holds its share. Start at a node-specific offset so
+        // that nodes starting at the same time don't all compete for the same partitions.
+        Map<Integer, Long> newHeldPartitions = new HashMap<>();
+        renewedPartitions.forEach(partition -> newHeldPartitions.put(partition, expirationMillis));
+        int offset = Math.floorMod(nodeId.hashCode(), partitionCount);
+        for (int i = 0; i < partitionCount && newHeldPartitions.size() < targetPartitionCount; i++) {
+            int partition = (offset + i) % partitionCount;
+            if (!newHeldPartitions.containsKey(partition) && tryClaim(leases, partition, nowMillis, expirationMillis)) {
+                newHeldPartitions.put(partition, expirationMillis);
+            }
+        }
+        heldPartitions = Collections.unmodifiableMap(newHeldPartitions);
+        LOG.info(
+            "Node {} holds {} of {} partitions ({} live nodes).",
+            nodeId,
+            newHeldPartitions.size(),
+            partitionCount,
+            liveNodeCount
+        );
+        return newHeldPartitions.keySet();
+    }
+
+    /**
+     * @return true if this node holds an unexpired lease for the partition of the given trip. Checking this before
+     * processing each trip ensures that a trip is not checked after another node could have claimed its partition.
+     */
+    public boolean isResponsibleFor(String tripId) {
+        Long expirationMillis = heldPartitions.get(getPartition(tripId));
+        return expirationMillis != null && expirationMillis > System.currentTimeMillis();
+    }
+
+    /**
+     * Releases all leases held by this node, e.g. on shutdown, so that other nodes can claim them right away.
+     */
+    public synchronized void releaseAll() {
+        MongoCollection<MonitoringLease> leases = Persistence.monitoringLeases.getMongoCollection();
+        heldPartitions.keySet().forEach(partition -> release(leases, partition));
+        heldPartitions = Collections.emptyMap();
+        leases.deleteOne(eq(MonitoringLease.nodeLeaseId(nodeId)));
+    }
+
+    /**
+     * Atomically claims (or renews) the lease of a partition if it is unowned, expired, or already held by this node.
+     * @return true if this node now holds the lease.
+     */
+    private boolean tryClaim(
+        MongoCollection<MonitoringLease> leases,
+        int partition,
+        long nowMillis,
+        long expirationMillis
+    ) {
+        Bson claimableLease = Filters.and(
+            eq(MonitoringLease.partitionLeaseId(partition)),
+            Filters.or(
+                eq("ownerId", nodeId),
+                Filters.lte("expirationEpochMillis", nowMillis)
+            )
+        );
+        try {
+            leases.updateOne(
+                claimableLease,
+                Updates.combine(
+                    Updates.set("type", MonitoringLease.LeaseType.PARTITION.name()),
+                    Updates.set("partition", partition),
+                    Updates.set("ownerId", nodeId),
+                    Updates.set("expirationEpochMillis", expirationMillis)
+                ),
+                new UpdateOptions().upsert(true)
+            );
+            return true;
+        } catch (MongoWriteException e) {
+            // The lease exists and is held by another node, so the upsert attempted to insert a duplicate ID.
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) return false;
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the lease of a partition held by this node by making it expire.
+     */
+    private void release(MongoCollection<MonitoringLease> leases, int partition) {
+        leases.updateOne(
+            Filters.and(eq(MonitoringLease.partitionLeaseId(partition)), eq("ownerId", nodeId)),
+            Updates.set("expirationEpochMillis", 0L)
+        );
+    }
+}
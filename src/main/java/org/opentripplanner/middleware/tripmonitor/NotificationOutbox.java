@@ -0,0 +1,359 @@
+package org.opentripplanner.middleware.tripmonitor;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import org.bson.conversions.Bson;
+import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
+import org.opentripplanner.middleware.models.OtpUser;
+import org.opentripplanner.middleware.models.QueuedNotification;
+import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.utils.ConfigUtils;
+import org.opentripplanner.middleware.utils.NotificationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lte;
+
+/**
+ * Delivers trip monitor notifications outside of the trip checks, when enabled with NOTIFICATION_OUTBOX_ENABLED.
+ * Trip checks render their notifications and add them to the outbox collection in Mongo (see {@link #enqueue}), which
+ * takes a single insert, instead of calling the email, SMS, and push providers on the trip analyzer threads.
+ *
+ * Each run of this job claims the pending notifications of each channel and hands them to a bounded pool of delivery
+ * threads for that channel (NOTIFICATION_OUTBOX_THREADS_PER_CHANNEL), so that a slow provider only delays the
+ * notifications of its own channel. Failed deliveries are retried with exponential backoff, up to
+ * NOTIFICATION_OUTBOX_MAX_ATTEMPTS times. Notifications are claimed atomically, so several middleware nodes can deliver
+ * notifications from the same outbox.
+ */
+public class NotificationOutbox implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationOutbox.class);
+
+    private static final String NOTIFICATION_OUTBOX_ENABLED =
+        ConfigUtils.getConfigPropertyAsText("NOTIFICATION_OUTBOX_ENABLED", "false");
+
+    /** The number of seconds between two runs of this job. */
+    public static final int NOTIFICATION_OUTBOX_POLL_SECONDS =
+        ConfigUtils.getConfigPropertyAsInt("NOTIFICATION_OUTBOX_POLL_SECONDS", 5);
+
+    /** The maximum number of notifications of each channel delivered at the same time by this node. */
+    public static final int NOTIFICATION_OUTBOX_THREADS_PER_CHANNEL =
+        ConfigUtils.getConfigPropertyAsInt("NOTIFICATION_OUTBOX_THREADS_PER_CHANNEL", 2);
+
+    /** The number of delivery attempts after which a notification is abandoned. */
+    public static final int NOTIFICATION_OUTBOX_MAX_ATTEMPTS =
+        ConfigUtils.getConfigPropertyAsInt("NOTIFICATION_OUTBOX_MAX_ATTEMPTS", 5);
+
+    private static final long FIRST_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /** How long a delivery thread can hold a notification before another node may take it over. */
+    private static final long SENDING_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final AtomicLong queuedCount = new AtomicLong();
+    private static final AtomicLong duplicateCount = new AtomicLong();
+    private static final AtomicLong sentCount = new AtomicLong();
+    private static final AtomicLong retriedCount = new AtomicLong();
+    private static final AtomicLong failedCount = new AtomicLong();
+    private static final AtomicLong totalDeliveryLatencyMillis = new AtomicLong();
+    private static final AtomicLong maxDeliveryLatencyMillis = new AtomicLong();
+
+    private final Map<QueuedNotification.Channel, ExecutorService> deliveryExecutors =
+        new EnumMap<>(QueuedNotification.Channel.class);
+
+    private final Map<QueuedNotification.Channel, Semaphore> idleDeliveryThreads =
+        new EnumMap<>(QueuedNotification.Channel.class);
+
+    public NotificationOutbox() {
+        int threadCount = Math.max(1, NOTIFICATION_OUTBOX_THREADS_PER_CHANNEL);
+        for (QueuedNotification.Channel channel : QueuedNotification.Channel.values()) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            deliveryExecutors.put(channel, Executors.newFixedThreadPool(threadCount, runnable -> {
+                Thread thread = new Thread(
+                    runnable,
+                    String.format("notification-%s-%d", channel.name().toLowerCase(), threadNumber.incrementAndGet())
+                );
+                thread.setDaemon(true);
+                return thread;
+            }));
+            idleDeliveryThreads.put(channel, new Semaphore(threadCount));
+        }
+    }
+
+    /**
+     * @return true if trip monitor notifications should be queued in the outbox rather than sent by the trip checks.
+     */
+    public static boolean isEnabled() {
+        return NOTIFICATION_OUTBOX_ENABLED.equalsIgnoreCase("true");
+    }
+
+    /**
+     * Adds the given notifications to the outbox. Notifications whose idempotency key was already queued are ignored.
+     * @return the number of the given notifications that are in the outbox, including those already queued.
+     */
+    public static int enqueue(List<QueuedNotification> notifications) {
+        int count = 0;
+        for (QueuedNotification notification : notifications) {
+            notification.queuedEpochMillis = System.currentTimeMillis();
+            notification.nextAttemptEpochMillis = notification.queuedEpochMillis;
+            try {
+                Persistence.queuedNotifications.getMongoCollection().insertOne(notification);
+                queuedCount.incrementAndGet();
+                count++;
+            } catch (MongoWriteException e) {
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) throw e;
+                LOG.info("Notification {} was already queued.", notification.idempotencyKey);
+                duplicateCount.incrementAndGet();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int dispatchedCount = 0;
+            for (QueuedNotification.Channel channel : QueuedNotification.Channel.values()) {
+                dispatchedCount += dispatch(channel);
+            }
+            if (dispatchedCount > 0) {
+                LOG.info("Dispatched {} notifications for delivery. {}", dispatchedCount, getStatusSummary());
+            }
+        } catch (Exception e) {
+            // Catch everything here, otherwise subsequent scheduled runs of this job would be suppressed.
+            BugsnagReporter.reportErrorToBugsnag("Error encountered while running NotificationOutbox", e);
+        }
+    }
+
+    /**
+     * Claims due notifications of the given channel for as long as a delivery thread of that channel is idle, and
+     * submits them for delivery.
+     * @return the number of notifications submitted.
+     */
+    private int dispatch(QueuedNotification.Channel channel) {
+        Semaphore idleThreads = idleDeliveryThreads.get(channel);
+        int dispatchedCount = 0;
+        while (idleThreads.tryAcquire()) {
+            QueuedNotification notification;
+            try {
+                notification = claimNext(channel);
+            } catch (RuntimeException e) {
+                idleThreads.release();
+                throw e;
+            }
+            if (notification == null) {
+                idleThreads.release();
+                break;
+            }
+            deliveryExecutors.get(channel).execute(() -> {
+                try {
+                    deliver(notification);
+                } finally {
+                    idleThreads.release();
+                }
+            });
+            dispatchedCount++;
+        }
+        return dispatchedCount;
+    }
+
+    /**
+     * Atomically claims the pending notification of the given channel that has been due the longest, or a notification
+     * whose delivery thread has not completed in time.
+     * @return the claimed notification, or null if none is due.
+     */
+    private static QueuedNotification claimNext(QueuedNotification.Channel channel) {
+        long nowMillis = System.currentTimeMillis();
+        Bson dueNotification = and(
+            eq("channel", channel.name()),
+            in("status", QueuedNotification.Status.PENDING.name(), QueuedNotification.Status.SENDING.name()),
+            lte("nextAttemptEpochMillis", nowMillis)
+        );
+        return Persistence.queuedNotifications.getMongoCollection().findOneAndUpdate(
+            dueNotification,
+            Updates.combine(
+                Updates.set("status", QueuedNotification.Status.SENDING.name()),
+                Updates.set("nextAttemptEpochMillis", nowMillis + SENDING_TIMEOUT_MILLIS),
+                Updates.inc("attempts", 1)
+            ),
+            new FindOneAndUpdateOptions()
+                .sort(Sorts.ascending("nextAttemptEpochMillis"))
+                .returnDocument(ReturnDocument.AFTER)
+        );
+    }
+
+    /**
+     * Delivers a claimed notification and records the outcome, scheduling a retry if the delivery failed.
+     */
+    private static void deliver(QueuedNotification notification) {
+        String error;
+        try {
+            error = send(notification);
+        } catch (Exception e) {
+            LOG.error("Could not deliver notification {}", notification.idempotencyKey, e);
+            error = e.toString();
+        }
+
+        long nowMillis = System.currentTimeMillis();
+        if (error == null) {
+            long latencyMillis = nowMillis - notification.queuedEpochMillis;
+            sentCount.incrementAndGet();
+            totalDeliveryLatencyMillis.addAndGet(latencyMillis);
+            maxDeliveryLatencyMillis.accumulateAndGet(latencyMillis, Math::max);
+            updateStatus(notification, QueuedNotification.Status.SENT, Updates.set("sentEpochMillis", nowMillis));
+        } else if (notification.attempts >= NOTIFICATION_OUTBOX_MAX_ATTEMPTS) {
+            failedCount.incrementAndGet();
+            updateStatus(notification, QueuedNotification.Status.FAILED, Updates.set("lastError", error));
+            BugsnagReporter.reportErrorToBugsnag(
+                String.format(
+                    "Could not deliver %s notification to user %s after %d attempts: %s",
+                    notification.channel,
+                    notification.userId,
+                    notification.attempts,
+                    error
+                ),
+                new IllegalStateException(error)
+            );
+        } else {
+            retriedCount.incrementAndGet();
+            updateStatus(
+                notification,
+                QueuedNotification.Status.PENDING,
+                Updates.combine(
+                    Updates.set("lastError", error),
+                    Updates.set("nextAttemptEpochMillis", nowMillis + getRetryDelayMillis(notification.attempts))
+                )
+            );
+        }
+    }
+
+    /**
+     * Sends a notification through its channel.
+     * @return null if the notification was delivered or does not need to be delivered anymore, or the reason the
+     * delivery failed.
+     */
+    private static String send(QueuedNotification notification) {
+        switch (notification.channel) {
+            case EMAIL:
+                return NotificationUtils.sendRenderedEmail(
+                    notification.recipient,
+                    notification.subject,
+                    notification.text,
+                    notification.html
+                ) ? null : "Email could not be sent";
+            case SMS:
+                return NotificationUtils.sendSMS(notification.recipient, notification.text) != null
+                    ? null
+                    : "SMS could not be sent";
+            case PUSH:
+                if (!NotificationUtils.isPushConfigured()) return null;
+                OtpUser otpUser = Persistence.otpUsers.getById(notification.userId);
+                if (otpUser == null) return null;
+                // Update push notification devices count, which may change asynchronously, and only send the push
+                // notification if the user has devices to receive it.
+                NotificationUtils.updatePushDevices(otpUser);
+                if (otpUser.pushDevices == 0) return null;
+                return NotificationUtils.sendPush(
+                    notification.recipient,
+                    notification.text,
+                    notification.subject,
+                    notification.tripId
+                ) != null ? null : "Push notification could not be sent";
+        }
+        throw new IllegalArgumentException("Unsupported notification channel " + notification.channel);
+    }
+
+    /**
+     * Records the outcome of a delivery attempt, unless another node has taken over the notification in the meantime
+     * (the claim time limit, stored as the next attempt time, identifies the claim).
+     */
+    private static void updateStatus(QueuedNotification notification, QueuedNotification.Status status, Bson updates) {
+        Persistence.queuedNotifications.getMongoCollection().updateOne(
+            and(eq(notification.id), eq("nextAttemptEpochMillis", notification.nextAttemptEpochMillis)),
+            Updates.combine(Updates.set("status", status.name()), updates)
+        );
+    }
+
+    /**
+     * @return the delay before the next attempt to deliver a notification, which doubles with each failed attempt.
+     */
+    static long getRetryDelayMillis(int attempts) {
+        long delayMillis = FIRST_RETRY_DELAY_MILLIS << Math.min(Math.max(attempts - 1, 0), 20);
+        return Math.min(delayMillis, MAX_RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * @return the number of notifications waiting to be delivered or being delivered, across all nodes.
+     */
+    public static long getQueueDepth() {
+        return Persistence.queuedNotifications.getCountFiltered(in(
+            "status",
+            QueuedNotification.Status.PENDING.name(),
+            QueuedNotification.Status.SENDING.name()
+        ));
+    }
+
+    /**
+     * @return the average time between queuing and delivering the notifications delivered by this node.
+     */
+    public static long getAverageDeliveryLatencyMillis() {
+        long sent = sentCount.get();
+        return sent == 0 ? 0 : totalDeliveryLatencyMillis.get() / sent;
+    }
+
+    public static long getMaxDeliveryLatencyMillis() {
+        return maxDeliveryLatencyMillis.get();
+    }
+
+    public static long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    public static long getSentCount() {
+        return sentCount.get();
+    }
+
+    public static long getRetriedCount() {
+        return retriedCount.get();
+    }
+
+    public static long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return a summary of the outbox queue depth and of the notifications queued and delivered by this node.
+     */
+    public static String getStatusSummary() {
+        return String.format(
+            "Notification outbox: %d waiting; this node queued %d (%d duplicates), delivered %d " +
+                "(average latency %d ms, max %d ms), retried %d, abandoned %d.",
+            getQueueDepth(),
+            queuedCount.get(),
+            duplicateCount.get(),
+            sentCount.get(),
+            getAverageDeliveryLatencyMillis(),
+            maxDeliveryLatencyMillis.get(),
+            retriedCount.get(),
+            failedCount.get()
+        );
+    }
+}
@@ -0,0 +1,61 @@
+package org.opentripplanner.middleware.tripmonitor;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch of realtime changes, modeled after the trip updates and service alerts of GTFS-realtime feeds, that is used
+ * to find the monitored trips to check right away (see {@link RealtimeChangeIngestion}). Only the entities affected by
+ * each change are needed. IDs must be in the format used by OTP (e.g. "feedId:routeId"). Example:
+ *
+ * {
+ *   "tripUpdates": [{ "tripId": "MARTA:1234567", "routeId": "MARTA:10" }],
+ *   "alerts": [{ "informedEntities": [{ "routeId": "MARTA:27" }, { "stopId": "MARTA:907933" }] }]
+ * }
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RealtimeChangeFeed {
+    public List<AffectedEntity> tripUpdates = new ArrayList<>();
+
+    public List<Alert> alerts = new ArrayList<>();
+
+    /**
+     * @return all entities affected by the trip updates and alerts of this feed.
+     */
+    public List<AffectedEntity> getAffectedEntities() {
+        List<AffectedEntity> entities = new ArrayList<>();
+        if (tripUpdates != null) entities.addAll(tripUpdates);
+        if (alerts != null) {
+            for (Alert alert : alerts) {
+                if (alert.informedEntities != null) entities.addAll(alert.informedEntities);
+            }
+        }
+        return entities;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Alert {
+        public List<AffectedEntity> informedEntities = new ArrayList<>();
+    }
+
+    /**
+     * A route, trip and/or stop affected by a realtime change. Fields that are not set are ignored.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class AffectedEntity {
+        public String routeId;
+        public String tripId;
+        public String stopId;
+
+        public AffectedEntity() {
+        }
+
+        public AffectedEntity(String routeId, String tripId, String stopId) {
+            this.routeId = routeId;
+            this.tripId = tripId;
+            this.stopId = stopId;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.opentripplanner.middleware.tripmonitor;
+
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.conversions.Bson;
+import org.eclipse.jetty.http.HttpMethod;
+import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
+import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.utils.ConfigUtils;
+import org.opentripplanner.middleware.utils.DateTimeUtils;
+import org.opentripplanner.middleware.utils.FileUtils;
+import org.opentripplanner.middleware.utils.HttpResponseValues;
+import org.opentripplanner.middleware.utils.HttpUtils;
+import org.opentripplanner.middleware.utils.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.or;
+
+/**
+ * Makes the monitored trips affected by realtime changes (see {@link RealtimeChangeFeed}) due for a check right away,
+ * so that delay and alert notifications are sent during disruptions without waiting for the regular check cadence.
+ * Realtime changes are either posted to the admin API, or polled by this job from REALTIME_CHANGE_FEED_URL (an http(s)
+ * URL or a local file path).
+ *
+ * The affected trips are found with the multikey indexes on the route, trip and stop IDs of the transit legs of the
+ * monitored trip itineraries (see {@link #INDEXED_FIELDS}), which Mongo keeps up-to-date whenever a trip is saved.
+ */
+public class RealtimeChangeIngestion implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(RealtimeChangeIngestion.class);
+
+    /** The location of the realtime change feed to poll, if any. */
+    public static final String REALTIME_CHANGE_FEED_URL =
+        ConfigUtils.getConfigPropertyAsText("REALTIME_CHANGE_FEED_URL");
+
+    /** The number of seconds between two polls of the realtime change feed. */
+    public static final int REALTIME_CHANGE_FEED_POLL_SECONDS =
+        ConfigUtils.getConfigPropertyAsInt("REALTIME_CHANGE_FEED_POLL_SECONDS", 30);
+
+    private static final String ROUTE_ID_FIELD = "itinerary.legs.routeId";
+    /** OTP2 responses only include the route ID in the route of each leg. */
+    private static final String ROUTE_GTFS_ID_FIELD = "itinerary.legs.route.gtfsId";
+    private static final String TRIP_ID_FIELD = "itinerary.legs.tripId";
+    private static final String FROM_STOP_ID_FIELD = "itinerary.legs.from.stopId";
+    private static final String TO_STOP_ID_FIELD = "itinerary.legs.to.stopId";
+
+    /** The monitored trip fields to index in order to find the trips affected by realtime changes. */
+    public static final List<String> INDEXED_FIELDS = List.of(
+        ROUTE_ID_FIELD,
+        ROUTE_GTFS_ID_FIELD,
+        TRIP_ID_FIELD,
+        FROM_STOP_ID_FIELD,
+        TO_STOP_ID_FIELD
+    );
+
+    private static final AtomicLong affectedTripCount = new AtomicLong();
+
+    /** The contents of the feed when it was last polled, to avoid processing the same changes again. */
+    private String lastFeedContents;
+
+    /**
+     * @return true if a realtime change feed should be polled.
+     */
+    public static boolean isEnabled() {
+        return REALTIME_CHANGE_FEED_URL != null && !REALTIME_CHANGE_FEED_URL.isBlank();
+    }
+
+    @Override
+    public void run() {
+        try {
+            String feedContents = readFeed();
+            if (feedContents == null || feedContents.equals(lastFeedContents)) return;
+            lastFeedContents = feedContents;
+            enqueueAffectedTrips(JsonUtils.getPOJOFromJSON(feedContents, RealtimeChangeFeed.class));
+        } catch (Exception e) {
+            // Catch everything here, otherwise subsequent scheduled runs of this job would be suppressed.
+            BugsnagReporter.reportErrorToBugsnag("Error encountered while ingesting realtime changes", e);
+        }
+    }
+
+    private static String readFeed() throws IOException {
+        if (!REALTIME_CHANGE_FEED_URL.startsWith("http://") && !REALTIME_CHANGE_FEED_URL.startsWith("https://")) {
+            return FileUtils.getFileContents(REALTIME_CHANGE_FEED_URL);
+        }
+        HttpResponseValues response = HttpUtils.httpRequestRawResponse(
+            URI.create(REALTIME_CHANGE_FEED_URL),
+            10,
+            HttpMethod.GET,
+            null,
+            null
+        );
+        if (response == null || response.status != 200) {
+            LOG.warn("Could not retrieve realtime changes from {}", REALTIME_CHANGE_FEED_URL);
+            return null;
+        }
+        return response.responseBody;
+    }
+
+    /**
+     * Makes the active monitored trips that use any of the routes, trips or stops affected by the given changes due for
+     * a check right away, regardless of when they were last checked
+     * (see {@link JourneyState#recheckRequestedEpochMillis}). Trip checks in progress, whose OTP requests may predate
+     * the changes, keep the trips due when saving their results.
+     * @return the number of affected trips.
+     */
+    public static long enqueueAffectedTrips(RealtimeChangeFeed feed) {
+        Set<String> routeIds = new HashSet<>();
+        Set<String> tripIds = new HashSet<>();
+        Set<String> stopIds = new HashSet<>();
+        for (RealtimeChangeFeed.AffectedEntity entity : feed.getAffectedEntities()) {
+            if (entity.routeId != null) routeIds.add(entity.routeId);
+            if (entity.tripId != null) tripIds.add(entity.tripId);
+            if (entity.stopId != null) stopIds.add(entity.stopId);
+        }
+        List<Bson> clauses = new ArrayList<>();
+        if (!routeIds.isEmpty()) {
+            clauses.add(in(ROUTE_ID_FIELD, routeIds));
+            clauses.add(in(ROUTE_GTFS_ID_FIELD, routeIds));
+        }
+        if (!tripIds.isEmpty()) clauses.add(in(TRIP_ID_FIELD, tripIds));
+        if (!stopIds.isEmpty()) {
+            clauses.add(in(FROM_STOP_ID_FIELD, stopIds));
+            clauses.add(in(TO_STOP_ID_FIELD, stopIds));
+        }
+        if (clauses.isEmpty()) return 0;
+
+        long nowMillis = DateTimeUtils.currentTimeMillis();
+        UpdateResult result = Persistence.monitoredTrips.getMongoCollection().updateMany(
+            and(eq("isActive", true), or(clauses)),
+            Updates.combine(
+                // Trips already due keep their due time (and therefore their priority).
+                Updates.min("journeyState.nextCheckEpochMillis", nowMillis),
+                Updates.set("journeyState.recheckRequestedEpochMillis", nowMillis)
+            )
+        );
+        long count = result.getModifiedCount();
+        affectedTripCount.addAndGet(count);
+        LOG.info(
+            "Realtime changes to {} routes, {} trips and {} stops affect {} monitored trips, checking them right away.",
+            routeIds.size(),
+            tripIds.size(),
+            stopIds.size(),
+            count
+        );
+        return count;
+    }
+
+    /**
+     * @return the number of monitored trips made due by realtime changes since startup.
+     */
+    public static long getAffectedTripCount() {
+        return affectedTripCount.get();
+    }
+}
@@ -0,0 +1,79 @@
+package org.opentripplanner.middleware.tripmonitor;
+
+import org.opentripplanner.middleware.utils.ConfigUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines how often a monitored trip is checked once the trip is within its lead time, based on how soon its next
+ * itinerary starts:
+ * - if the trip starts in more than TRIP_CHECK_DISTANT_THRESHOLD_MINUTES, it is checked every
+ *     TRIP_CHECK_DISTANT_INTERVAL_MINUTES,
+ * - if the trip starts in more than TRIP_CHECK_IMMINENT_THRESHOLD_MINUTES, it is checked every
+ *     TRIP_CHECK_SOON_INTERVAL_MINUTES,
+ * - otherwise, including while the trip is active, it is checked on every run of the trip monitor (every minute).
+ *
+ * The trip monitor uses the next check time derived from this cadence to only load the trips that are due, so trips
+ * that start later cost fewer OTP requests than imminent trips.
+ */
+public class TripCheckCadence {
+    /** If a trip starts in more than this many minutes, it is checked at the distant trip interval. */
+    public static final int DISTANT_THRESHOLD_MINUTES =
+        ConfigUtils.getConfigPropertyAsInt("TRIP_CHECK_DISTANT_THRESHOLD_MINUTES", 60);
+
+    /** The number of minutes between checks of a trip that starts in more than the distant threshold. */
+    public static final int DISTANT_INTERVAL_MINUTES =
+        ConfigUtils.getConfigPropertyAsInt("TRIP_CHECK_DISTANT_INTERVAL_MINUTES", 60);
+
+    /** The number of minutes between checks of a trip that starts between the imminent and distant thresholds. */
+    public static final int SOON_INTERVAL_MINUTES =
+        ConfigUtils.getConfigPropertyAsInt("TRIP_CHECK_SOON_INTERVAL_MINUTES", 15);
+
+    /** If a trip starts within this many minutes (or has started), it is checked every minute. */
+    public static final int IMMINENT_THRESHOLD_MINUTES =
+        ConfigUtils.getConfigPropertyAsInt("TRIP_CHECK_IMMINENT_THRESHOLD_MINUTES", 30);
+
+    private TripCheckCadence() {
+    }
+
+    /**
+     * @return the minimum number of minutes between two checks of a trip within its lead time that starts in the given
+     * number of minutes. Zero means that the trip is checked on every run of the trip monitor.
+     */
+    public static int getCheckIntervalMinutes(long minutesUntilTrip) {
+        if (minutesUntilTrip > DISTANT_THRESHOLD_MINUTES) return DISTANT_INTERVAL_MINUTES;
+        if (minutesUntilTrip > IMMINENT_THRESHOLD_MINUTES) return SOON_INTERVAL_MINUTES;
+        return 0;
+    }
+
+    /**
+     * @return the earliest time at which a trip within its lead time should be checked again according to this cadence.
+     * This is the time the check interval elapses, or the time the trip enters a window with a shorter interval,
+     * whichever comes first.
+     */
+    public static long getNextCheckEpochMillis(long tripStartMillis, long lastCheckedMillis, long nowMillis) {
+        long distantThresholdMillis = minutesBefore(tripStartMillis, DISTANT_THRESHOLD_MINUTES);
+        if (nowMillis < distantThresholdMillis) {
+            return Math.min(
+                lastCheckedMillis + TimeUnit.MINUTES.toMillis(DISTANT_INTERVAL_MINUTES),
+                distantThresholdMillis
+            );
+        }
+        long imminentThresholdMillis = minutesBefore(tripStartMillis, IMMINENT_THRESHOLD_MINUTES);
+        if (nowMillis < imminentThresholdMillis) {
+            return Math.min(
+                lastCheckedMillis + TimeUnit.MINUTES.toMillis(SOON_INTERVAL_MINUTES),
+                imminentThresholdMillis
+            );
+        }
+        return nowMillis;
+    }
+
+    /**
+     * @return the time the given number of minutes before the given time. One extra minute is subtracted because the
+     * number of minutes until a trip starts is rounded to whole minutes when deciding whether to check the trip.
+     */
+    public static long minutesBefore(long epochMillis, int minutes) {
+        return epochMillis - TimeUnit.MINUTES.toMillis(minutes + 1L);
+    }
+}
@@ -0,0 +1,110 @@
+package org.opentripplanner.middleware.tripmonitor.jobs;
+
+import org.opentripplanner.middleware.otp.response.LocalizedAlert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Assigns a numeric ID to each distinct alert (as determined by {@link LocalizedAlert#equals}) seen during a
+ * {@link MonitoringCycle}, so that trip checks can find new and resolved alerts by comparing alert IDs instead of
+ * hashing and comparing the alert text for every trip.
+ *
+ * Alerts from OTP are usually the same for many trips (e.g. an alert for a route affects all riders of that route), and
+ * the alert instances of OTP responses shared during a cycle are the same objects for all trips that requested the same
+ * plan. Since alerts cache their hash code, the text of such an alert is hashed once per cycle rather than once per
+ * trip.
+ *
+ * Only the alerts of current itineraries are registered. The previous alerts of a trip (deserialized from its journey
+ * state for each trip check) are only looked up, so that they are not retained for the rest of the cycle.
+ */
+public class AlertRegistry {
+    /** The ID of each distinct alert, by alert content. */
+    private final Map<LocalizedAlert, Integer> idsByAlert = new ConcurrentHashMap<>();
+
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * @return the ID of the given alert, which is the same for all alerts that are equal.
+     */
+    public int getId(LocalizedAlert alert) {
+        return idsByAlert.computeIfAbsent(alert, a -> nextId.getAndIncrement());
+    }
+
+    /**
+     * @return the number of distinct alerts seen so far.
+     */
+    public int getAlertCount() {
+        return idsByAlert.size();
+    }
+
+    /**
+     * Compares the previous and current alerts of a trip.
+     */
+    public AlertDiff diff(Collection<LocalizedAlert> previousAlerts, Collection<LocalizedAlert> currentAlerts) {
+        Map<Integer, LocalizedAlert> currentAlertsById = getAlertsById(currentAlerts, this::getId);
+        // Previous alerts that match no registered alert can't be among the current alerts. They get negative IDs that
+        // are local to this comparison.
+        Map<LocalizedAlert, Integer> unregisteredIds = new HashMap<>();
+        Map<Integer, LocalizedAlert> previousAlertsById = getAlertsById(previousAlerts, alert -> {
+            Integer id = idsByAlert.get(alert);
+            return id != null ? id : unregisteredIds.computeIfAbsent(alert, a -> -1 - unregisteredIds.size());
+        });
+        return new AlertDiff(
+            getAlertsNotIn(currentAlertsById, previousAlertsById),
+            getAlertsNotIn(previousAlertsById, currentAlertsById),
+            previousAlertsById.size()
+        );
+    }
+
+    /**
+     * @return the given alerts by ID, keeping the first of several equal alerts.
+     */
+    private static Map<Integer, LocalizedAlert> getAlertsById(
+        Collection<LocalizedAlert> alerts,
+        ToIntFunction<LocalizedAlert> getId
+    ) {
+        Map<Integer, LocalizedAlert> alertsById = new HashMap<>();
+        for (LocalizedAlert alert : alerts) {
+            alertsById.putIfAbsent(getId.applyAsInt(alert), alert);
+        }
+        return alertsById;
+    }
+
+    private static List<LocalizedAlert> getAlertsNotIn(
+        Map<Integer, LocalizedAlert> alertsById,
+        Map<Integer, LocalizedAlert> otherAlertsById
+    ) {
+        List<LocalizedAlert> alerts = new ArrayList<>();
+        for (Map.Entry<Integer, LocalizedAlert> entry : alertsById.entrySet()) {
+            if (!otherAlertsById.containsKey(entry.getKey())) alerts.add(entry.getValue());
+        }
+        return alerts;
+    }
+
+    /**
+     * The result of comparing the previous and current alerts of a trip.
+     */
+    public static class AlertDiff {
+        /** Current alerts that were not previously present. */
+        public final List<LocalizedAlert> unseenAlerts;
+
+        /** Previous alerts that are no longer present. */
+        public final List<LocalizedAlert> resolvedAlerts;
+
+        /** The number of distinct previous alerts. */
+        public final int previousAlertCount;
+
+        AlertDiff(List<LocalizedAlert> unseenAlerts, List<LocalizedAlert> resolvedAlerts, int previousAlertCount) {
+            this.unseenAlerts = unseenAlerts;
+            this.resolvedAlerts = resolvedAlerts;
+            this.previousAlertCount = previousAlertCount;
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package org.opentripplanner.middleware.tripmonitor.jobs;
 
+import com.mongodb.client.model.Updates;
+import freemarker.template.TemplateException;
+import org.bson.BsonDocument;
+import org.bson.Document;
 import org.opentripplanner.middleware.i18n.Message;
 import org.opentripplanner.middleware.models.ItineraryExistence;
 import org.opentripplanner.middleware.models.MonitoredTrip;
 import org.opentripplanner.middleware.models.OtpUser;
+import org.opentripplanner.middleware.models.QueuedNotification;
 import org.opentripplanner.middleware.models.TripMonitorAlertNotification;
 import org.opentripplanner.middleware.models.TripMonitorNotification;
+import org.opentripplanner.middleware.otp.OtpConcurrencyLimiter;
 import org.opentripplanner.middleware.otp.OtpGraphQLVariables;
 import org.opentripplanner.middleware.tripmonitor.TripStatus;
 import org.opentripplanner.middleware.otp.OtpDispatcher;
@@ -13,17 +19,24 @@ import org.opentripplanner.middleware.otp.response.Itinerary;
 import org.opentripplanner.middleware.otp.response.LocalizedAlert;
 import org.opentripplanner.middleware.otp.response.OtpResponse;
 import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.persistence.TypedPersistence;
 import org.opentripplanner.middleware.tripmonitor.JourneyState;
+import org.opentripplanner.middleware.tripmonitor.NotificationOutbox;
+import org.opentripplanner.middleware.tripmonitor.TripCheckCadence;
 import org.opentripplanner.middleware.triptracker.TripTrackingData;
 import org.opentripplanner.middleware.utils.ConfigUtils;
 import org.opentripplanner.middleware.utils.DateTimeUtils;
 import org.opentripplanner.middleware.utils.I18nUtils;
+import org.opentripplanner.middleware.utils.ItineraryFingerprint;
 import org.opentripplanner.middleware.utils.ItineraryUtils;
 import org.opentripplanner.middleware.utils.NotificationUtils;
+import org.opentripplanner.middleware.utils.TemplateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import java.io.IOException;
+import java.time.DayOfWeek;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
@@ -33,12 +46,15 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
 import static org.opentripplanner.middleware.utils.I18nUtils.label;
 
 /**
@@ -54,9 +70,18 @@ public class CheckMonitoredTrip implements Runnable {
 
     private final String OTP_UI_NAME = ConfigUtils.getConfigPropertyAsText("OTP_UI_NAME");
 
+    /** The trip field incremented by user updates, see {@link MonitoredTrip#version}. */
+    private static final String VERSION_FIELD = "version";
+
     public static final int MAXIMUM_MONITORED_TRIP_ITINERARY_CHECKS =
         ConfigUtils.getConfigPropertyAsInt("MAXIMUM_MONITORED_TRIP_ITINERARY_CHECKS", 3);
 
+    /**
+     * The maximum time until the next check of a trip. This ensures that trips that would be skipped until modified by
+     * the user (e.g. snoozed trips) are still re-evaluated every once in a while.
+     */
+    private static final long MAX_TIME_UNTIL_NEXT_CHECK_MILLIS = TimeUnit.DAYS.toMillis(1);
+
     private final String ACCOUNT_PATH = "/#/account";
 
     private final String TRIPS_PATH = ACCOUNT_PATH + "/trips";
@@ -118,6 +143,33 @@ public class CheckMonitoredTrip implements Runnable {
 
     private final boolean hasTolerantItineraryCheck;
 
+    /** Whether this check was skipped (see {@link #shouldSkipMonitoredTripCheck()}). */
+    private boolean skipped;
+
+    /** Whether this check could not be completed because of an error. */
+    private boolean failed;
+
+    /**
+     * Whether the trip was updated since it was loaded for this check. The results of an outdated check are neither
+     * saved nor notified to the user, and the updated trip is checked afresh by a later check.
+     */
+    private boolean outdated;
+
+    /**
+     * The journey state as last saved to the database, encoded as BSON, so that only the journey state fields that
+     * changed since then are saved. This is computed when the trip is first saved during this check.
+     */
+    private BsonDocument savedJourneyStateBson;
+
+    /**
+     * Trip fields, other than the journey state and the fields always saved with it, that were modified by this check
+     * and not yet saved to the database.
+     */
+    private final Document unsavedTripFields = new Document();
+
+    /** Identifies the alerts of the trip, shared with the other checks of the monitoring cycle if there is one. */
+    private AlertRegistry alertRegistry = new AlertRegistry();
+
     public CheckMonitoredTrip(MonitoredTrip trip) throws CloneNotSupportedException {
         this(trip, true);
     }
@@ -131,6 +183,23 @@ public class CheckMonitoredTrip implements Runnable {
         otpResponseProvider = this::getOtpResponse;
     }
 
+    /**
+     * Creates a check of the trip as part of a {@link MonitoringCycle}. OTP responses are shared with other checks of the
+     * cycle that make the same plan request.
+     */
+    public CheckMonitoredTrip(MonitoredTrip trip, MonitoringCycle cycle) throws CloneNotSupportedException {
+        this(trip, true);
+        this.alertRegistry = cycle.getAlertRegistry();
+        this.otpResponseProvider = () -> {
+            try {
+                return cycle.getOtpResponse(getQueryParamsForTargetZonedDateTime());
+            } catch (CloneNotSupportedException e) {
+                LOG.error("Could not copy OTP response", e);
+                return null;
+            }
+        };
+    }
+
     public CheckMonitoredTrip(MonitoredTrip trip, Supplier<OtpResponse> otpResponseProvider) throws CloneNotSupportedException {
         this(trip, false);
         this.otpResponseProvider = otpResponseProvider;
@@ -164,11 +233,14 @@ public class CheckMonitoredTrip implements Runnable {
         try {
             if (shouldSkipMonitoredTripCheck()) {
                 LOG.debug("Skipping check for trip");
+                skipped = true;
+                updateNextCheckTime();
                 return;
             }
         } catch (Exception e) {
             // TODO: report to bugsnag
             LOG.error("Encountered an error while checking the monitored trip. error={}", e);
+            failed = true;
             return;
         }
 
@@ -176,11 +248,31 @@ public class CheckMonitoredTrip implements Runnable {
         runCheckLogic();
         // Initial reminder notification, if needed, with text based on other notifications for this trip.
         addInitialReminderIfNeeded();
-        // Send notifications to user. This should happen before updating the journey state so that we can check the
-        // last notification sent.
+        // Update trip and journey state before notifying the user, so that the user is not notified of the results of
+        // an outdated check, or of the same results again by a later check if they could not be saved.
+        if (!updateMonitoredTrip()) {
+            LOG.info("Trip no longer exists or was updated during the check. Skipping notify.");
+            return;
+        }
+        // Send notifications to user, and save the time of the notification sent, if any.
         sendNotifications();
-        // Update trip and journey state.
-        updateMonitoredTrip();
+        if (notificationTimestampMillis != -1 && !updateMonitoredTrip()) {
+            LOG.warn("Trip no longer exists or was updated while notifying the user. Notification time not saved.");
+        }
+    }
+
+    /**
+     * @return true if the check was skipped, i.e. the trip was not checked against OTP.
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return true if the check could not be completed because of an error.
+     */
+    public boolean hasFailed() {
+        return failed;
     }
 
     /**
@@ -260,9 +352,10 @@ public class CheckMonitoredTrip implements Runnable {
     private boolean makeOTPRequestAndUpdateMatchingItineraryInternal() {
         OtpResponse otpResponse = otpResponseProvider.get();
         if (otpResponse == null) return false;
+        ItineraryFingerprint tripFingerprint = new ItineraryFingerprint(trip.itinerary);
         for (int i = 0; i < otpResponse.plan.itineraries.size(); i++) {
             Itinerary candidateItinerary = otpResponse.plan.itineraries.get(i);
-            if (ItineraryUtils.itinerariesMatch(trip.itinerary, candidateItinerary)) {
+            if (tripFingerprint.matches(candidateItinerary)) {
                 // matching itinerary found!
                 LOG.info("Found matching itinerary!");
                 trip.attemptsToGetMatchingItinerary = 0;
@@ -280,7 +373,10 @@ public class CheckMonitoredTrip implements Runnable {
                 // that day of week saying that it is a valid day of the week).
                 ItineraryExistence.ItineraryExistenceResult itinExistenceTargetDay = trip.itineraryExistence
                     .getResultForDayOfWeek(targetZonedDateTime.getDayOfWeek());
-                itinExistenceTargetDay.invalidDates = new ArrayList<>();
+                if (!itinExistenceTargetDay.invalidDates.isEmpty()) {
+                    itinExistenceTargetDay.invalidDates = new ArrayList<>();
+                    markInvalidDatesModified(targetZonedDateTime.getDayOfWeek());
+                }
 
                 // If the updated trip status is upcoming and the end time of the current matching itinerary is in the
                 // past, this means the trip has completed and the next possible time the trip occurs should be
@@ -325,6 +421,7 @@ public class CheckMonitoredTrip implements Runnable {
             trip.itineraryExistence
                 .getResultForDayOfWeek(targetZonedDateTime.getDayOfWeek())
                 .handleInvalidDate(targetZonedDateTime);
+            markInvalidDatesModified(targetZonedDateTime.getDayOfWeek());
             updateMonitoredTrip();
 
             // send an appropriate notification if the trip is still possible on another day of the week, or if it is now
@@ -355,19 +452,19 @@ public class CheckMonitoredTrip implements Runnable {
             MAXIMUM_MONITORED_TRIP_ITINERARY_CHECKS
         );
         if (trip.attemptsToGetMatchingItinerary < MAXIMUM_MONITORED_TRIP_ITINERARY_CHECKS) {
-            if (Persistence.monitoredTrips.getById(trip.id) == null) {
-                // Trip has been deleted. Continue as if maximum itinerary checks have been reached.
-                return true;
-            }
-            Persistence.monitoredTrips.replace(trip.id, trip);
-            return false;
+            // If the trip has been deleted, continue as if maximum itinerary checks have been reached. If it has been
+            // updated instead, the check is outdated and must not change the trip status.
+            return !saveModifiedTripFields() && !outdated;
         }
         return true;
     }
 
     /** Default implementation for OtpResponse provider that actually invokes the OTP server. */
     private OtpResponse getOtpResponse() {
-        return OtpDispatcher.sendOtpRequestWithErrorHandling(getQueryParamsForTargetZonedDateTime());
+        return OtpDispatcher.sendOtpRequestWithErrorHandling(
+            getQueryParamsForTargetZonedDateTime(),
+            OtpConcurrencyLimiter.MONITORING
+        );
     }
 
     /**
@@ -395,14 +492,14 @@ public class CheckMonitoredTrip implements Runnable {
         }
         // Get the previously checked itinerary/alerts from the journey state (i.e., the response from OTP the most
         // recent the trip check was run). If no check has yet been run, this will be null.=
-        Set<LocalizedAlert> previousAlerts = previousMatchingItinerary == null
-            ? Collections.emptySet()
-            : new HashSet<>(previousMatchingItinerary.getAlerts());
-        // Construct set from new alerts.
-        Set<LocalizedAlert> newAlerts = new HashSet<>(matchingItinerary.getAlerts());
+        List<LocalizedAlert> previousAlerts = previousMatchingItinerary == null
+            ? Collections.emptyList()
+            : previousMatchingItinerary.getAlerts();
+        AlertRegistry.AlertDiff alertDiff = alertRegistry.diff(previousAlerts, matchingItinerary.getAlerts());
         TripMonitorAlertNotification notification = TripMonitorAlertNotification.createAlertNotification(
-            previousAlerts,
-            newAlerts,
+            alertDiff.unseenAlerts,
+            alertDiff.resolvedAlerts,
+            alertDiff.previousAlertCount,
             getOtpUserLocale()
         );
         if (notification == null) {
@@ -506,8 +603,11 @@ public class CheckMonitoredTrip implements Runnable {
             // TODO: Bugsnag / delete monitored trip?
             return;
         }
-        // Update push notification devices count, which may change asynchronously
-        NotificationUtils.updatePushDevices(otpUser);
+        // Update push notification devices count, which may change asynchronously. With the notification outbox, this
+        // is done before delivering push notifications instead.
+        if (!NotificationOutbox.isEnabled()) {
+            NotificationUtils.updatePushDevices(otpUser);
+        }
 
         boolean hasInitialReminder = initialReminderNotification != null;
 
@@ -544,6 +644,13 @@ public class CheckMonitoredTrip implements Runnable {
         if (hasInitialReminder) {
             templateData.put("initialReminder", initialReminderNotification);
         }
+        if (NotificationOutbox.isEnabled()) {
+            LOG.info("Queuing notification to user {}", trip.userId);
+            if (queueNotifications(otpUser, templateData)) {
+                notificationTimestampMillis = DateTimeUtils.currentTimeMillis();
+            }
+            return;
+        }
         // FIXME: Change log level
         LOG.info("Sending notification to user {}", trip.userId);
         boolean successEmail = false;
@@ -566,6 +673,78 @@ public class CheckMonitoredTrip implements Runnable {
         }
     }
 
+    /**
+     * Renders the notifications for the channels selected by the user and adds them to the notification outbox.
+     * @return true if at least one notification is in the outbox.
+     */
+    private boolean queueNotifications(OtpUser otpUser, Map<String, Object> data) {
+        List<QueuedNotification> queuedNotifications = new ArrayList<>();
+        try {
+            if (otpUser.notificationChannel.contains(OtpUser.Notification.EMAIL)) {
+                String text = TemplateUtils.renderTemplate("MonitoredTripText.ftl", data);
+                queuedNotifications.add(new QueuedNotification(
+                    QueuedNotification.Channel.EMAIL,
+                    getIdempotencyKey(QueuedNotification.Channel.EMAIL, text),
+                    otpUser,
+                    trip.id,
+                    otpUser.email,
+                    getEmailSubject(otpUser),
+                    text,
+                    TemplateUtils.renderTemplate("MonitoredTripHtml.ftl", data)
+                ));
+            }
+            if (otpUser.notificationChannel.contains(OtpUser.Notification.PUSH)) {
+                String text = TemplateUtils.renderTemplate("MonitoredTripPush.ftl", data);
+                queuedNotifications.add(new QueuedNotification(
+                    QueuedNotification.Channel.PUSH,
+                    getIdempotencyKey(QueuedNotification.Channel.PUSH, text),
+                    otpUser,
+                    trip.id,
+                    otpUser.email,
+                    trip.tripName,
+                    text,
+                    null
+                ));
+            }
+            if (otpUser.notificationChannel.contains(OtpUser.Notification.SMS)) {
+                if (otpUser.isPhoneNumberVerified) {
+                    String text = TemplateUtils.renderTemplate("MonitoredTripSms.ftl", data);
+                    queuedNotifications.add(new QueuedNotification(
+                        QueuedNotification.Channel.SMS,
+                        getIdempotencyKey(QueuedNotification.Channel.SMS, text),
+                        otpUser,
+                        trip.id,
+                        otpUser.phoneNumber,
+                        null,
+                        text,
+                        null
+                    ));
+                } else {
+                    LOG.error("Cannot send SMS to unverified user ({})!", otpUser.email);
+                }
+            }
+        } catch (TemplateException | IOException e) {
+            // This catch indicates there was an error rendering a template. Note: TemplateUtils#renderTemplate
+            // handles Bugsnag reporting/error logging, so that is not needed here.
+            return false;
+        }
+        return NotificationOutbox.enqueue(queuedNotifications) > 0;
+    }
+
+    /**
+     * Identifies a notification by the trip, the previous check (which is the same if this check is repeated because
+     * its results could not be saved), the channel, and the notification content.
+     */
+    private String getIdempotencyKey(QueuedNotification.Channel channel, String text) {
+        return String.format(
+            "%s:%d:%s:%08x",
+            trip.id,
+            previousJourneyState.lastCheckedEpochMillis,
+            channel,
+            text.hashCode()
+        );
+    }
+
     /**
      * Send notification SMS in MonitoredTrip template.
      */
@@ -584,19 +763,22 @@ public class CheckMonitoredTrip implements Runnable {
      * Send notification email in MonitoredTrip template.
      */
     private boolean sendEmail(OtpUser otpUser, Map<String, Object> data) {
-        Locale locale = getOtpUserLocale();
-        String subject = trip.tripName != null
-            ? String.format(Message.TRIP_EMAIL_SUBJECT.get(locale), trip.tripName)
-            : String.format(Message.TRIP_EMAIL_SUBJECT_FOR_USER.get(locale), otpUser.email);
         return NotificationUtils.sendEmail(
             otpUser,
-            subject,
+            getEmailSubject(otpUser),
             "MonitoredTripText.ftl",
             "MonitoredTripHtml.ftl",
             data
         );
     }
 
+    private String getEmailSubject(OtpUser otpUser) {
+        Locale locale = getOtpUserLocale();
+        return trip.tripName != null
+            ? String.format(Message.TRIP_EMAIL_SUBJECT.get(locale), trip.tripName)
+            : String.format(Message.TRIP_EMAIL_SUBJECT_FOR_USER.get(locale), otpUser.email);
+    }
+
     private void enqueueNotification(TripMonitorNotification ...tripMonitorNotifications) {
         for (TripMonitorNotification notification : tripMonitorNotifications) {
             if (notification != null) notifications.add(notification);
@@ -626,10 +808,10 @@ public class CheckMonitoredTrip implements Runnable {
      * following criteria for skipping a check:
      *
      * - the current time is before the lead time before the next itinerary starts
-     * - the current time is after the lead time before the next itinerary starts, but is over an hour until the
-     *     itinerary start time and the trip has already been checked within the last 60 minutes
-     * - the current time is after the lead time before the next itinerary starts and between 60-30 minutes prior to the
-     *     itinerary start time, but a check has occurred within the last 15 minutes
+     * - the current time is after the lead time before the next itinerary starts, but the trip has already been checked
+     *     within the check interval given by {@link TripCheckCadence} (by default, the last 60 minutes if it is over
+     *     an hour until the itinerary start time, or the last 15 minutes if it is between 60-30 minutes prior to the
+     *     itinerary start time)
      *
      * These checks are done based off of the information in the trip's journey state's latest itinerary. If no such
      * itinerary exists or a previous monitored trip's itinerary has completed, then the next possible itinerary will be
@@ -711,8 +893,8 @@ public class CheckMonitoredTrip implements Runnable {
 
             // save journey state with updated matching itinerary and target date
             if (persist && !updateMonitoredTrip()) {
-                // trip no longer exists, skip check
-                LOG.info("Skipping: Trip no longer exists.");
+                // trip no longer exists or was updated, skip check
+                LOG.info("Skipping: Trip no longer exists or was updated.");
                 return true;
             }
         }
@@ -738,30 +920,18 @@ public class CheckMonitoredTrip implements Runnable {
             );
             return true;
         }
-        // If time until trip is greater than 60 minutes, we only need to check once every hour.
-        if (minutesUntilTrip > 60) {
-            // It's been about an hour since the last check. Do not skip.
-            int overHourCheckThresholdMinutes = 60;
-            if (minutesSinceLastCheck >= overHourCheckThresholdMinutes) {
-                // TODO: Change log level.
-                LOG.info("Trip not checked in at least an {} minutes. Checking.", overHourCheckThresholdMinutes);
-                return false;
-            }
-        } else {
-            // It's less than an hour until the trip time, start more frequent trip checks (about every 15 minutes).
-            if (minutesSinceLastCheck >= 15) {
-                // Last check was more than 15 minutes ago. Check. (approx. 4 checks per hour).
-                // TODO: Change log level.
-                LOG.info("Trip happening soon. Checking.");
-                return false;
-            }
-            // If the trip starts within 30 minutes, check the trip every minute (assuming the loop runs every minute).
-            int checkEveryMinuteThresholdMinutes = 30;
-            if (minutesUntilTrip <= checkEveryMinuteThresholdMinutes) {
-                // TODO: Change log level.
-                LOG.info("Trip happening within {} minutes. Checking every minute.", checkEveryMinuteThresholdMinutes);
-                return false;
-            }
+        // Check right away if realtime changes affecting the trip were received since it was last checked.
+        if (previousJourneyState.recheckRequestedEpochMillis > previousJourneyState.lastCheckedEpochMillis) {
+            LOG.info("Realtime changes affecting this trip were received since the last check. Checking.");
+            return false;
+        }
+        // The closer the trip, the more frequently it is checked (e.g. once an hour if the trip starts in more than an
+        // hour, about every 15 minutes within the hour, and every minute within 30 minutes of the trip start time).
+        int checkIntervalMinutes = TripCheckCadence.getCheckIntervalMinutes(minutesUntilTrip);
+        if (minutesSinceLastCheck >= checkIntervalMinutes) {
+            // TODO: Change log level.
+            LOG.info("Trip not checked in at least {} minutes. Checking.", checkIntervalMinutes);
+            return false;
         }
         // TODO: Check that journey state is not flagged
         // TODO: Check last notification time.
@@ -771,6 +941,59 @@ public class CheckMonitoredTrip implements Runnable {
         return true;
     }
 
+    /**
+     * Computes the earliest time at which {@link #shouldSkipMonitoredTripCheck()} may decide to check the trip, based
+     * on the trip's persisted journey state. This mirrors the criteria of that method so that {@link MonitorAllTripsJob}
+     * only needs to load the trips that are due for a check:
+     *
+     * - trips that are no longer possible, past one-time trips, snoozed trips and trips whose next occurrence is not
+     *     possible are skipped until modified, and are only re-evaluated after {@link #MAX_TIME_UNTIL_NEXT_CHECK_MILLIS},
+     * - trips whose next itinerary needs to be calculated are due immediately,
+     * - otherwise, the trip is due when it enters the lead time, and then according to {@link TripCheckCadence}.
+     */
+    public static long computeNextCheckEpochMillis(MonitoredTrip trip, JourneyState journeyState, long nowMillis) {
+        long latestNextCheckMillis = nowMillis + MAX_TIME_UNTIL_NEXT_CHECK_MILLIS;
+        if (
+            !trip.isActive ||
+            journeyState.tripStatus == TripStatus.NO_LONGER_POSSIBLE ||
+            (trip.isOneTime() && journeyState.tripStatus == TripStatus.PAST_TRIP)
+        ) {
+            return latestNextCheckMillis;
+        }
+
+        Itinerary itinerary = journeyState.matchingItinerary;
+        long lastCheckedMillis = journeyState.lastCheckedEpochMillis;
+        if (itinerary == null || !itinerary.endTime.after(new Date(lastCheckedMillis))) {
+            // The next itinerary needs to be calculated.
+            return nowMillis;
+        }
+        if (journeyState.tripStatus == TripStatus.NEXT_TRIP_NOT_POSSIBLE || trip.snoozed) {
+            return latestNextCheckMillis;
+        }
+
+        long tripStartMillis = itinerary.startTime.getTime();
+        long leadTimeStartMillis = TripCheckCadence.minutesBefore(tripStartMillis, trip.leadTimeInMinutes);
+        long nextCheckMillis = nowMillis < leadTimeStartMillis
+            ? leadTimeStartMillis
+            : TripCheckCadence.getNextCheckEpochMillis(tripStartMillis, lastCheckedMillis, nowMillis);
+        return Math.min(nextCheckMillis, latestNextCheckMillis);
+    }
+
+    /**
+     * Persists the next check time of the trip if the trip was not otherwise saved during this check.
+     */
+    private void updateNextCheckTime() {
+        long nowMillis = DateTimeUtils.currentTimeMillis();
+        long nextCheckMillis = computeNextCheckEpochMillis(trip, trip.journeyState, nowMillis);
+        long previousNextCheckMillis = trip.journeyState.nextCheckEpochMillis;
+        // No need to write anything if the trip remains due now.
+        boolean remainsDue = nextCheckMillis <= nowMillis && previousNextCheckMillis <= nowMillis;
+        if (nextCheckMillis != previousNextCheckMillis && !remainsDue) {
+            trip.journeyState.nextCheckEpochMillis = nextCheckMillis;
+            setTripFields(new Document("journeyState.nextCheckEpochMillis", nextCheckMillis));
+        }
+    }
+
     private void advanceToNextMonitoredDay() {
         // Check if the journeyState indicates that an itinerary has already been calculated in a previous run of
         // this CheckMonitoredTrip. If the targetDate is null, then the current date has not yet been checked. If
@@ -884,15 +1107,10 @@ public class CheckMonitoredTrip implements Runnable {
 
     /**
      * Update the monitored trip with the updated journey state with updated matching itinerary and target date. Returns
-     * false if the update was unsuccessful due to the trip no longer existing in the database.
+     * false if the update was unsuccessful due to the trip no longer existing in the database, or having been updated
+     * by the user since this check started.
      */
     private boolean updateMonitoredTrip() {
-        // make sure the trip still exists before saving it. It is possible that the user deleted the trip after this
-        // job started but before this database update.
-        if (Persistence.monitoredTrips.getById(trip.id) == null) {
-            // trip has been deleted!
-            return false;
-        }
         journeyState.matchingItinerary = matchingItinerary;
         journeyState.targetDate = targetZonedDateTime.format(DateTimeUtils.DEFAULT_DATE_FORMATTER);
         journeyState.lastCheckedEpochMillis = DateTimeUtils.currentTimeMillis();
@@ -901,8 +1119,75 @@ public class CheckMonitoredTrip implements Runnable {
             journeyState.lastNotificationTimeMillis = notificationTimestampMillis;
         }
         trip.journeyState = journeyState;
-        Persistence.monitoredTrips.replace(trip.id, trip);
-        return true;
+        journeyState.nextCheckEpochMillis = computeNextCheckEpochMillis(
+            trip,
+            journeyState,
+            journeyState.lastCheckedEpochMillis
+        );
+        return saveModifiedTripFields();
+    }
+
+    /**
+     * Saves the trip fields modified by this check: the journey state fields that changed since the trip was last
+     * saved, the fields marked as modified, and the matching itinerary attempts and snooze status. The update only
+     * applies if the trip version has not changed since the trip was loaded, so that trip updates made by the user in
+     * the meantime are not overwritten, and it does not re-create the trip if the user deleted it. If the trip still
+     * exists, this check is marked as {@link #outdated}.
+     * @return true if the trip was saved.
+     */
+    private boolean saveModifiedTripFields() {
+        if (outdated) return false;
+        if (savedJourneyStateBson == null) {
+            savedJourneyStateBson = Persistence.monitoredTrips.toBsonDocument(previousJourneyState);
+        }
+        BsonDocument journeyStateBson = Persistence.monitoredTrips.toBsonDocument(trip.journeyState);
+        Document modifiedFields = TypedPersistence.getChangedFields(
+            "journeyState",
+            savedJourneyStateBson,
+            journeyStateBson
+        );
+        modifiedFields.putAll(unsavedTripFields);
+        modifiedFields.put("attemptsToGetMatchingItinerary", trip.attemptsToGetMatchingItinerary);
+        modifiedFields.put("snoozed", trip.snoozed);
+        boolean saved = setTripFields(modifiedFields);
+        if (saved) {
+            savedJourneyStateBson = journeyStateBson;
+            unsavedTripFields.clear();
+        } else {
+            outdated = Persistence.monitoredTrips.getCountFiltered(eq(trip.id)) > 0;
+        }
+        return saved;
+    }
+
+    /**
+     * Sets the given trip fields if the trip version has not changed since the trip was loaded. If realtime changes
+     * affecting the trip were received in the meantime (see {@link JourneyState#recheckRequestedEpochMillis}), which
+     * this check may not reflect, the trip is also kept due for a check and not considered checked since these changes.
+     * @return true if the trip was saved.
+     */
+    private boolean setTripFields(Document fields) {
+        return Persistence.monitoredTrips.setFieldsIfVersionMatches(
+            trip.id,
+            VERSION_FIELD,
+            trip.version,
+            fields,
+            gt("journeyState.recheckRequestedEpochMillis", previousJourneyState.recheckRequestedEpochMillis),
+            Updates.combine(
+                Updates.min("journeyState.nextCheckEpochMillis", DateTimeUtils.currentTimeMillis()),
+                Updates.set("journeyState.lastCheckedEpochMillis", previousJourneyState.lastCheckedEpochMillis)
+            )
+        );
+    }
+
+    /**
+     * Marks the invalid dates of the given day of the week in the trip's itinerary existence as modified, so they are saved with
+     * the rest of the trip.
+     */
+    private void markInvalidDatesModified(DayOfWeek dayOfWeek) {
+        unsavedTripFields.put(
+            String.format("itineraryExistence.%s.invalidDates", dayOfWeek.name().toLowerCase(Locale.ROOT)),
+            trip.itineraryExistence.getResultForDayOfWeek(dayOfWeek).invalidDates
+        );
     }
 
     /**
@@ -1,133 +1,239 @@
 package org.opentripplanner.middleware.tripmonitor.jobs;
 
-import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
+import org.opentripplanner.middleware.otp.OtpCircuitBreaker;
 import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.tripmonitor.MonitoringLeaseManager;
+import org.opentripplanner.middleware.utils.ConfigUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * This job will analyze applicable monitored trips and create further individual tasks to analyze each individual trip.
+ * This job will analyze applicable monitored trips and create further individual tasks to analyze chunks of trips.
+ * The individual tasks are run on a fixed-size thread pool that is reused across runs of this job.
+ *
+ * Trips are analyzed by order of priority (see {@link TripAnalysisPriority}), imminent and ongoing journeys first, and
+ * a run of this job stops analyzing trips once its time budget is exhausted (see {@link MonitoringCycle}). Because the
+ * due time of a trip is only moved forward once the trip is checked, the trips not analyzed in a run (e.g. because the
+ * run was cut short or the process was restarted) remain due, and gain priority in the next runs the longer they are
+ * overdue. At most one run of this job is in progress at a time.
+ *
+ * In cluster mode (see {@link MonitoringLeaseManager}), each node running this job only analyzes the trips of the
+ * partitions it holds.
  */
 public class MonitorAllTripsJob implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(MonitorAllTripsJob.class);
     public static final int ONE_MINUTE_IN_MILLIS = 60000;
+    private static final String NEXT_CHECK_FIELD = "journeyState.nextCheckEpochMillis";
 
-    private final int numCores = Runtime.getRuntime().availableProcessors();
-    private final int BLOCKING_QUEUE_SIZE = numCores;
-    private static final int BLOCKING_QUEUE_DEPLETE_WAIT_TIME_MILLIS = 250;
-    private static final int BLOCKING_QUEUE_INSERT_TIMEOUT_SECONDS = 30;
-    private final int N_TRIP_ANALYZERS = numCores;
+    /** The number of trips that can be analyzed concurrently. */
+    public static final int MONITOR_ALL_TRIPS_JOB_THREAD_COUNT = ConfigUtils.getConfigPropertyAsInt(
+        "MONITOR_ALL_TRIPS_JOB_THREAD_COUNT",
+        Runtime.getRuntime().availableProcessors()
+    );
 
-    @Override
-    public void run() {
-        long start = System.currentTimeMillis();
-        LOG.info("MonitorAllTripsJob started");
-        // analyze all trips
+    /** The maximum number of trips loaded from the database at once and analyzed by the same thread. */
+    public static final int MONITOR_ALL_TRIPS_JOB_CHUNK_SIZE =
+        ConfigUtils.getConfigPropertyAsInt("MONITOR_ALL_TRIPS_JOB_CHUNK_SIZE", 50);
+
+    /** The maximum duration of a run of this job, after which the trips not analyzed are left for the next run. */
+    public static final int MONITOR_ALL_TRIPS_JOB_MAX_CYCLE_SECONDS =
+        ConfigUtils.getConfigPropertyAsInt("MONITOR_ALL_TRIPS_JOB_MAX_CYCLE_SECONDS", 120);
+
+    /** Whether a run of this job is in progress, to prevent runs from overlapping. */
+    private static final AtomicBoolean cycleInProgress = new AtomicBoolean();
+
+    /** The most recently completed cycle of this job, if any. */
+    private static volatile MonitoringCycle lastCompletedCycle;
 
-        // create a blocking queue of monitored trip IDs to process
-        BlockingQueue<String> tripAnalysisQueue = new ArrayBlockingQueue<>(BLOCKING_QUEUE_SIZE);
+    private final ExecutorService tripAnalysisExecutor = Executors.newFixedThreadPool(
+        Math.max(1, MONITOR_ALL_TRIPS_JOB_THREAD_COUNT),
+        new TripAnalyzerThreadFactory()
+    );
 
-        // create an Atomic Boolean for TripAnalyzer threads to check whether the queue is actually depleted
-        AtomicBoolean queueDepleted = new AtomicBoolean();
+    /** Splits the trips to analyze between nodes in cluster mode, null otherwise. */
+    private final MonitoringLeaseManager leaseManager;
 
-        // create a list of analyzer statuses to check whether any analyzers are still processing trips
-        List<AtomicBoolean> analyzerStatuses = new ArrayList<>();
+    public MonitorAllTripsJob() {
+        this(MonitoringLeaseManager.isClusterModeEnabled() ? new MonitoringLeaseManager() : null);
+    }
+
+    public MonitorAllTripsJob(MonitoringLeaseManager leaseManager) {
+        this.leaseManager = leaseManager;
+    }
 
-        // create new threads for analyzers of monitored trips
-        for (int j = 0; j < N_TRIP_ANALYZERS; j++) {
-            AtomicBoolean analyzerIsIdle = new AtomicBoolean();
-            analyzerStatuses.add(analyzerIsIdle);
-            new Thread(new TripAnalyzer(tripAnalysisQueue, queueDepleted, analyzerIsIdle)).start();
+    /**
+     * Releases the leases held by this node when the JVM shuts down, so that other nodes take over its trips right away
+     * rather than once the leases expire. Does nothing unless trip monitoring runs in cluster mode.
+     */
+    public void releaseLeasesOnShutdown() {
+        if (leaseManager == null) return;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                leaseManager.releaseAll();
+            } catch (Exception e) {
+                LOG.warn("Could not release the trip monitoring leases of this node on shutdown.", e);
+            }
+        }, "monitoring-lease-release"));
+    }
+
+    @Override
+    public void run() {
+        if (OtpCircuitBreaker.INSTANCE.isOpen()) {
+            // Trips that are due remain due, and will be checked once OTP responds again.
+            LOG.warn("OTP is unavailable, skipping this run of MonitorAllTripsJob.");
+            return;
         }
+        if (!cycleInProgress.compareAndSet(false, true)) {
+            LOG.warn("The previous run of MonitorAllTripsJob is still in progress, skipping this run.");
+            return;
+        }
+        try {
+            runCycle();
+        } finally {
+            cycleInProgress.set(false);
+        }
+    }
 
+    /**
+     * Analyzes the trips that are due, until all of them are analyzed or the time budget of the cycle is exhausted.
+     */
+    private void runCycle() {
+        MonitoringCycle cycle = new MonitoringCycle(leaseManager);
+        LOG.info("MonitorAllTripsJob started");
         try {
+            if (leaseManager != null) {
+                // Renew and rebalance the partitions held by this node before selecting the trips to analyze.
+                leaseManager.updateLeases();
+            }
+
             // Request at once all applicable monitored trip IDs from the Mongo collection, and loop through them.
             // If we looped using a Mongo-provided iterator instead, and the Mongo connection is dropped for any reason
             // while the iterator is open, this thread would become blocked and prevent subsequent runs of this job.
             // Performance note: Don't retrieve the full data for each trip at this time.
             // This saves bandwidth and memory, as only the ID field is used to set up this job.
-            // The full data for each trip will be fetched at the time the actual analysis takes place.
-            List<String> allTripIds = Persistence.monitoredTrips.getDistinctFieldValues(
-                "_id",
-                makeTripFilter(),
-                String.class
-            ).into(new ArrayList<>());
-            for (String tripId : allTripIds) {
-                // attempt to add trip ID to tripAnalysisQueue until a spot opens up in the queue. If the timeout is
-                // exceeded, an InterruptedException is throw.
-                tripAnalysisQueue.offer(tripId, BLOCKING_QUEUE_INSERT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            // The full data for each chunk of trips will be fetched at the time the actual analysis takes place.
+            // Only the fields needed to prioritize the trips are retrieved in addition to the ID.
+            List<Document> dueTrips = Persistence.monitoredTrips.getMongoCollection()
+                .find(makeTripFilter(cycle.getStartTimeMillis()), Document.class)
+                .projection(Projections.include(TripAnalysisPriority.PRIORITY_FIELDS))
+                .into(new ArrayList<>());
+            List<String> allTripIds = TripAnalysisPriority.sortByPriority(dueTrips, cycle.getStartTimeMillis());
+            allTripIds.removeIf(tripId -> !cycle.isResponsibleFor(tripId));
+            cycle.setTripCount(allTripIds.size());
+            // Lock release times from previous cycles are not needed to detect trips updated during this cycle.
+            MonitoredTripLocks.forgetUnlocksBefore(cycle.getStartTimeMillis());
+            MonitoredTripLocks.reclaimExpiredLocks();
+
+            // Submit one analysis task per chunk of trips, by order of priority. The executor queues the tasks until a
+            // thread becomes available, and runs them in the order they were submitted.
+            int chunkSize = getChunkSize(allTripIds.size());
+            List<CompletableFuture<Void>> analysisTasks = new ArrayList<>();
+            for (int i = 0; i < allTripIds.size(); i += chunkSize) {
+                List<String> chunk = new ArrayList<>(allTripIds.subList(i, Math.min(i + chunkSize, allTripIds.size())));
+                analysisTasks.add(CompletableFuture.runAsync(new TripAnalyzer(chunk, cycle), tripAnalysisExecutor));
             }
 
-            // wait for queue to deplete
-            int queueIterations = 0;
-            while (!tripAnalysisQueue.isEmpty()) {
-                Thread.sleep(BLOCKING_QUEUE_DEPLETE_WAIT_TIME_MILLIS);
-                queueIterations++;
-                // Report queue status every minute (unless this job finishes before).
-                int runMillis = queueIterations * BLOCKING_QUEUE_DEPLETE_WAIT_TIME_MILLIS;
-                if ((runMillis % ONE_MINUTE_IN_MILLIS) == 0) {
-                    LOG.info("There are {} queued. after {} sec.", tripAnalysisQueue.size(), runMillis / 1000);
-                }
-            }
-            queueDepleted.set(true);
-
-            // wait for analyzers to complete
-            int idleIterations = 0;
-            while (!allAnalyzersAreIdle(analyzerStatuses)) {
-                Thread.sleep(BLOCKING_QUEUE_DEPLETE_WAIT_TIME_MILLIS);
-                idleIterations++;
-                // Report analyzers statuses every minute (unless this job finishes before).
-                int runMillis = idleIterations * BLOCKING_QUEUE_DEPLETE_WAIT_TIME_MILLIS;
-                if ((runMillis % ONE_MINUTE_IN_MILLIS) == 0) {
-                    long notIdleCount = analyzerStatuses.stream().filter(s -> !s.get()).count();
-                    LOG.info("There are {} analyzers not idle after {} sec.", notIdleCount, runMillis / 1000);
-                }
-            }
+            waitForCompletion(CompletableFuture.allOf(analysisTasks.toArray(new CompletableFuture[0])), cycle);
         } catch (InterruptedException e) {
-            LOG.error("error encountered while waiting during MonitorAllTripsJob.");
-            e.printStackTrace();
-            return;
+            LOG.error("MonitorAllTripsJob was interrupted while waiting for trip analysis to complete.", e);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // Catch everything here, otherwise subsequent scheduled runs of this job would be suppressed.
+            BugsnagReporter.reportErrorToBugsnag("Error encountered while running MonitorAllTripsJob", e);
         }
-
-        // analysis of all trips finished
-        LOG.info("Analysis of all MonitoredTrips completed");
+        cycle.complete();
+        lastCompletedCycle = cycle;
 
         // TODO report successful run to error & notification system
 
-        LOG.info("MonitorAllTripsJob completed in {} sec", (System.currentTimeMillis() - start) / 1000);
+        LOG.info("MonitorAllTripsJob completed: {}", cycle);
     }
 
     /**
-     * Create a BSON clause to filter out trips that would not be checked.
+     * Returns the number of trips per analysis task, so that chunks don't exceed the configured size, and so that all
+     * threads get a share of the trips when there are fewer trips to analyze than the configured chunk size allows.
      */
-    private static BasicDBObject makeTripFilter() {
-        BasicDBObject tripFilter = new BasicDBObject();
+    static int getChunkSize(int tripCount) {
+        int threadCount = Math.max(1, MONITOR_ALL_TRIPS_JOB_THREAD_COUNT);
+        int chunkSizeForAllThreads = (tripCount + threadCount - 1) / threadCount;
+        return Math.max(1, Math.min(MONITOR_ALL_TRIPS_JOB_CHUNK_SIZE, chunkSizeForAllThreads));
+    }
 
-        //.Trips must be active.
-        tripFilter.put("isActive", true);
+    /**
+     * Waits until all analysis tasks of a cycle have completed, reporting the progress of the cycle every minute
+     * (unless the cycle finishes before).
+     */
+    private static void waitForCompletion(
+        CompletableFuture<Void> allTasks,
+        MonitoringCycle cycle
+    ) throws InterruptedException, ExecutionException {
+        while (true) {
+            try {
+                allTasks.get(ONE_MINUTE_IN_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                LOG.info(
+                    "{} of {} trips analyzed after {} sec.",
+                    cycle.getProcessedCount(),
+                    cycle.getTripCount(),
+                    cycle.getDurationMillis() / 1000
+                );
+            }
+        }
+    }
 
-        // Other conditions (e.g. in CheckMonitoredTrip) that would result in a trip to be not checked
-        // should eventually be moved here.
+    /**
+     * @return the most recently completed cycle of this job, or null if no cycle has completed yet.
+     */
+    public static MonitoringCycle getLastCompletedCycle() {
+        return lastCompletedCycle;
+    }
 
-        return tripFilter;
+    /**
+     * Create a BSON clause to filter out trips that would not be checked.
+     */
+    static Bson makeTripFilter(long nowMillis) {
+        return Filters.and(
+            // Trips must be active.
+            Filters.eq("isActive", true),
+            // Trips must be due for a check (see CheckMonitoredTrip#computeNextCheckEpochMillis). Trips saved before
+            // the next check time was introduced don't have that field and are always due.
+            Filters.or(
+                Filters.lte(NEXT_CHECK_FIELD, nowMillis),
+                Filters.exists(NEXT_CHECK_FIELD, false)
+            )
+        );
     }
 
     /**
-     * Checks each analyzer idle status and returns false if any are not idle.
+     * Creates named daemon threads for the trip analysis executor, so that they are recognizable in logs and thread
+     * dumps and do not prevent the application from shutting down.
      */
-    private boolean allAnalyzersAreIdle(List<AtomicBoolean> analyzerStatuses) {
-        for (AtomicBoolean analyzerStatus : analyzerStatuses) {
-            if (!analyzerStatus.get()) {
-                return false;
-            }
+    private static class TripAnalyzerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "trip-analyzer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
-        return true;
     }
 }
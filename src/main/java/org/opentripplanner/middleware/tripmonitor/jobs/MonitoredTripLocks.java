@@ -2,74 +2,265 @@ package org.opentripplanner.middleware.tripmonitor.jobs;
 
 import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.models.MonitoredTrip;
+import org.opentripplanner.middleware.utils.ConfigUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import spark.Request;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.opentripplanner.middleware.utils.JsonUtils.logMessageAndHalt;
 
 /**
  * A helper class that manages locks placed on individual monitored trip instances.
+ *
+ * Locks are acquired atomically and are only released by their holder. Each lock expires after
+ * MONITORED_TRIP_LOCK_TTL_SECONDS, after which it can be reclaimed, so that a lock leaked by a failed trip check never
+ * blocks a trip indefinitely (trip checks that complete after their lock expired do not overwrite newer versions of the
+ * trip, see {@link MonitoredTrip#version}). Threads waiting for a lock are notified when it is released, and monitoring
+ * checks do not acquire a lock that a web request is waiting for, so that user edits go first.
  */
 public class MonitoredTripLocks {
+    private static final Logger LOG = LoggerFactory.getLogger(MonitoredTripLocks.class);
+
     /** the maximum amount of time in milliseconds to wait for a lock to be released */
     private static final int MAX_UNLOCKING_WAIT_TIME_MILLIS = 4000;
-    /** the amount of time in milliseconds to wait to check if a lock has been released */
-    private static final int LOCK_CHECK_WAIT_MILLIS = 500;
 
-    private static final ConcurrentHashMap<String, Boolean> locks = new ConcurrentHashMap<>();
+    /** How long a lock is held at most before it can be reclaimed. */
+    private static final long LOCK_TTL_MILLIS = TimeUnit.SECONDS.toMillis(
+        ConfigUtils.getConfigPropertyAsInt("MONITORED_TRIP_LOCK_TTL_SECONDS", 120)
+    );
+
+    private static final ConcurrentHashMap<String, TripLock> locks = new ConcurrentHashMap<>();
+
+    /** The number of threads waiting for the lock on each trip. */
+    private static final ConcurrentHashMap<String, Integer> waiterCounts = new ConcurrentHashMap<>();
+
+    /** Notified whenever a lock is released, to wake up the threads waiting for a lock. */
+    private static final Object releaseSignal = new Object();
+
+    /** The last time the lock on each trip was released, used to detect trips updated during a monitoring cycle. */
+    private static final ConcurrentHashMap<String, Long> unlockTimesMillis = new ConcurrentHashMap<>();
+
+    private static final AtomicLong releasedCount = new AtomicLong();
+    private static final AtomicLong totalHoldMillis = new AtomicLong();
+    private static final AtomicLong maxHoldMillis = new AtomicLong();
+    private static final AtomicLong reclaimedCount = new AtomicLong();
+    private static final AtomicLong waitCount = new AtomicLong();
+    private static final AtomicLong waitTimeoutCount = new AtomicLong();
 
     /**
-     * Locks the given MonitoredTrip
+     * A lock held on a trip. It is used as a token to release the lock, so that a holder whose lock expired and was
+     * reclaimed cannot release the lock of another holder.
      */
-    public static void lock(String tripId) {
-        locks.put(tripId, true);
+    public static class TripLock {
+        public final String tripId;
+        /** A description of the holder, for logging. */
+        public final String owner;
+        public final long acquiredAtMillis;
+        public final long expiresAtMillis;
+
+        private TripLock(String tripId, String owner, long acquiredAtMillis, long ttlMillis) {
+            this.tripId = tripId;
+            this.owner = owner;
+            this.acquiredAtMillis = acquiredAtMillis;
+            this.expiresAtMillis = acquiredAtMillis + ttlMillis;
+        }
+
+        private boolean isExpired(long nowMillis) {
+            return expiresAtMillis <= nowMillis;
+        }
+    }
+
+    /**
+     * Locks the given MonitoredTrip if it is not locked and if no web request is waiting to lock it.
+     * @param owner a description of the lock holder, for logging.
+     * @return the acquired lock, to pass to {@link #unlock}, or null if the trip is locked.
+     */
+    public static TripLock tryLock(String tripId, String owner) {
+        if (waiterCounts.containsKey(tripId)) return null;
+        return tryLock(tripId, owner, LOCK_TTL_MILLIS);
     }
 
     /**
-     * Removes a lock for a given MonitoredTrip
+     * Locks the given MonitoredTrip if it is not locked or if its lock has expired.
      */
-    public static void unlock(String tripId) {
-        locks.remove(tripId);
+    static TripLock tryLock(String tripId, String owner, long ttlMillis) {
+        long nowMillis = System.currentTimeMillis();
+        TripLock newLock = new TripLock(tripId, owner, nowMillis, ttlMillis);
+        TripLock lock = locks.compute(tripId, (id, existingLock) -> {
+            if (existingLock == null) return newLock;
+            if (existingLock.isExpired(nowMillis)) {
+                reclaim(existingLock);
+                return newLock;
+            }
+            return existingLock;
+        });
+        return lock == newLock ? lock : null;
     }
 
     /**
-     * Returns true if a lock exists for the given MonitoredTrip
+     * Locks the given MonitoredTrip, waiting until it is released by its current holder (or its lock expires) for at
+     * most the given time.
+     * @return the acquired lock, or null if the trip could not be locked in time.
+     */
+    public static TripLock lock(String tripId, String owner, long maxWaitMillis) throws InterruptedException {
+        TripLock lock = tryLock(tripId, owner, LOCK_TTL_MILLIS);
+        if (lock != null) return lock;
+
+        waitCount.incrementAndGet();
+        waiterCounts.merge(tripId, 1, Integer::sum);
+        long deadlineMillis = System.currentTimeMillis() + maxWaitMillis;
+        try {
+            synchronized (releaseSignal) {
+                while (true) {
+                    // Attempt to lock while holding the monitor, so that a release can't happen before waiting.
+                    lock = tryLock(tripId, owner, LOCK_TTL_MILLIS);
+                    if (lock != null) return lock;
+                    long nowMillis = System.currentTimeMillis();
+                    if (nowMillis >= deadlineMillis) {
+                        waitTimeoutCount.incrementAndGet();
+                        return null;
+                    }
+                    // Wake up no later than when the current lock expires, to reclaim it.
+                    TripLock currentLock = locks.get(tripId);
+                    long waitUntilMillis = currentLock != null
+                        ? Math.min(deadlineMillis, currentLock.expiresAtMillis)
+                        : deadlineMillis;
+                    releaseSignal.wait(Math.max(1, waitUntilMillis - nowMillis));
+                }
+            }
+        } finally {
+            waiterCounts.computeIfPresent(tripId, (id, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * Releases the given lock, unless it expired and was reclaimed by another holder in the meantime.
+     */
+    public static void unlock(TripLock lock) {
+        if (lock == null) return;
+        long nowMillis = System.currentTimeMillis();
+        if (locks.remove(lock.tripId, lock)) {
+            long holdMillis = nowMillis - lock.acquiredAtMillis;
+            releasedCount.incrementAndGet();
+            totalHoldMillis.addAndGet(holdMillis);
+            maxHoldMillis.accumulateAndGet(holdMillis, Math::max);
+        } else {
+            LOG.warn("Lock on trip {} held by {} expired before it was released.", lock.tripId, lock.owner);
+        }
+        unlockTimesMillis.put(lock.tripId, nowMillis);
+        synchronized (releaseSignal) {
+            releaseSignal.notifyAll();
+        }
+    }
+
+    /**
+     * Returns true if an unexpired lock exists for the given MonitoredTrip
      */
     public static boolean isLocked(String tripId) {
-        return locks.containsKey(tripId);
+        TripLock lock = locks.get(tripId);
+        return lock != null && !lock.isExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns true if the lock on the given MonitoredTrip was released at or after the given time, meaning the trip may
+     * have been modified since then. Only the locks of this process are known, so modifications made by other processes
+     * are not reported. This is meant to be called while holding the lock on the trip.
+     */
+    public static boolean wasUnlockedSince(String tripId, long sinceMillis) {
+        Long unlockTimeMillis = unlockTimesMillis.get(tripId);
+        return unlockTimeMillis != null && unlockTimeMillis >= sinceMillis;
+    }
+
+    /**
+     * Forgets the lock release times before the given time, so they don't accumulate over monitoring cycles.
+     */
+    public static void forgetUnlocksBefore(long beforeMillis) {
+        unlockTimesMillis.values().removeIf(unlockTimeMillis -> unlockTimeMillis < beforeMillis);
+    }
+
+    /**
+     * Removes the expired locks, so that locks that were never released (e.g. because of a crash) don't accumulate.
+     * Expired locks are otherwise only reclaimed when the trip is locked again.
+     */
+    public static void reclaimExpiredLocks() {
+        long nowMillis = System.currentTimeMillis();
+        for (TripLock lock : locks.values()) {
+            if (lock.isExpired(nowMillis) && locks.remove(lock.tripId, lock)) {
+                reclaim(lock);
+                unlockTimesMillis.put(lock.tripId, nowMillis);
+            }
+        }
+    }
+
+    private static void reclaim(TripLock lock) {
+        reclaimedCount.incrementAndGet();
+        LOG.warn("Reclaiming expired lock on trip {} held by {}.", lock.tripId, lock.owner);
     }
 
     /**
      * Attempts to lock the trip for updating within the context of a web request. If an existing monitored trip check
-     * is currently happening, this method will retry for 4 seconds to obtain a lock for the trip. If a lock couldn't be
-     * obtained, then the request is halted.
+     * is currently happening, this method will wait up to 4 seconds for the check to release its lock. If a lock
+     * couldn't be obtained, then the request is halted.
+     * @return the acquired lock, to release once the trip is updated.
      */
-    public static void lockTripForUpdating(MonitoredTrip monitoredTrip, Request req) {
+    public static TripLock lockTripForUpdating(MonitoredTrip monitoredTrip, Request req) {
         // Wait for any existing CheckMonitoredTrip jobs to complete before proceeding
         String busyMessage = "A trip monitor check prevented the trip from being updated. Please try again in a moment.";
-        if (isLocked(monitoredTrip.id)) {
-            int timeWaitedMillis = 0;
-            do {
-                try {
-                    Thread.sleep(LOCK_CHECK_WAIT_MILLIS);
-                } catch (InterruptedException e) {
-                    logMessageAndHalt(req, HttpStatus.INTERNAL_SERVER_ERROR_500, busyMessage);
-                }
-                timeWaitedMillis += LOCK_CHECK_WAIT_MILLIS;
-
-                // if the lock has been released, exit this wait loop
-                if (!isLocked(monitoredTrip.id)) break;
-            } while (timeWaitedMillis <= MAX_UNLOCKING_WAIT_TIME_MILLIS);
+        TripLock lock = null;
+        try {
+            lock = lock(monitoredTrip.id, "trip update request", MAX_UNLOCKING_WAIT_TIME_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-
-        // If a lock still exists, prevent the update
-        if (isLocked(monitoredTrip.id)) {
+        // If the lock could not be obtained, prevent the update
+        if (lock == null) {
             logMessageAndHalt(req, HttpStatus.INTERNAL_SERVER_ERROR_500, busyMessage);
-            return;
         }
+        return lock;
+    }
+
+    public static int getLockCount() {
+        return locks.size();
+    }
+
+    public static long getReleasedCount() {
+        return releasedCount.get();
+    }
 
-        // lock the trip so that the a CheckMonitoredTrip job won't concurrently analyze/update the trip.
-        lock(monitoredTrip.id);
+    /**
+     * @return the average time locks were held, among released locks.
+     */
+    public static long getAverageHoldMillis() {
+        long count = releasedCount.get();
+        return count == 0 ? 0 : totalHoldMillis.get() / count;
+    }
+
+    public static long getMaxHoldMillis() {
+        return maxHoldMillis.get();
+    }
+
+    /**
+     * @return the number of locks that expired and were reclaimed before being released by their holder.
+     */
+    public static long getReclaimedCount() {
+        return reclaimedCount.get();
+    }
+
+    /**
+     * @return the number of lock requests that had to wait for another holder.
+     */
+    public static long getWaitCount() {
+        return waitCount.get();
+    }
+
+    /**
+     * @return the number of lock requests that could not be satisfied within their maximum wait time.
+     */
+    public static long getWaitTimeoutCount() {
+        return waitTimeoutCount.get();
     }
 }
@@ -0,0 +1,292 @@
+package org.opentripplanner.middleware.tripmonitor.jobs;
+
+import org.opentripplanner.middleware.otp.OtpConcurrencyLimiter;
+import org.opentripplanner.middleware.otp.OtpDispatcher;
+import org.opentripplanner.middleware.otp.OtpGraphQLVariables;
+import org.opentripplanner.middleware.otp.response.OtpResponse;
+import org.opentripplanner.middleware.tripmonitor.JourneyState;
+import org.opentripplanner.middleware.tripmonitor.MonitoringLeaseManager;
+import org.opentripplanner.middleware.utils.ItineraryFingerprint;
+import org.opentripplanner.middleware.utils.SingleFlightCache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the progress and result of a single run (cycle) of {@link MonitorAllTripsJob}: how many trips were checked,
+ * skipped, or failed to be checked, and how long the cycle took. Counters are updated concurrently by the
+ * {@link TripAnalyzer} tasks of the cycle.
+ *
+ * A cycle also shares the OTP responses between the trip checks that make identical plan requests, so that many users
+ * monitoring the same commute result in a single OTP request per cycle.
+ *
+ * A cycle has a time budget: trips not analyzed by the end of the budget are deferred, i.e. left due so that they are
+ * analyzed first in the next cycle. To verify that no trip is starved, a cycle also keeps statistics about how long
+ * ago the analyzed trips were last checked (staleness), and how long after their due time they were analyzed.
+ */
+public class MonitoringCycle {
+    private final long startTimeMillis = System.currentTimeMillis();
+
+    /** Determines which trips this node is responsible for in cluster mode, null otherwise. */
+    private final MonitoringLeaseManager leaseManager;
+
+    private volatile long endTimeMillis = -1;
+
+    private volatile int tripCount;
+
+    private final AtomicInteger checkedCount = new AtomicInteger();
+
+    private final AtomicInteger skippedCount = new AtomicInteger();
+
+    private final AtomicInteger failedCount = new AtomicInteger();
+
+    private final AtomicInteger deferredCount = new AtomicInteger();
+
+    /** The time after which the trips not yet analyzed are deferred to the next cycle. */
+    private final long deadlineMillis;
+
+    /** The time elapsed between the previous check of the analyzed trips and their analysis in this cycle. */
+    private final DurationStats staleness = new DurationStats();
+
+    /** The time elapsed between the due time of the analyzed trips and their analysis in this cycle. */
+    private final DurationStats checkDelay = new DurationStats();
+
+    /** OTP responses obtained during this cycle, by normalized plan request. */
+    private final SingleFlightCache<String, OtpResponse> otpResponses = new SingleFlightCache<>();
+
+    /** Identifies the alerts of the OTP responses and previous itineraries of this cycle. */
+    private final AlertRegistry alertRegistry = new AlertRegistry();
+
+    public MonitoringCycle(MonitoringLeaseManager leaseManager) {
+        this(leaseManager, TimeUnit.SECONDS.toMillis(MonitorAllTripsJob.MONITOR_ALL_TRIPS_JOB_MAX_CYCLE_SECONDS));
+    }
+
+    MonitoringCycle(MonitoringLeaseManager leaseManager, long budgetMillis) {
+        this.leaseManager = leaseManager;
+        this.deadlineMillis = startTimeMillis + budgetMillis;
+    }
+
+    /**
+     * @return true if this node is (still) responsible for checking the given trip. This is always true unless trip
+     * monitoring runs in cluster mode.
+     */
+    boolean isResponsibleFor(String tripId) {
+        return leaseManager == null || leaseManager.isResponsibleFor(tripId);
+    }
+
+    /**
+     * Sets the number of trips submitted for analysis in this cycle.
+     */
+    void setTripCount(int tripCount) {
+        this.tripCount = tripCount;
+    }
+
+    /**
+     * Records the outcome of a completed {@link CheckMonitoredTrip}.
+     */
+    void recordCheckResult(CheckMonitoredTrip checkMonitoredTrip) {
+        if (checkMonitoredTrip.hasFailed()) {
+            recordFailed();
+        } else if (checkMonitoredTrip.isSkipped()) {
+            recordSkipped();
+        } else {
+            checkedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a trip that was not checked, e.g. because it was locked or deleted, or because its check criteria were
+     * not met.
+     */
+    void recordSkipped() {
+        skippedCount.incrementAndGet();
+    }
+
+    /**
+     * Records a trip whose check could not be completed because of an error.
+     */
+    void recordFailed() {
+        failedCount.incrementAndGet();
+    }
+
+    /**
+     * Records a trip that was not analyzed because the time budget of this cycle was exhausted.
+     */
+    void recordDeferred() {
+        deferredCount.incrementAndGet();
+    }
+
+    /**
+     * Records the staleness and check delay of a trip about to be analyzed, based on its persisted journey state.
+     * Trips that were never checked, or that were updated by their owner to be checked right away, are not counted.
+     */
+    void recordTripDue(JourneyState journeyState, long nowMillis) {
+        if (journeyState == null) return;
+        if (journeyState.lastCheckedEpochMillis > 0) {
+            staleness.add(nowMillis - journeyState.lastCheckedEpochMillis);
+        }
+        if (journeyState.nextCheckEpochMillis > 0) {
+            checkDelay.add(Math.max(0, nowMillis - journeyState.nextCheckEpochMillis));
+        }
+    }
+
+    /**
+     * @return true if the time budget of this cycle is exhausted, in which case the trips not analyzed yet should be
+     * deferred to the next cycle.
+     */
+    boolean isOverBudget() {
+        return System.currentTimeMillis() >= deadlineMillis;
+    }
+
+    /**
+     * Sends a plan request with the given variables to OTP, unless an identical request was made (or is in progress)
+     * during this cycle, in which case the response of that request is reused.
+     * @return a copy of the OTP response whose itineraries can be modified by the caller, or null if the request failed.
+     */
+    OtpResponse getOtpResponse(OtpGraphQLVariables variables) throws CloneNotSupportedException {
+        OtpResponse response = otpResponses.get(
+            variables.toNormalizedKey(),
+            () -> {
+                OtpResponse otpResponse =
+                    OtpDispatcher.sendOtpRequestWithErrorHandling(variables, OtpConcurrencyLimiter.MONITORING);
+                // Hash the candidate itineraries once for all the trips sharing the response.
+                ItineraryFingerprint.hashCandidateFields(otpResponse);
+                return otpResponse;
+            }
+        );
+        return response == null ? null : response.copyWithItineraries();
+    }
+
+    AlertRegistry getAlertRegistry() {
+        return alertRegistry;
+    }
+
+    /**
+     * Marks this cycle as completed.
+     */
+    void complete() {
+        endTimeMillis = System.currentTimeMillis();
+    }
+
+    public boolean isComplete() {
+        return endTimeMillis != -1;
+    }
+
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    /**
+     * @return the duration of this cycle, or the time elapsed so far if the cycle is still running.
+     */
+    public long getDurationMillis() {
+        return (isComplete() ? endTimeMillis : System.currentTimeMillis()) - startTimeMillis;
+    }
+
+    public int getTripCount() {
+        return tripCount;
+    }
+
+    public int getCheckedCount() {
+        return checkedCount.get();
+    }
+
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    public int getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    /**
+     * @return the longest time elapsed between the previous check of a trip and its analysis in this cycle.
+     */
+    public long getMaxStalenessMillis() {
+        return staleness.getMax();
+    }
+
+    public long getAverageStalenessMillis() {
+        return staleness.getAverage();
+    }
+
+    /**
+     * @return the longest time elapsed between the due time of a trip and its analysis in this cycle.
+     */
+    public long getMaxCheckDelayMillis() {
+        return checkDelay.getMax();
+    }
+
+    public long getAverageCheckDelayMillis() {
+        return checkDelay.getAverage();
+    }
+
+    /**
+     * @return the number of OTP plan requests of this cycle that were served by a response obtained for another trip.
+     */
+    public long getOtpResponseHitCount() {
+        return otpResponses.getHitCount();
+    }
+
+    /**
+     * @return the number of OTP plan requests actually sent to OTP during this cycle.
+     */
+    public long getOtpResponseMissCount() {
+        return otpResponses.getMissCount();
+    }
+
+    /**
+     * @return the number of trips that have been analyzed so far, regardless of the outcome.
+     */
+    public int getProcessedCount() {
+        return getCheckedCount() + getSkippedCount() + getFailedCount();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%d trips (%d checked, %d skipped, %d failed, %d deferred) in %d ms, OTP responses: %d shared, " +
+                "%d requested, %d distinct alerts, staleness: %d ms avg, %d ms max, check delay: %d ms avg, %d ms max",
+            tripCount,
+            getCheckedCount(),
+            getSkippedCount(),
+            getFailedCount(),
+            getDeferredCount(),
+            getDurationMillis(),
+            getOtpResponseHitCount(),
+            getOtpResponseMissCount(),
+            alertRegistry.getAlertCount(),
+            getAverageStalenessMillis(),
+            getMaxStalenessMillis(),
+            getAverageCheckDelayMillis(),
+            getMaxCheckDelayMillis()
+        );
+    }
+
+    /**
+     * Aggregates durations recorded concurrently by the trip analyzer tasks of a cycle.
+     */
+    private static class DurationStats {
+        private long count;
+        private long totalMillis;
+        private long maxMillis;
+
+        synchronized void add(long millis) {
+            count++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        synchronized long getMax() {
+            return maxMillis;
+        }
+
+        synchronized long getAverage() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.opentripplanner.middleware.tripmonitor.jobs;
+
+import org.bson.Document;
+import org.opentripplanner.middleware.tripmonitor.TripStatus;
+import org.opentripplanner.middleware.utils.ConfigUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines the order in which the due trips of a {@link MonitoringCycle} are analyzed, so that the notifications for
+ * imminent and ongoing journeys are produced first, even if the cycle runs out of time before all trips are analyzed.
+ *
+ * Trips are ordered by their urgency, i.e. the time until their departure (zero for ongoing journeys). To prevent
+ * trips departing later from being starved by a steady stream of imminent trips, the urgency of a trip increases with
+ * the time elapsed since the trip became due (aging), as set by MONITOR_ALL_TRIPS_JOB_PRIORITY_AGING_FACTOR.
+ */
+public class TripAnalysisPriority {
+    /**
+     * The number of minutes closer to its departure that a trip is considered to be, for each minute the trip is
+     * overdue.
+     */
+    public static final int MONITOR_ALL_TRIPS_JOB_PRIORITY_AGING_FACTOR =
+        ConfigUtils.getConfigPropertyAsInt("MONITOR_ALL_TRIPS_JOB_PRIORITY_AGING_FACTOR", 60);
+
+    /**
+     * The time to departure assumed for trips whose upcoming departure is not known, e.g. trips never checked before,
+     * or trips whose last checked journey has ended. This places them ahead of trips departing in several hours.
+     */
+    static final long UNKNOWN_DEPARTURE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final String NEXT_CHECK_FIELD = "nextCheckEpochMillis";
+    private static final String TRIP_STATUS_FIELD = "tripStatus";
+    private static final String BASELINE_DEPARTURE_FIELD = "baselineDepartureTimeEpochMillis";
+    private static final String SCHEDULED_DEPARTURE_FIELD = "scheduledDepartureTimeEpochMillis";
+    private static final String BASELINE_ARRIVAL_FIELD = "baselineArrivalTimeEpochMillis";
+    private static final String SCHEDULED_ARRIVAL_FIELD = "scheduledArrivalTimeEpochMillis";
+
+    /** The monitored trip fields needed to compute the priority of a trip. */
+    public static final List<String> PRIORITY_FIELDS = List.of(
+        "journeyState." + NEXT_CHECK_FIELD,
+        "journeyState." + TRIP_STATUS_FIELD,
+        "journeyState." + BASELINE_DEPARTURE_FIELD,
+        "journeyState." + SCHEDULED_DEPARTURE_FIELD,
+        "journeyState." + BASELINE_ARRIVAL_FIELD,
+        "journeyState." + SCHEDULED_ARRIVAL_FIELD
+    );
+
+    private TripAnalysisPriority() {
+    }
+
+    /**
+     * @param trips the monitored trips to analyze, with (at least) their ID and {@link #PRIORITY_FIELDS}.
+     * @return the IDs of the given trips, most urgent first.
+     */
+    public static List<String> sortByPriority(List<Document> trips, long nowMillis) {
+        List<PrioritizedTrip> prioritizedTrips = new ArrayList<>(trips.size());
+        for (Document trip : trips) {
+            prioritizedTrips.add(new PrioritizedTrip(trip.getString("_id"), getPriorityKey(trip, nowMillis)));
+        }
+        prioritizedTrips.sort(Comparator.comparingLong(prioritizedTrip -> prioritizedTrip.priorityKey));
+        List<String> tripIds = new ArrayList<>(prioritizedTrips.size());
+        for (PrioritizedTrip prioritizedTrip : prioritizedTrips) {
+            tripIds.add(prioritizedTrip.tripId);
+        }
+        return tripIds;
+    }
+
+    private static long getPriorityKey(Document trip, long nowMillis) {
+        Document journeyState = trip.get("journeyState", Document.class);
+        if (journeyState == null) return getPriorityKey(null, 0, 0, 0, nowMillis);
+        String tripStatus = journeyState.getString(TRIP_STATUS_FIELD);
+        return getPriorityKey(
+            tripStatus == null ? null : TripStatus.valueOf(tripStatus),
+            getTime(journeyState, BASELINE_DEPARTURE_FIELD, SCHEDULED_DEPARTURE_FIELD),
+            getTime(journeyState, BASELINE_ARRIVAL_FIELD, SCHEDULED_ARRIVAL_FIELD),
+            getLong(journeyState, NEXT_CHECK_FIELD),
+            nowMillis
+        );
+    }
+
+    /**
+     * @return a key by which trips are sorted, the most urgent first: the time until the departure of the trip, reduced
+     * according to how long the trip has been overdue.
+     */
+    static long getPriorityKey(
+        TripStatus tripStatus,
+        long departureMillis,
+        long arrivalMillis,
+        long nextCheckMillis,
+        long nowMillis
+    ) {
+        long overdueMillis = nextCheckMillis > 0 ? Math.max(0, nowMillis - nextCheckMillis) : 0;
+        return getTimeToDepartureMillis(tripStatus, departureMillis, arrivalMillis, nowMillis) -
+            overdueMillis * MONITOR_ALL_TRIPS_JOB_PRIORITY_AGING_FACTOR;
+    }
+
+    private static long getTimeToDepartureMillis(
+        TripStatus tripStatus,
+        long departureMillis,
+        long arrivalMillis,
+        long nowMillis
+    ) {
+        if (tripStatus == TripStatus.TRIP_ACTIVE) return 0;
+        if (tripStatus != TripStatus.TRIP_UPCOMING || departureMillis <= 0) return UNKNOWN_DEPARTURE_MILLIS;
+        if (departureMillis > nowMillis) return departureMillis - nowMillis;
+        // The journey started since the trip was last checked, or it has ended.
+        return arrivalMillis > nowMillis ? 0 : UNKNOWN_DEPARTURE_MILLIS;
+    }
+
+    /**
+     * @return the baseline time (which accounts for delays already notified) if set, or the scheduled time otherwise.
+     */
+    private static long getTime(Document journeyState, String baselineField, String scheduledField) {
+        long baselineMillis = getLong(journeyState, baselineField);
+        return baselineMillis > 0 ? baselineMillis : getLong(journeyState, scheduledField);
+    }
+
+    private static long getLong(Document document, String field) {
+        Object value = document.get(field);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static class PrioritizedTrip {
+        private final String tripId;
+        private final long priorityKey;
+
+        private PrioritizedTrip(String tripId, long priorityKey) {
+            this.tripId = tripId;
+            this.priorityKey = priorityKey;
+        }
+    }
+}
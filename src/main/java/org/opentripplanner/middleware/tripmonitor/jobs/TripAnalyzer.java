@@ -1,98 +1,118 @@
 package org.opentripplanner.middleware.tripmonitor.jobs;
 
+import com.mongodb.client.model.Filters;
 import org.opentripplanner.middleware.models.MonitoredTrip;
 import org.opentripplanner.middleware.persistence.Persistence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Analyzes a chunk of monitored trips as part of a {@link MonitoringCycle}. One instance is submitted to the
+ * {@link MonitorAllTripsJob} executor for each chunk of trips to analyze, and the outcome of the analysis of each trip
+ * is recorded in the cycle.
+ */
 public class TripAnalyzer implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(TripAnalyzer.class);
 
-    private final int BLOCKING_QUEUE_POLL_TIMEOUT_MILLIS = 250;
+    private final List<String> tripIds;
 
-    private final AtomicBoolean analyzerIsIdle;
-    private final BlockingQueue<String> tripAnalysisQueue;
-    private final AtomicBoolean queueDepleted;
+    private final MonitoringCycle cycle;
 
-    public TripAnalyzer(
-        BlockingQueue<String> tripAnalysisQueue,
-        AtomicBoolean queueDepleted,
-        AtomicBoolean analyzerIsIdle
-    ) {
-        this.tripAnalysisQueue = tripAnalysisQueue;
-        this.queueDepleted = queueDepleted;
-        this.analyzerIsIdle = analyzerIsIdle;
+    public TripAnalyzer(List<String> tripIds, MonitoringCycle cycle) {
+        this.tripIds = tripIds;
+        this.cycle = cycle;
     }
 
     @Override
     public void run() {
-        try {
-            while (!queueDepleted.get()) {
-                analyzerIsIdle.set(false);
-
-                // get the next monitored trip ID from the queue
-                String tripId;
-                try {
-                    tripId = tripAnalysisQueue.poll(BLOCKING_QUEUE_POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    LOG.warn("TripAnalyzer thread interrupted");
-                    e.printStackTrace();
-                    analyzerIsIdle.set(true);
-                    Thread.sleep(BLOCKING_QUEUE_POLL_TIMEOUT_MILLIS);
-                    continue;
-                }
-
-                // The implementation of the ArrayBlockingQueue can result in null items being returned if the wait is
-                // exceeded on an empty queue. Therefore, check if the trip is null and if so, wait and then continue.
-                if (tripId == null) {
-                    Thread.sleep(BLOCKING_QUEUE_POLL_TIMEOUT_MILLIS);
-                    analyzerIsIdle.set(true);
-                    continue;
-                }
-
-                // verify that a lock hasn't been placed on trip by another trip analyzer task
-                if (MonitoredTripLocks.isLocked(tripId)) {
-                    LOG.warn("Skipping trip analysis due to existing lock on trip: {}", tripId);
-                    analyzerIsIdle.set(true);
-                    continue;
-                }
-
-                // Refetch the trip from the database. This is to ensure the trip has any updates made to the trip
-                // between when the trip was placed in the analysis queue and the current time.
-                MonitoredTrip trip = Persistence.monitoredTrips.getById(tripId);
-                if (trip == null) {
-                    // trip was deleted between the time when it was placed in the queue and the current time. Don't
-                    // analyze the trip.
-                    LOG.info("Trip {} was deleted before analysis began.", tripId);
-                    analyzerIsIdle.set(true);
-                    continue;
-                }
-
-                LOG.info("Analyzing trip {}", tripId);
+        if (cycle.isOverBudget()) {
+            // The trips of this chunk remain due and will be analyzed first in the next cycle.
+            tripIds.forEach(tripId -> cycle.recordDeferred());
+            return;
+        }
 
-                // place lock on trip
-                MonitoredTripLocks.lock(tripId);
+        // Fetch all trips of the chunk from the database in one query. This is done when the chunk is about to be
+        // analyzed (rather than when the chunk was submitted) so that the trips include any updates made until now.
+        long loadTimeMillis = System.currentTimeMillis();
+        Map<String, MonitoredTrip> tripsById = new HashMap<>();
+        try {
+            Persistence.monitoredTrips.getFiltered(Filters.in("_id", tripIds))
+                .into(new ArrayList<>())
+                .forEach(trip -> tripsById.put(trip.id, trip));
+        } catch (Exception e) {
+            LOG.error("Error encountered while loading {} monitored trips", tripIds.size(), e);
+            tripIds.forEach(tripId -> cycle.recordFailed());
+            return;
+        }
 
-                /////// BEGIN TRIP ANALYSIS
-                try {
-                    new CheckMonitoredTrip(trip).run();
-                } catch (Exception e) {
-                    LOG.error("Error encountered while checking monitored trip", e);
-                    // FIXME bugsnag
-                }
-                LOG.info("Finished analyzing trip {}", tripId);
+        for (int i = 0; i < tripIds.size(); i++) {
+            if (cycle.isOverBudget()) {
+                int remainingCount = tripIds.size() - i;
+                LOG.info("Time budget of the cycle exhausted, deferring {} trips to the next cycle.", remainingCount);
+                for (int j = 0; j < remainingCount; j++) cycle.recordDeferred();
+                return;
+            }
+            analyzeTrip(tripIds.get(i), tripsById.get(tripIds.get(i)), loadTimeMillis);
+        }
+    }
 
-                // remove lock on trip
-                MonitoredTripLocks.unlock(tripId);
+    /**
+     * Analyzes a trip of the chunk, with the trip as loaded with the chunk unless it was updated by this process since
+     * then (see {@link MonitoredTripLocks#wasUnlockedSince}).
+     * @param loadedTrip the trip as loaded with the chunk, or null if it was not found.
+     * @param loadTimeMillis the time at which the chunk was loaded.
+     */
+    private void analyzeTrip(String tripId, MonitoredTrip loadedTrip, long loadTimeMillis) {
+        // In cluster mode, make sure the partition of this trip has not been claimed by another node in the meantime.
+        if (!cycle.isResponsibleFor(tripId)) {
+            LOG.info("Skipping trip analysis because trip {} is no longer handled by this node.", tripId);
+            cycle.recordSkipped();
+            return;
+        }
 
-                analyzerIsIdle.set(true);
+        // Lock the trip, unless a lock has been placed on it by another trip analyzer task or by a web request.
+        MonitoredTripLocks.TripLock lock = MonitoredTripLocks.tryLock(tripId, "trip analyzer");
+        if (lock == null) {
+            LOG.warn("Skipping trip analysis due to existing lock on trip: {}", tripId);
+            cycle.recordSkipped();
+            return;
+        }
+        try {
+            // If the trip was unlocked (e.g. after an update by its owner) since the chunk was loaded, refetch the
+            // trip from the database so that the analysis uses the update. Only the locks of this process are known,
+            // so updates made by other processes (e.g. by the API or trip monitor of another node) since the chunk
+            // was loaded are not detected: the trip is then analyzed as loaded, and the results of the analysis are
+            // not saved because the version of the trip no longer matches (see MonitoredTrip#version). Notifications
+            // may still be sent based on the loaded trip, which can only happen if the trip is updated elsewhere
+            // between the loading of its chunk and its analysis.
+            MonitoredTrip trip = MonitoredTripLocks.wasUnlockedSince(tripId, loadTimeMillis)
+                ? Persistence.monitoredTrips.getById(tripId)
+                : loadedTrip;
+            if (trip == null) {
+                // trip was deleted between the time when it was submitted for analysis and the current time. Don't
+                // analyze the trip.
+                LOG.info("Trip {} was deleted before analysis began.", tripId);
+                cycle.recordSkipped();
+                return;
             }
-        } catch (InterruptedException e) {
-            LOG.error("error encountered while waiting during TripAnalyzer.", e);
+
+            LOG.info("Analyzing trip {}", tripId);
+            cycle.recordTripDue(trip.journeyState, System.currentTimeMillis());
+            CheckMonitoredTrip checkMonitoredTrip = new CheckMonitoredTrip(trip, cycle);
+            checkMonitoredTrip.run();
+            cycle.recordCheckResult(checkMonitoredTrip);
+        } catch (Exception e) {
+            LOG.error("Error encountered while checking monitored trip", e);
+            cycle.recordFailed();
+        } finally {
+            // remove lock on trip
+            MonitoredTripLocks.unlock(lock);
         }
+        LOG.info("Finished analyzing trip {}", tripId);
     }
 }
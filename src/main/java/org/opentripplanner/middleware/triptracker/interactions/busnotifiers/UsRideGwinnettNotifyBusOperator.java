@@ -6,6 +6,7 @@ import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.models.TrackedJourney;
 import org.opentripplanner.middleware.triptracker.TravelerPosition;
 import org.opentripplanner.middleware.triptracker.TripStatus;
+import org.opentripplanner.middleware.utils.HttpClientPool;
 import org.opentripplanner.middleware.utils.HttpUtils;
 import org.opentripplanner.middleware.utils.JsonUtils;
 import org.slf4j.Logger;
@@ -150,6 +151,7 @@ public class UsRideGwinnettNotifyBusOperator implements BusOperatorInteraction {
             return HttpStatus.OK_200;
         }
         var httpResponse = HttpUtils.httpRequestRawResponse(
+            HttpClientPool.BUS_NOTIFIERS,
             URI.create(US_RIDE_GWINNETT_BUS_OPERATOR_NOTIFIER_API_URL),
             1000,
             HttpMethod.POST,
@@ -167,6 +169,7 @@ public class UsRideGwinnettNotifyBusOperator implements BusOperatorInteraction {
             return HttpStatus.OK_200;
         }
         var httpResponse = HttpUtils.httpRequestRawResponse(
+            HttpClientPool.BUS_NOTIFIERS,
             URI.create(US_RIDE_GWINNETT_BUS_PRIORITY_API_URL),
             1000,
             HttpMethod.POST,
@@ -0,0 +1,116 @@
+package org.opentripplanner.middleware.utils;
+
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived HTTP clients whose connections are kept alive and reused across requests, so that requests don't each pay
+ * for a new TCP connection and TLS handshake. Each class of destination (OTP, notification services, etc.) has its own
+ * connection pool, so that one slow destination cannot use up the connections of another.
+ *
+ * Connections idle for more than HTTP_CLIENT_IDLE_TIMEOUT_SECONDS are closed. Connections are kept alive for as long
+ * as the server allows, or for HTTP_CLIENT_KEEP_ALIVE_SECONDS if the server does not specify it.
+ */
+public class HttpClientPool {
+    private static final int IDLE_TIMEOUT_SECONDS =
+        ConfigUtils.getConfigPropertyAsInt("HTTP_CLIENT_IDLE_TIMEOUT_SECONDS", 30);
+
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = TimeUnit.SECONDS.toMillis(
+        ConfigUtils.getConfigPropertyAsInt("HTTP_CLIENT_KEEP_ALIVE_SECONDS", 30)
+    );
+
+    private static final int DEFAULT_MAX_PER_ROUTE =
+        ConfigUtils.getConfigPropertyAsInt("HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE", 20);
+
+    /**
+     * Used for requests to OTP. Sized for the maximum number of concurrent monitoring and interactive OTP requests
+     * (see {@link org.opentripplanner.middleware.otp.OtpConcurrencyLimiter}).
+     */
+    public static final HttpClientPool OTP = new HttpClientPool(
+        "otp",
+        ConfigUtils.getConfigPropertyAsInt("OTP_HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE", 60)
+    );
+
+    /** Used for requests to the push notification service. */
+    public static final HttpClientPool NOTIFICATIONS = new HttpClientPool("notifications", DEFAULT_MAX_PER_ROUTE);
+
+    /** Used for requests to the bus operator notification and bus priority services. */
+    public static final HttpClientPool BUS_NOTIFIERS = new HttpClientPool("busNotifiers", DEFAULT_MAX_PER_ROUTE);
+
+    /** Used for requests to the Bugsnag API. */
+    public static final HttpClientPool BUGSNAG = new HttpClientPool("bugsnag", DEFAULT_MAX_PER_ROUTE);
+
+    /** Used for all other requests. */
+    public static final HttpClientPool DEFAULT = new HttpClientPool("default", DEFAULT_MAX_PER_ROUTE);
+
+    private static final List<HttpClientPool> ALL_POOLS = List.of(OTP, NOTIFICATIONS, BUS_NOTIFIERS, BUGSNAG, DEFAULT);
+
+    private final String name;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private final CloseableHttpClient client;
+
+    private final CloseableHttpClient clientWithoutRedirects;
+
+    private HttpClientPool(String name, int maxPerRoute) {
+        this.name = name;
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setMaxTotal(maxPerRoute * 2);
+        // Check connections that were idle for a while before reusing them, in case the server closed them.
+        connectionManager.setValidateAfterInactivity(2000);
+
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long keepAliveMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return keepAliveMillis > 0 ? keepAliveMillis : DEFAULT_KEEP_ALIVE_MILLIS;
+        };
+        // The first client owns the connection manager and runs the idle connection evictor, the second one shares
+        // the same connections.
+        client = HttpClientBuilder.create()
+            .setConnectionManager(connectionManager)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            .evictExpiredConnections()
+            .evictIdleConnections(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .build();
+        clientWithoutRedirects = HttpClientBuilder.create()
+            .setConnectionManager(connectionManager)
+            .setConnectionManagerShared(true)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            .disableRedirectHandling()
+            .build();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    CloseableHttpClient getClient(boolean allowRedirects) {
+        return allowRedirects ? client : clientWithoutRedirects;
+    }
+
+    /**
+     * @return the number of connections in use, idle in the pool, and requests waiting for a connection.
+     */
+    public Map<String, Integer> getStats() {
+        PoolStats stats = connectionManager.getTotalStats();
+        return Map.of(
+            "leased", stats.getLeased(),
+            "available", stats.getAvailable(),
+            "pending", stats.getPending(),
+            "max", stats.getMax()
+        );
+    }
+
+    public static List<HttpClientPool> getAllPools() {
+        return ALL_POOLS;
+    }
+}
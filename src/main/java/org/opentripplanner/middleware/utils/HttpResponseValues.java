@@ -40,6 +40,8 @@ public class HttpResponseValues {
      */
     private static String getResponseBodyAsString(HttpResponse response) {
         String responseBody = null;
+        // Responses such as 304 Not Modified have no body.
+        if (response.getEntity() == null) return null;
         try {
             responseBody = EntityUtils.toString(response.getEntity());
             EntityUtils.consume(response.getEntity());
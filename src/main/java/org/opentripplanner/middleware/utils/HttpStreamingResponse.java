@@ -0,0 +1,67 @@
+package org.opentripplanner.middleware.utils;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An HTTP response whose body has not been read yet, so that it can be passed on (e.g. to the requester of a proxied
+ * request) without holding the whole body in memory. Closing the response body (or the response) returns the
+ * connection to its pool.
+ */
+public class HttpStreamingResponse implements Closeable {
+    public final int status;
+
+    public final Header[] headers;
+
+    private final CloseableHttpResponse response;
+
+    private final InputStream body;
+
+    HttpStreamingResponse(CloseableHttpResponse response) throws IOException {
+        this.response = response;
+        this.status = response.getStatusLine().getStatusCode();
+        this.headers = response.getAllHeaders();
+        HttpEntity entity = response.getEntity();
+        InputStream content = entity != null ? entity.getContent() : InputStream.nullInputStream();
+        this.body = new FilterInputStream(content) {
+            @Override
+            public void close() throws IOException {
+                HttpStreamingResponse.this.close();
+            }
+        };
+    }
+
+    private HttpStreamingResponse(int status, String body) {
+        this.response = null;
+        this.status = status;
+        this.headers = new Header[0];
+        this.body = new ByteArrayInputStream(body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+    }
+
+    /**
+     * Creates a response that was not received over HTTP, e.g. to report an error to the requester.
+     */
+    public static HttpStreamingResponse of(int status, String body) {
+        return new HttpStreamingResponse(status, body);
+    }
+
+    /**
+     * @return the response body, which releases the connection when closed.
+     */
+    public InputStream getBody() {
+        return body;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (response != null) response.close();
+    }
+}
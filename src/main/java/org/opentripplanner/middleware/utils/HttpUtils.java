@@ -8,7 +8,6 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
@@ -88,6 +87,72 @@ public class HttpUtils {
     public static HttpResponseValues httpRequestRawResponse(URI uri, int timeoutInSeconds, HttpMethod method,
                                                       Map<String, String> headers, String bodyContent,
                                                       boolean allowRedirects) {
+        return httpRequestRawResponse(
+            HttpClientPool.DEFAULT,
+            uri,
+            timeoutInSeconds,
+            method,
+            headers,
+            bodyContent,
+            allowRedirects
+        );
+    }
+
+    /**
+     * Makes an http request using the connections of the given pool (following redirects if triggered) and return the
+     * response.
+     */
+    public static HttpResponseValues httpRequestRawResponse(HttpClientPool pool, URI uri, int timeoutInSeconds,
+                                                      HttpMethod method, Map<String, String> headers,
+                                                      String bodyContent) {
+        return httpRequestRawResponse(pool, uri, timeoutInSeconds, method, headers, bodyContent, true);
+    }
+
+    /**
+     * Makes an http request using the connections of the given pool and returns the response.
+     */
+    public static HttpResponseValues httpRequestRawResponse(HttpClientPool pool, URI uri, int timeoutInSeconds,
+                                                      HttpMethod method, Map<String, String> headers,
+                                                      String bodyContent, boolean allowRedirects) {
+        HttpUriRequest httpUriRequest = buildRequest(uri, timeoutInSeconds, method, headers, bodyContent);
+        CloseableHttpClient httpClient = pool.getClient(allowRedirects);
+
+        try  {
+            // Extract required information from the response and return to caller. The connection is returned to the
+            // pool once complete.
+            return httpClient.execute(httpUriRequest, new HttpResponseHandler(httpUriRequest));
+        } catch (HttpTimeoutException e) {
+            LOG.error("Request to {} timed out after {} seconds.", uri, timeoutInSeconds, e);
+        } catch (IOException e) {
+            BugsnagReporter.reportErrorToBugsnag("Error requesting data from URI", uri, e);
+        }
+        return null;
+    }
+
+    /**
+     * Makes an http request using the connections of the given pool (following redirects if triggered) and returns the
+     * response once its headers are received, without reading the response body. The response must be closed by the
+     * caller once the body is read.
+     * @return the response, or null if the request failed.
+     */
+    public static HttpStreamingResponse httpRequestStreamingResponse(HttpClientPool pool, URI uri,
+                                                                     int timeoutInSeconds, HttpMethod method,
+                                                                     Map<String, String> headers,
+                                                                     String bodyContent) {
+        HttpUriRequest httpUriRequest = buildRequest(uri, timeoutInSeconds, method, headers, bodyContent);
+        try {
+            return new HttpStreamingResponse(pool.getClient(true).execute(httpUriRequest));
+        } catch (IOException e) {
+            BugsnagReporter.reportErrorToBugsnag("Error requesting data from URI", uri, e);
+        }
+        return null;
+    }
+
+    /**
+     * Builds a request with the given method, headers, body and timeout.
+     */
+    private static HttpUriRequest buildRequest(URI uri, int timeoutInSeconds, HttpMethod method,
+                                               Map<String, String> headers, String bodyContent) {
         int timeoutInMilliSeconds = timeoutInSeconds * 1000;
         RequestConfig timeoutConfig = RequestConfig.custom()
             .setConnectionRequestTimeout(timeoutInMilliSeconds)
@@ -137,20 +202,7 @@ public class HttpUtils {
                 httpUriRequest.setHeader(e.getKey(), e.getValue());
             }
         }
-
-        CloseableHttpClient httpClient = allowRedirects
-            ? HttpClientBuilder.create().build()
-            : HttpClientBuilder.create().disableRedirectHandling().build();
-
-        try  {
-            // Extract required information from the response and return to caller. The connection is closed once complete.
-            return httpClient.execute(httpUriRequest, new HttpResponseHandler(httpUriRequest));
-        } catch (HttpTimeoutException e) {
-            LOG.error("Request to {} timed out after {} seconds.", uri, timeoutInSeconds, e);
-        } catch (IOException e) {
-            BugsnagReporter.reportErrorToBugsnag("Error requesting data from URI", uri, e);
-        }
-        return null;
+        return httpUriRequest;
     }
 
     /**
@@ -0,0 +1,200 @@
+package org.opentripplanner.middleware.utils;
+
+import org.apache.commons.lang3.StringUtils;
+import org.opentripplanner.middleware.otp.response.Itinerary;
+import org.opentripplanner.middleware.otp.response.Leg;
+import org.opentripplanner.middleware.otp.response.OtpResponse;
+import org.opentripplanner.middleware.otp.response.Place;
+
+import java.time.Instant;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * A compact structural summary of a reference itinerary, used to reject candidate itineraries that cannot match it
+ * according to {@link ItineraryUtils#itinerariesMatch} without running the full comparison. Whether this saves time
+ * over the full comparison alone depends on the responses compared, see ItineraryFingerprintBenchmark.
+ *
+ * The fingerprint is a hash of the leg count and, for each transit leg of the reference itinerary, of the leg fields
+ * that {@link ItineraryUtils#itinerariesMatch} requires to be equal: mode, interlining, from/to stop names, agency and
+ * route names, headsign (case-insensitively for names), and scheduled start/end times of day. Fields that the full
+ * comparison ignores for the reference itinerary (e.g. an empty agency name) are left out of the fingerprint, so the
+ * candidate hash is computed with the same selection of fields. Two itineraries that match always have the same
+ * fingerprint, so a different hash means that the candidate does not match.
+ *
+ * The field hashes of candidate legs are kept with the legs (see {@link Leg#getFingerprintFieldHashes}), so that the
+ * candidates of an OTP response shared by several checks (e.g. by the trips of a monitoring cycle that make the same
+ * plan request) are only hashed once, see {@link #hashCandidateFields}.
+ */
+public class ItineraryFingerprint {
+    // Indexes of the field hashes of a leg.
+    private static final int MODE = 0;
+    private static final int INTERLINE = 1;
+    private static final int FROM = 2;
+    private static final int TO = 3;
+    private static final int AGENCY = 4;
+    private static final int ROUTE_LONG_NAME = 5;
+    private static final int ROUTE_SHORT_NAME = 6;
+    private static final int HEADSIGN = 7;
+    private static final int START_TIME = 8;
+    private static final int END_TIME = 9;
+    private static final int FIELD_COUNT = 10;
+
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private final Itinerary referenceItinerary;
+
+    private final ZoneRules otpZoneRules;
+
+    /**
+     * For each leg of the reference itinerary, the indexes of the field hashes to compare, or null for non-transit
+     * legs, which are not compared.
+     */
+    private final int[][] comparedFields;
+
+    private final int referenceHash;
+
+    public ItineraryFingerprint(Itinerary referenceItinerary) {
+        this.referenceItinerary = referenceItinerary;
+        this.otpZoneRules = DateTimeUtils.getOtpZoneId().getRules();
+        this.comparedFields = referenceItinerary.legs == null ? null : getComparedFields(referenceItinerary);
+        // The reference itinerary (e.g. the itinerary of a trip) may still be modified, so its hashes are not kept.
+        this.referenceHash = referenceItinerary.legs == null ? 0 : hash(referenceItinerary, false);
+    }
+
+    /**
+     * @return true if the candidate itinerary matches the reference itinerary for the purposes of trip monitoring. This
+     * is the same as {@link ItineraryUtils#itinerariesMatch} with the reference itinerary.
+     */
+    public boolean matches(Itinerary candidateItinerary) {
+        return mayMatch(candidateItinerary) &&
+            ItineraryUtils.itinerariesMatch(referenceItinerary, candidateItinerary);
+    }
+
+    /**
+     * @return false if the candidate itinerary cannot match the reference itinerary, true if it might.
+     */
+    public boolean mayMatch(Itinerary candidateItinerary) {
+        // Leave unusual itineraries to the full comparison.
+        if (referenceItinerary.legs == null || candidateItinerary.legs == null) return true;
+        return referenceItinerary.legs.size() == candidateItinerary.legs.size() &&
+            hash(candidateItinerary, true) == referenceHash;
+    }
+
+    /**
+     * Hashes the compared fields of the legs of the itineraries of the given response ahead of time, so that the copies
+     * of the response (see {@link OtpResponse#copyWithItineraries}) share the hashes instead of each computing them.
+     */
+    public static void hashCandidateFields(OtpResponse response) {
+        if (response == null || response.plan == null || response.plan.itineraries == null) return;
+        ZoneRules otpZoneRules = DateTimeUtils.getOtpZoneId().getRules();
+        for (Itinerary itinerary : response.plan.itineraries) {
+            if (itinerary.legs == null) continue;
+            for (Leg leg : itinerary.legs) {
+                leg.getFingerprintFieldHashes(otpZoneRules);
+            }
+        }
+    }
+
+    /**
+     * @return for each leg of the reference itinerary, the fields that {@link ItineraryUtils#itinerariesMatch}
+     * compares.
+     */
+    private static int[][] getComparedFields(Itinerary referenceItinerary) {
+        int[][] comparedFields = new int[referenceItinerary.legs.size()][];
+        for (int i = 0; i < referenceItinerary.legs.size(); i++) {
+            Leg referenceLeg = referenceItinerary.legs.get(i);
+            if (!Boolean.TRUE.equals(referenceLeg.transitLeg)) continue;
+            int[] fields = new int[FIELD_COUNT];
+            int fieldCount = 0;
+            if (referenceLeg.mode != null) fields[fieldCount++] = MODE;
+            fields[fieldCount++] = INTERLINE;
+            fields[fieldCount++] = FROM;
+            fields[fieldCount++] = TO;
+            if (referenceLeg.agency != null && StringUtils.isNotEmpty(referenceLeg.agency.name)) {
+                fields[fieldCount++] = AGENCY;
+            }
+            if (referenceLeg.route != null) {
+                if (StringUtils.isNotEmpty(referenceLeg.route.longName)) fields[fieldCount++] = ROUTE_LONG_NAME;
+                if (StringUtils.isNotEmpty(referenceLeg.route.shortName)) fields[fieldCount++] = ROUTE_SHORT_NAME;
+            }
+            if (StringUtils.isNotEmpty(referenceLeg.headsign)) fields[fieldCount++] = HEADSIGN;
+            fields[fieldCount++] = START_TIME;
+            fields[fieldCount++] = END_TIME;
+            comparedFields[i] = Arrays.copyOf(fields, fieldCount);
+        }
+        return comparedFields;
+    }
+
+    /**
+     * Hashes the fields of the given itinerary (which has as many legs as the reference itinerary) that are compared
+     * against the reference itinerary.
+     * @param useLegHashes whether to use (and keep) the field hashes kept with the legs of the itinerary.
+     */
+    private int hash(Itinerary itinerary, boolean useLegHashes) {
+        int hash = itinerary.legs.size();
+        for (int i = 0; i < itinerary.legs.size(); i++) {
+            int[] fields = comparedFields[i];
+            if (fields == null) continue;
+            Leg leg = itinerary.legs.get(i);
+            int[] fieldHashes = useLegHashes
+                ? leg.getFingerprintFieldHashes(otpZoneRules)
+                : hashFields(leg, otpZoneRules);
+            for (int field : fields) {
+                hash = 31 * hash + fieldHashes[field];
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return the hashes of the fields of the given leg that may be compared against a reference itinerary, by field
+     * index. Names are hashed case-insensitively, and times are hashed as scheduled seconds of the day in the OTP time
+     * zone.
+     */
+    public static int[] hashFields(Leg leg, ZoneRules otpZoneRules) {
+        int[] fieldHashes = new int[FIELD_COUNT];
+        fieldHashes[MODE] = Objects.hashCode(leg.mode);
+        fieldHashes[INTERLINE] = Objects.hashCode(leg.interlineWithPreviousLeg);
+        fieldHashes[FROM] = hashPlaceName(leg.from);
+        fieldHashes[TO] = hashPlaceName(leg.to);
+        fieldHashes[AGENCY] = leg.agency == null ? -1 : hashIgnoreCase(leg.agency.name);
+        fieldHashes[ROUTE_LONG_NAME] = leg.route == null ? -1 : hashIgnoreCase(leg.route.longName);
+        fieldHashes[ROUTE_SHORT_NAME] = leg.route == null ? -1 : hashIgnoreCase(leg.route.shortName);
+        fieldHashes[HEADSIGN] = hashIgnoreCase(leg.headsign);
+        fieldHashes[START_TIME] = scheduledSecondOfDay(leg.startTime, leg.departureDelay, otpZoneRules);
+        fieldHashes[END_TIME] = scheduledSecondOfDay(leg.endTime, leg.arrivalDelay, otpZoneRules);
+        return fieldHashes;
+    }
+
+    private static int hashPlaceName(Place place) {
+        return place == null ? -1 : hashIgnoreCase(place.name);
+    }
+
+    /**
+     * @return a hash code that is the same for strings that are equal ignoring case (see
+     * {@link String#equalsIgnoreCase}), and that differs between a null and an empty string.
+     */
+    private static int hashIgnoreCase(String value) {
+        if (value == null) return 0;
+        int hash = 1;
+        for (int i = 0; i < value.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(value.charAt(i)));
+        }
+        return hash;
+    }
+
+    /**
+     * @return the second of the day, in the OTP time zone, of the given time minus the given delay (i.e. the same as
+     * {@link Leg#getScheduledStartTime} followed by {@link java.time.LocalTime#toSecondOfDay}), computed from the epoch
+     * second without creating a {@link java.time.ZonedDateTime}.
+     */
+    private static int scheduledSecondOfDay(Date time, Integer delaySeconds, ZoneRules otpZoneRules) {
+        if (time == null) return -1;
+        long epochSecond = Math.floorDiv(time.getTime(), 1000) - (delaySeconds == null ? 0 : delaySeconds);
+        int offsetSeconds = otpZoneRules.getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+        return (int) Math.floorMod(epochSecond + offsetSeconds, (long) SECONDS_PER_DAY);
+    }
+}
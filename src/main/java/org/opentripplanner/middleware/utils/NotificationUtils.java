@@ -93,7 +93,7 @@ public class NotificationUtils {
      * @param tripId    Monitored trip ID
      * @return          "OK" if message was successful (null otherwise)
      */
-    static String sendPush(String toUser, String body, String tripName, String tripId) {
+    public static String sendPush(String toUser, String body, String tripName, String tripId) {
         try {
             NotificationInfo notifInfo = new NotificationInfo(
                 toUser,
@@ -103,6 +103,7 @@ public class NotificationUtils {
             );
             var jsonBody = new Gson().toJson(notifInfo);
             var httpResponse = HttpUtils.httpRequestRawResponse(
+                HttpClientPool.NOTIFICATIONS,
                 URI.create(PUSH_API_URL + "/notification/publish?api_key=" + PUSH_API_KEY),
                 1000,
                 HttpMethod.POST,
@@ -262,6 +263,20 @@ public class NotificationUtils {
         return sendEmail(OTP_ADMIN_DASHBOARD_FROM_EMAIL, adminUser.email, subject, textTemplate, htmlTemplate, templateData);
     }
 
+    /**
+     * Send an already rendered notification email to the provided address, from {@link #FROM_EMAIL}.
+     */
+    public static boolean sendRenderedEmail(String toEmail, String subject, String text, String html) {
+        return sendEmailViaSparkpost(FROM_EMAIL, toEmail, subject, text, html);
+    }
+
+    /**
+     * @return true if the Push API config properties are set.
+     */
+    public static boolean isPushConfigured() {
+        return PUSH_API_KEY != null && PUSH_API_URL != null;
+    }
+
     /**
      * Send templated email using SparkPost.
      * @param fromEmail     from email address
@@ -341,6 +356,7 @@ public class NotificationUtils {
         try {
             Map<String, String> headers = Map.of("Accept", "application/json");
             var httpResponse = HttpUtils.httpRequestRawResponse(
+                HttpClientPool.NOTIFICATIONS,
                 URI.create(getPushDevicesUrl(String.format(
                     "%s/devices/get?api_key=%s&user=",
                     PUSH_API_URL,
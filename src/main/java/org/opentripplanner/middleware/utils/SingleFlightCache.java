@@ -0,0 +1,60 @@
+package org.opentripplanner.middleware.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A cache that computes the value for a given key at most once: concurrent requests for a key that is being computed
+ * wait for and share the result of the computation in progress, and subsequent requests get the computed value. Null
+ * results and exceptions are handed to the concurrent requests but are not retained, so that later requests for the
+ * same key compute the value again.
+ *
+ * There is no eviction, so instances should have a bounded lifetime (e.g. one run of a job).
+ */
+public class SingleFlightCache<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> values = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get the value for the given key, computing it with the provided loader if no other request has computed or is
+     * computing it.
+     */
+    public V get(K key, Supplier<V> loader) {
+        CompletableFuture<V> newValue = new CompletableFuture<>();
+        CompletableFuture<V> existingValue = values.putIfAbsent(key, newValue);
+        if (existingValue != null) {
+            hits.incrementAndGet();
+            return existingValue.join();
+        }
+        misses.incrementAndGet();
+        try {
+            V value = loader.get();
+            if (value == null) values.remove(key, newValue);
+            newValue.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            values.remove(key, newValue);
+            newValue.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of requests that were served by an existing or in-progress computation.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of requests that resulted in a computation.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,150 @@
+package org.opentripplanner.middleware.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread-safe cache whose entries expire a fixed time after they are added, and whose total weight (e.g. the
+ * approximate size of the cached values) is bounded: when adding an entry exceeds the maximum weight, the least recently
+ * used entries are evicted. Values heavier than the maximum weight are not cached.
+ */
+public class TtlCache<K, V> {
+    private final long maxWeight;
+
+    private final long ttlMillis;
+
+    private final ToLongFunction<V> weigher;
+
+    private final LongSupplier clockMillis;
+
+    /** Entries in access order, from least to most recently used. */
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalWeight;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * @param maxWeight the maximum total weight of the cached values.
+     * @param ttlMillis how long entries are kept after they are added.
+     * @param weigher computes the weight of a value, which should be roughly proportional to its size in memory.
+     */
+    public TtlCache(long maxWeight, long ttlMillis, ToLongFunction<V> weigher) {
+        this(maxWeight, ttlMillis, weigher, System::currentTimeMillis);
+    }
+
+    TtlCache(long maxWeight, long ttlMillis, ToLongFunction<V> weigher, LongSupplier clockMillis) {
+        this.maxWeight = maxWeight;
+        this.ttlMillis = ttlMillis;
+        this.weigher = weigher;
+        this.clockMillis = clockMillis;
+    }
+
+    /**
+     * @return the value cached for the given key, or null if there is none or it has expired.
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.expiresAtMillis <= clockMillis.getAsLong()) {
+            remove(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Adds or replaces the value for the given key, evicting expired and least recently used entries if needed to stay
+     * within the maximum weight.
+     */
+    public synchronized void put(K key, V value) {
+        Entry<V> previousEntry = entries.remove(key);
+        if (previousEntry != null) totalWeight -= previousEntry.weight;
+        long weight = Math.max(1, weigher.applyAsLong(value));
+        if (weight > maxWeight) return;
+        long nowMillis = clockMillis.getAsLong();
+        entries.put(key, new Entry<>(value, weight, nowMillis + ttlMillis));
+        totalWeight += weight;
+        if (totalWeight > maxWeight) evict(nowMillis);
+    }
+
+    /**
+     * Removes expired entries, then the least recently used entries until the maximum weight is no longer exceeded.
+     */
+    private void evict(long nowMillis) {
+        entries.values().removeIf(entry -> {
+            if (entry.expiresAtMillis > nowMillis) return false;
+            totalWeight -= entry.weight;
+            return true;
+        });
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (totalWeight > maxWeight && iterator.hasNext()) {
+            totalWeight -= iterator.next().weight;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes the value cached for the given key, if any.
+     */
+    public synchronized void remove(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null) remove(key, entry);
+    }
+
+    private void remove(K key, Entry<V> entry) {
+        entries.remove(key);
+        totalWeight -= entry.weight;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalWeight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalWeight() {
+        return totalWeight;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of entries removed to stay within the maximum weight (not counting expired entries).
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long weight;
+        private final long expiresAtMillis;
+
+        private Entry(V value, long weight, long expiresAtMillis) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
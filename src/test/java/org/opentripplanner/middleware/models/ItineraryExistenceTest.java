@@ -0,0 +1,229 @@
+package org.opentripplanner.middleware.models;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.otp.OtpGraphQLVariables;
+import org.opentripplanner.middleware.otp.OtpRequest;
+import org.opentripplanner.middleware.otp.response.OtpResponse;
+import org.opentripplanner.middleware.otp.response.PlannerError;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+import org.opentripplanner.middleware.utils.DateTimeUtils;
+import org.opentripplanner.middleware.utils.TtlCache;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.opentripplanner.middleware.utils.ItineraryUtilsTest.MONITORED_TRIP_DATES;
+import static org.opentripplanner.middleware.utils.ItineraryUtilsTest.getMockDatedOtpResponses;
+
+/**
+ * Tests the concurrent OTP requests of itinerary existence checks, and the caching of their responses.
+ */
+public class ItineraryExistenceTest extends OtpMiddlewareTestEnvironment {
+    private static final String THURSDAY = MONITORED_TRIP_DATES.get(0);
+    private static final String FRIDAY = MONITORED_TRIP_DATES.get(1);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(MONITORED_TRIP_DATES.size());
+
+    /** Mock OTP responses by date. */
+    private final Map<LocalDate, OtpResponse> mockResponses = new HashMap<>();
+
+    private final List<OtpRequest> otpRequests = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        List<OtpResponse> responses = getMockDatedOtpResponses(MONITORED_TRIP_DATES);
+        for (int i = 0; i < MONITORED_TRIP_DATES.size(); i++) {
+            LocalDate date = LocalDate.parse(MONITORED_TRIP_DATES.get(i));
+            mockResponses.put(date, responses.get(i));
+            otpRequests.add(new OtpRequest(
+                ZonedDateTime.of(date, LocalTime.of(11, 23), DateTimeUtils.getOtpZoneId()),
+                new OtpGraphQLVariables()
+            ));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldProcessResponsesInOrderOfRequests() {
+        // The response for the first date is received last.
+        CountDownLatch otherResponsesLatch = new CountDownLatch(MONITORED_TRIP_DATES.size() - 1);
+        MonitoredTrip trip = checkExistence(otpRequest -> {
+            if (isOn(otpRequest, THURSDAY)) {
+                await(otherResponsesLatch);
+            } else {
+                otherResponsesLatch.countDown();
+            }
+            return mockResponses.get(otpRequest.dateTime.toLocalDate());
+        }, 5000);
+
+        ItineraryExistence existence = trip.itineraryExistence;
+        assertFalse(existence.error);
+        assertTrue(existence.allMonitoredDaysAreValid(trip));
+        assertTrue(existence.thursday.validDates.contains(THURSDAY));
+        assertTrue(existence.friday.validDates.contains(FRIDAY));
+    }
+
+    @Test
+    void shouldReportTimedOutDates() {
+        MonitoredTrip trip = checkExistence(otpRequest -> {
+            if (isOn(otpRequest, FRIDAY)) await(new CountDownLatch(1));
+            return mockResponses.get(otpRequest.dateTime.toLocalDate());
+        }, 500);
+
+        assertUnchecked(trip.itineraryExistence, FRIDAY);
+        assertTrue(trip.itineraryExistence.thursday.isValid());
+        assertFalse(trip.itineraryExistence.friday.isValid());
+    }
+
+    @Test
+    void shouldReportFailedDates() {
+        MonitoredTrip trip = checkExistence(otpRequest -> {
+            if (isOn(otpRequest, THURSDAY)) throw new IllegalStateException("OTP request failed");
+            return mockResponses.get(otpRequest.dateTime.toLocalDate());
+        }, 5000);
+
+        assertUnchecked(trip.itineraryExistence, THURSDAY);
+        assertFalse(trip.itineraryExistence.thursday.isValid());
+        assertTrue(trip.itineraryExistence.friday.isValid());
+    }
+
+    @Test
+    void shouldReuseCachedResponses() {
+        TtlCache<String, OtpResponse> responseCache = new TtlCache<>(100, 60_000, response -> 1);
+        AtomicInteger otpRequestCount = new AtomicInteger();
+        Function<OtpRequest, OtpResponse> otpRequester = otpRequest -> {
+            otpRequestCount.incrementAndGet();
+            return getPlanResponse();
+        };
+
+        ItineraryExistence.getOtpResponse(otpRequests.get(0), responseCache, otpRequester);
+        ItineraryExistence.getOtpResponse(otpRequests.get(0), responseCache, otpRequester);
+        assertEquals(1, otpRequestCount.get());
+
+        // Requests for other dates are not served from the cache.
+        ItineraryExistence.getOtpResponse(otpRequests.get(1), responseCache, otpRequester);
+        assertEquals(2, otpRequestCount.get());
+    }
+
+    @Test
+    void shouldNotCacheResponsesWithoutPlanOrWithErrors() {
+        OtpResponse responseWithoutPlan = new OtpResponse();
+        OtpResponse responseWithError = getPlanResponse();
+        responseWithError.error = new PlannerError();
+        for (OtpResponse otpResponse : Arrays.asList(null, responseWithoutPlan, responseWithError)) {
+            TtlCache<String, OtpResponse> responseCache = new TtlCache<>(100, 60_000, response -> 1);
+            AtomicInteger otpRequestCount = new AtomicInteger();
+            Function<OtpRequest, OtpResponse> otpRequester = otpRequest -> {
+                otpRequestCount.incrementAndGet();
+                return otpResponse;
+            };
+
+            ItineraryExistence.getOtpResponse(otpRequests.get(0), responseCache, otpRequester);
+            ItineraryExistence.getOtpResponse(otpRequests.get(0), responseCache, otpRequester);
+            assertEquals(2, otpRequestCount.get());
+            assertEquals(0, responseCache.size());
+        }
+    }
+
+    @Test
+    void shouldReturnCopiesOfCachedResponses() {
+        TtlCache<String, OtpResponse> responseCache = new TtlCache<>(100, 60_000, response -> 1);
+        OtpResponse otpResponse = getPlanResponse();
+        Date startTime = otpResponse.plan.itineraries.get(0).startTime;
+
+        OtpResponse firstResponse = ItineraryExistence.getOtpResponse(
+            otpRequests.get(0),
+            responseCache,
+            otpRequest -> otpResponse
+        );
+        assertNotSame(otpResponse, firstResponse);
+        firstResponse.plan.itineraries.get(0).offsetTimes(60_000);
+
+        OtpResponse secondResponse = ItineraryExistence.getOtpResponse(
+            otpRequests.get(0),
+            responseCache,
+            otpRequest -> getPlanResponse()
+        );
+        assertNotSame(firstResponse, secondResponse);
+        assertEquals(startTime, secondResponse.plan.itineraries.get(0).startTime);
+    }
+
+    /**
+     * Checks the existence of a trip, monitored on all days, whose itinerary is the mock itinerary, with the given
+     * OTP response provider called concurrently.
+     */
+    private MonitoredTrip checkExistence(Function<OtpRequest, OtpResponse> otpResponseProvider, long timeoutMillis) {
+        MonitoredTrip trip = new MonitoredTrip();
+        trip.monday = true;
+        trip.tuesday = true;
+        trip.wednesday = true;
+        trip.thursday = true;
+        trip.friday = true;
+        trip.saturday = true;
+        trip.sunday = true;
+        trip.itinerary = mockResponses.get(LocalDate.parse(THURSDAY)).plan.itineraries.get(0);
+        trip.itineraryExistence = new ItineraryExistence(
+            otpRequests,
+            trip.itinerary,
+            false,
+            otpResponseProvider,
+            executor,
+            timeoutMillis
+        );
+        trip.itineraryExistence.checkExistence(trip);
+        return trip;
+    }
+
+    private static OtpResponse getPlanResponse() {
+        try {
+            return OtpTestUtils.OTP2_DISPATCHER_PLAN_RESPONSE.getResponse();
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void assertUnchecked(ItineraryExistence existence, String date) {
+        assertTrue(existence.error);
+        assertEquals(
+            "The trip could not be checked on the following dates, please try again later: " + date,
+            existence.message
+        );
+    }
+
+    private static boolean isOn(OtpRequest otpRequest, String date) {
+        return otpRequest.dateTime.toLocalDate().equals(LocalDate.parse(date));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
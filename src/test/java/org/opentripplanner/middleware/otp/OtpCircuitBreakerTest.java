@@ -0,0 +1,45 @@
+package org.opentripplanner.middleware.otp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OtpCircuitBreakerTest {
+    @Test
+    void shouldOpenAfterConsecutiveFailures() {
+        OtpCircuitBreaker breaker = new OtpCircuitBreaker(3, 60_000);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(OtpCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertEquals(OtpCircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    void shouldAllowSingleTrialRequestWhenHalfOpen() {
+        OtpCircuitBreaker breaker = new OtpCircuitBreaker(1, 0);
+        breaker.recordFailure();
+        assertEquals(OtpCircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        // A failed trial request opens the breaker again.
+        breaker.recordFailure();
+        assertTrue(breaker.allowRequest());
+        // A successful trial request closes the breaker.
+        breaker.recordSuccess();
+        assertEquals(OtpCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+}
@@ -0,0 +1,47 @@
+package org.opentripplanner.middleware.otp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OtpConcurrencyLimiterTest {
+    @Test
+    void shouldRejectRequestsOverLimit() {
+        OtpConcurrencyLimiter limiter = new OtpConcurrencyLimiter("test", 2, 10);
+        assertTrue(limiter.acquire());
+        assertTrue(limiter.acquire());
+        assertFalse(limiter.acquire());
+        assertEquals(2, limiter.getInFlight());
+
+        limiter.release(100, true);
+        assertTrue(limiter.acquire());
+    }
+
+    @Test
+    void shouldBackOffWhenRequestsFailAndRecoverWhenTheySucceed() {
+        OtpConcurrencyLimiter limiter = new OtpConcurrencyLimiter("test", 10, 10);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.acquire());
+            limiter.release(100, false);
+        }
+        assertEquals(1, limiter.getLimit());
+
+        // The limit grows while requests fill it and complete quickly.
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.acquire());
+            limiter.release(100, true);
+        }
+        assertTrue(limiter.getLimit() > 1);
+        assertTrue(limiter.getLimit() <= 10);
+    }
+
+    @Test
+    void shouldBackOffWhenRequestsAreSlow() {
+        OtpConcurrencyLimiter limiter = new OtpConcurrencyLimiter("test", 10, 10);
+        assertTrue(limiter.acquire());
+        limiter.release(60_000, true);
+        assertEquals(9, limiter.getLimit());
+    }
+}
@@ -0,0 +1,69 @@
+package org.opentripplanner.middleware.otp;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OtpDispatcherTest {
+    private final OtpConcurrencyLimiter limiter = new OtpConcurrencyLimiter("test", 10, 10);
+
+    @Test
+    void shouldNotShrinkLimitWhileCircuitBreakerRejectsRequests() throws InterruptedException {
+        OtpCircuitBreaker circuitBreaker = new OtpCircuitBreaker(3, 100);
+
+        // OTP goes down.
+        for (int i = 0; i < 3; i++) {
+            int status = send(circuitBreaker, () -> HttpStatus.INTERNAL_SERVER_ERROR_500);
+            assertEquals(HttpStatus.INTERNAL_SERVER_ERROR_500, status);
+        }
+        int limitAfterFailures = limiter.getLimit();
+        assertEquals(7, limitAfterFailures);
+
+        // Requests are rejected without calling OTP, which does not affect the limit.
+        for (int i = 0; i < 100; i++) {
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE_503, send(circuitBreaker, () -> HttpStatus.OK_200));
+        }
+        assertEquals(limitAfterFailures, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+
+        // OTP recovers, and the trial request closes the breaker.
+        Thread.sleep(150);
+        assertEquals(HttpStatus.OK_200, send(circuitBreaker, () -> HttpStatus.OK_200));
+        assertEquals(OtpCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(limitAfterFailures, limiter.getLimit());
+    }
+
+    @Test
+    void shouldRecordFailureWhenRequestThrows() {
+        OtpCircuitBreaker circuitBreaker = new OtpCircuitBreaker(1, 0);
+        circuitBreaker.recordFailure();
+        assertEquals(OtpCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        // The trial request fails with an exception, after which another trial request is allowed.
+        assertThrows(IllegalArgumentException.class, () -> send(circuitBreaker, () -> {
+            throw new IllegalArgumentException("Invalid request");
+        }));
+        assertFalse(circuitBreaker.isOpen());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(HttpStatus.OK_200, send(circuitBreaker, () -> HttpStatus.OK_200));
+        assertEquals(OtpCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    /**
+     * Sends a request to a fake OTP that responds with the given status.
+     */
+    private int send(OtpCircuitBreaker circuitBreaker, Supplier<Integer> otpStatus) {
+        return OtpDispatcher.sendGuardedOtpRequest(
+            limiter,
+            circuitBreaker,
+            otpStatus,
+            status -> status,
+            rejectionBody -> HttpStatus.SERVICE_UNAVAILABLE_503
+        );
+    }
+}
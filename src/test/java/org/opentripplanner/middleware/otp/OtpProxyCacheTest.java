@@ -0,0 +1,100 @@
+package org.opentripplanner.middleware.otp;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OtpProxyCacheTest {
+    private static final String ROUTES_KEY = "/routers/default/index/routes";
+
+    private final AtomicLong nowMillis = new AtomicLong(1_000_000);
+
+    private final OtpProxyCache cache = new OtpProxyCache(
+        ".*/index/routes(/.*)?",
+        60_000,
+        100,
+        1000,
+        nowMillis::get
+    );
+
+    /** The headers of the requests sent to OTP. */
+    private final List<Map<String, String>> otpRequests = new ArrayList<>();
+
+    @Test
+    void shouldOnlyCacheMatchingPaths() {
+        assertTrue(cache.isCacheable(ROUTES_KEY));
+        assertTrue(cache.isCacheable("/routers/default/index/routes/1:100"));
+        assertFalse(cache.isCacheable("/routers/default/plan"));
+        assertFalse(new OtpProxyCache("", 60_000, 100, 1000, nowMillis::get).isCacheable(ROUTES_KEY));
+    }
+
+    @Test
+    void shouldServeFreshResponsesFromCache() {
+        assertEquals("routes", getRoutes(response(HttpStatus.OK_200, "routes")).responseBody);
+        nowMillis.addAndGet(30_000);
+        assertEquals("routes", getRoutes(response(HttpStatus.OK_200, "other routes")).responseBody);
+        assertEquals(1, otpRequests.size());
+    }
+
+    @Test
+    void shouldRevalidateStaleResponses() {
+        getRoutes(response(HttpStatus.OK_200, "routes", new BasicHeader("ETag", "\"v1\"")));
+        nowMillis.addAndGet(61_000);
+        OtpDispatcherResponse response = getRoutes(response(HttpStatus.NOT_MODIFIED_304, null));
+        assertEquals(HttpStatus.OK_200, response.statusCode);
+        assertEquals("routes", response.responseBody);
+        assertEquals(Map.of("If-None-Match", "\"v1\""), otpRequests.get(1));
+
+        // The revalidated response is fresh again.
+        nowMillis.addAndGet(30_000);
+        getRoutes(response(HttpStatus.OK_200, "other routes"));
+        assertEquals(2, otpRequests.size());
+        assertEquals(1L, cache.getStats().get("revalidatedCount"));
+    }
+
+    @Test
+    void shouldHonorCacheControlHeaders() {
+        getRoutes(response(HttpStatus.OK_200, "routes", new BasicHeader("Cache-Control", "no-store")));
+        getRoutes(response(HttpStatus.OK_200, "routes", new BasicHeader("Cache-Control", "public, max-age=10")));
+        nowMillis.addAndGet(5_000);
+        getRoutes(response(HttpStatus.OK_200, "other routes"));
+        assertEquals(2, otpRequests.size());
+        nowMillis.addAndGet(10_000);
+        assertEquals("other routes", getRoutes(response(HttpStatus.OK_200, "other routes")).responseBody);
+        assertEquals(3, otpRequests.size());
+    }
+
+    @Test
+    void shouldNotCacheErrorsOrLargeResponses() {
+        getRoutes(response(HttpStatus.INTERNAL_SERVER_ERROR_500, "error"));
+        getRoutes(response(HttpStatus.OK_200, "x".repeat(101)));
+        getRoutes(response(HttpStatus.OK_200, "routes"));
+        assertEquals(3, otpRequests.size());
+        assertEquals(0.0, cache.getStats().get("hitRate"));
+    }
+
+    private OtpDispatcherResponse getRoutes(OtpDispatcherResponse otpResponse) {
+        return cache.getResponse(ROUTES_KEY, headers -> {
+            otpRequests.add(headers);
+            return otpResponse;
+        });
+    }
+
+    private static OtpDispatcherResponse response(int statusCode, String body, Header... headers) {
+        OtpDispatcherResponse response = new OtpDispatcherResponse();
+        response.statusCode = statusCode;
+        response.responseBody = body;
+        response.headers = headers;
+        return response;
+    }
+}
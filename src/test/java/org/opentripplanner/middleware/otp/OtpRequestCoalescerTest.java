@@ -0,0 +1,110 @@
+package org.opentripplanner.middleware.otp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class OtpRequestCoalescerTest {
+    private static final String GRAPHQL_PATH = "/routers/default/index/graphql";
+
+    private final AtomicInteger otpRequestCount = new AtomicInteger();
+
+    private final CountDownLatch otpResponseLatch = new CountDownLatch(1);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldNormalizeRequestBodies() {
+        String body = "{\"query\": \"plan\", \"variables\": {\"a\": 1, \"b\": 2}}";
+        String reorderedBody = "{\"variables\":{\"b\":2,\"a\":1},\"query\":\"plan\"}";
+        assertEquals(
+            OtpRequestCoalescer.getKey(GRAPHQL_PATH, null, null, body),
+            OtpRequestCoalescer.getKey(GRAPHQL_PATH, null, null, reorderedBody)
+        );
+        assertNotEquals(
+            OtpRequestCoalescer.getKey(GRAPHQL_PATH, null, null, "{\"variables\":{\"a\":1}}"),
+            OtpRequestCoalescer.getKey(GRAPHQL_PATH, null, null, "{\"variables\":{\"a\":2}}")
+        );
+        assertNotEquals(
+            OtpRequestCoalescer.getKey(GRAPHQL_PATH, null, "en", "{}"),
+            OtpRequestCoalescer.getKey(GRAPHQL_PATH, null, "fr", "{}")
+        );
+    }
+
+    @Test
+    void shouldShareResponseOfInFlightRequest() throws Exception {
+        OtpRequestCoalescer coalescer = new OtpRequestCoalescer(true, 10);
+        CompletableFuture<OtpDispatcherResponse> firstResponse = getResponseAsync(coalescer, "{\"query\":\"plan\"}");
+        waitUntil(() -> otpRequestCount.get() == 1);
+        CompletableFuture<OtpDispatcherResponse> secondResponse =
+            getResponseAsync(coalescer, "{ \"query\": \"plan\" }");
+        // Give the second request time to start waiting for the first one.
+        Thread.sleep(100);
+
+        otpResponseLatch.countDown();
+        assertSame(firstResponse.get(5, TimeUnit.SECONDS), secondResponse.get(5, TimeUnit.SECONDS));
+        assertEquals(1, otpRequestCount.get());
+        assertEquals(1L, coalescer.getStats().get("coalescedCount"));
+        assertEquals(0, coalescer.getStats().get("inFlight"));
+    }
+
+    @Test
+    void shouldSendRequestsBeyondWaiterLimit() throws Exception {
+        OtpRequestCoalescer coalescer = new OtpRequestCoalescer(true, 0);
+        CompletableFuture<OtpDispatcherResponse> firstResponse = getResponseAsync(coalescer, "{\"query\":\"plan\"}");
+        waitUntil(() -> otpRequestCount.get() == 1);
+        CompletableFuture<OtpDispatcherResponse> secondResponse = getResponseAsync(coalescer, "{\"query\":\"plan\"}");
+        waitUntil(() -> otpRequestCount.get() == 2);
+
+        otpResponseLatch.countDown();
+        firstResponse.get(5, TimeUnit.SECONDS);
+        secondResponse.get(5, TimeUnit.SECONDS);
+        assertEquals(1L, coalescer.getStats().get("waiterLimitCount"));
+        assertEquals(0L, coalescer.getStats().get("coalescedCount"));
+    }
+
+    /**
+     * Requests the given body on another thread, from a fake OTP that responds once {@link #otpResponseLatch} is
+     * released.
+     */
+    private CompletableFuture<OtpDispatcherResponse> getResponseAsync(OtpRequestCoalescer coalescer, String body) {
+        return CompletableFuture.supplyAsync(() -> coalescer.getResponse(
+            OtpVersion.OTP2,
+            GRAPHQL_PATH,
+            null,
+            Map.of(),
+            body,
+            () -> {
+                otpRequestCount.incrementAndGet();
+                try {
+                    otpResponseLatch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new OtpDispatcherResponse();
+            }
+        ), executor);
+    }
+
+    private static void waitUntil(Supplier<Boolean> condition) throws InterruptedException {
+        long deadlineMillis = System.currentTimeMillis() + 5000;
+        while (!condition.get() && System.currentTimeMillis() < deadlineMillis) Thread.sleep(10);
+    }
+}
@@ -0,0 +1,84 @@
+package org.opentripplanner.middleware.tripmonitor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.exists;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Simulates several middleware nodes sharing the trip monitor partitions through {@link MonitoringLeaseManager}.
+ */
+public class MonitoringLeaseManagerTest extends OtpMiddlewareTestEnvironment {
+    private static final int PARTITION_COUNT = 8;
+    private static final long LEASE_DURATION_MILLIS = TimeUnit.MINUTES.toMillis(3);
+
+    @BeforeEach
+    @AfterEach
+    public void removeLeases() {
+        Persistence.monitoringLeases.removeFiltered(exists("_id"));
+    }
+
+    @Test
+    void canSplitPartitionsBetweenNodes() {
+        long now = System.currentTimeMillis();
+        MonitoringLeaseManager nodeA = new MonitoringLeaseManager("node-a", PARTITION_COUNT, LEASE_DURATION_MILLIS);
+        MonitoringLeaseManager nodeB = new MonitoringLeaseManager("node-b", PARTITION_COUNT, LEASE_DURATION_MILLIS);
+
+        // A single node holds all partitions.
+        assertEquals(PARTITION_COUNT, nodeA.updateLeases(now).size());
+        // A new node cannot claim partitions held by the first node...
+        assertEquals(0, nodeB.updateLeases(now).size());
+        // ...until the first node releases the partitions beyond its share on its next cycle.
+        Set<Integer> partitionsA = new HashSet<>(nodeA.updateLeases(now + 60000));
+        Set<Integer> partitionsB = new HashSet<>(nodeB.updateLeases(now + 60000));
+        assertEquals(PARTITION_COUNT / 2, partitionsA.size());
+        assertEquals(PARTITION_COUNT / 2, partitionsB.size());
+
+        // Both nodes together hold all partitions, and no partition is held by both nodes.
+        Set<Integer> allPartitions = new HashSet<>(partitionsA);
+        allPartitions.addAll(partitionsB);
+        assertEquals(PARTITION_COUNT, allPartitions.size());
+
+        // Exactly one node is responsible for a given trip.
+        String tripId = "trip-id";
+        assertTrue(nodeA.isResponsibleFor(tripId) ^ nodeB.isResponsibleFor(tripId));
+    }
+
+    @Test
+    void canReclaimPartitionsOfDeadNode() {
+        long now = System.currentTimeMillis();
+        MonitoringLeaseManager nodeA = new MonitoringLeaseManager("node-a", PARTITION_COUNT, LEASE_DURATION_MILLIS);
+        MonitoringLeaseManager nodeB = new MonitoringLeaseManager("node-b", PARTITION_COUNT, LEASE_DURATION_MILLIS);
+        nodeA.updateLeases(now);
+        nodeB.updateLeases(now);
+        nodeA.updateLeases(now + 60000);
+        assertEquals(PARTITION_COUNT / 2, nodeB.updateLeases(now + 60000).size());
+
+        // Node A stops renewing its leases. Before they expire, node B cannot claim them.
+        assertEquals(PARTITION_COUNT / 2, nodeB.updateLeases(now + 120000).size());
+        // After they expire, node B is the only live node and claims all partitions.
+        long afterExpiration = now + 60000 + LEASE_DURATION_MILLIS + 1;
+        assertEquals(PARTITION_COUNT, nodeB.updateLeases(afterExpiration).size());
+    }
+
+    @Test
+    void canReleaseAllLeases() {
+        MonitoringLeaseManager nodeA = new MonitoringLeaseManager("node-a", PARTITION_COUNT, LEASE_DURATION_MILLIS);
+        MonitoringLeaseManager nodeB = new MonitoringLeaseManager("node-b", PARTITION_COUNT, LEASE_DURATION_MILLIS);
+        long now = System.currentTimeMillis();
+        nodeA.updateLeases(now);
+        nodeA.releaseAll();
+        assertFalse(nodeA.isResponsibleFor("trip-id"));
+        assertEquals(PARTITION_COUNT, nodeB.updateLeases(now).size());
+    }
+}
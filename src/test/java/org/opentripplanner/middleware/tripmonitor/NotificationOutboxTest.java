@@ -0,0 +1,60 @@
+package org.opentripplanner.middleware.tripmonitor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.models.OtpUser;
+import org.opentripplanner.middleware.models.QueuedNotification;
+import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class NotificationOutboxTest extends OtpMiddlewareTestEnvironment {
+    private static final String TRIP_ID = "outbox-trip-id";
+
+    @BeforeEach
+    @AfterEach
+    public void removeQueuedNotifications() {
+        Persistence.queuedNotifications.removeFiltered(exists("_id"));
+    }
+
+    @Test
+    void shouldNotQueueSameNotificationTwice() {
+        OtpUser otpUser = new OtpUser();
+        otpUser.email = "outbox-user@example.com";
+
+        assertEquals(1, NotificationOutbox.enqueue(List.of(makeEmail(otpUser, "key-1"))));
+        // Repeating a trip check produces a notification with the same idempotency key.
+        assertEquals(2, NotificationOutbox.enqueue(List.of(makeEmail(otpUser, "key-1"), makeEmail(otpUser, "key-2"))));
+
+        assertEquals(2, Persistence.queuedNotifications.getCountFiltered(eq("tripId", TRIP_ID)));
+        assertEquals(2, NotificationOutbox.getQueueDepth());
+    }
+
+    @Test
+    void canBackOffRetries() {
+        assertEquals(TimeUnit.SECONDS.toMillis(30), NotificationOutbox.getRetryDelayMillis(1));
+        assertEquals(TimeUnit.SECONDS.toMillis(60), NotificationOutbox.getRetryDelayMillis(2));
+        assertEquals(TimeUnit.SECONDS.toMillis(120), NotificationOutbox.getRetryDelayMillis(3));
+        assertEquals(TimeUnit.HOURS.toMillis(1), NotificationOutbox.getRetryDelayMillis(50));
+    }
+
+    private static QueuedNotification makeEmail(OtpUser otpUser, String idempotencyKey) {
+        return new QueuedNotification(
+            QueuedNotification.Channel.EMAIL,
+            idempotencyKey,
+            otpUser,
+            TRIP_ID,
+            otpUser.email,
+            "Trip update",
+            "Your trip is delayed.",
+            "<p>Your trip is delayed.</p>"
+        );
+    }
+}
@@ -0,0 +1,80 @@
+package org.opentripplanner.middleware.tripmonitor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.models.MonitoredTrip;
+import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+import org.opentripplanner.middleware.testutils.PersistenceTestUtils;
+import org.opentripplanner.middleware.utils.JsonUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RealtimeChangeIngestionTest extends OtpMiddlewareTestEnvironment {
+    private final List<MonitoredTrip> trips = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        trips.forEach(PersistenceTestUtils::deleteMonitoredTrip);
+    }
+
+    @Test
+    void canGetAffectedEntitiesFromFeed() throws Exception {
+        RealtimeChangeFeed feed = JsonUtils.getPOJOFromJSON(
+            "{\"tripUpdates\": [{\"tripId\": \"F:1\", \"routeId\": \"F:10\"}], " +
+                "\"alerts\": [{\"informedEntities\": [{\"stopId\": \"F:100\"}], \"headerText\": \"Detour\"}]}",
+            RealtimeChangeFeed.class
+        );
+        List<RealtimeChangeFeed.AffectedEntity> entities = feed.getAffectedEntities();
+        assertEquals(2, entities.size());
+        assertEquals("F:1", entities.get(0).tripId);
+        assertEquals("F:100", entities.get(1).stopId);
+    }
+
+    @Test
+    void shouldRecheckActiveTripsOnAffectedRoutes() throws Exception {
+        MonitoredTrip activeTrip = createTripNotDueForCheck(true);
+        MonitoredTrip inactiveTrip = createTripNotDueForCheck(false);
+        String routeId = activeTrip.itinerary.legs.stream()
+            .filter(leg -> Boolean.TRUE.equals(leg.transitLeg))
+            .map(leg -> leg.route.gtfsId)
+            .findFirst()
+            .orElseThrow();
+
+        long startMillis = System.currentTimeMillis();
+        RealtimeChangeFeed unrelatedChanges = new RealtimeChangeFeed();
+        unrelatedChanges.tripUpdates.add(new RealtimeChangeFeed.AffectedEntity(null, "unknown-trip-id", null));
+        assertEquals(0, RealtimeChangeIngestion.enqueueAffectedTrips(unrelatedChanges));
+
+        RealtimeChangeFeed routeChanges = new RealtimeChangeFeed();
+        routeChanges.tripUpdates.add(new RealtimeChangeFeed.AffectedEntity(routeId, null, null));
+        assertTrue(RealtimeChangeIngestion.enqueueAffectedTrips(routeChanges) >= 1);
+
+        JourneyState activeJourneyState = Persistence.monitoredTrips.getById(activeTrip.id).journeyState;
+        assertTrue(activeJourneyState.nextCheckEpochMillis <= System.currentTimeMillis());
+        assertTrue(activeJourneyState.recheckRequestedEpochMillis >= startMillis);
+        JourneyState inactiveJourneyState = Persistence.monitoredTrips.getById(inactiveTrip.id).journeyState;
+        assertEquals(Long.MAX_VALUE, inactiveJourneyState.nextCheckEpochMillis);
+        assertEquals(0, inactiveJourneyState.recheckRequestedEpochMillis);
+    }
+
+    private MonitoredTrip createTripNotDueForCheck(boolean isActive) throws Exception {
+        JourneyState journeyState = new JourneyState();
+        journeyState.nextCheckEpochMillis = Long.MAX_VALUE;
+        MonitoredTrip trip = PersistenceTestUtils.createMonitoredTrip(
+            "realtime-change-user",
+            OtpTestUtils.OTP2_DISPATCHER_PLAN_RESPONSE.clone(),
+            false,
+            journeyState
+        );
+        trip.isActive = isActive;
+        Persistence.monitoredTrips.create(trip);
+        trips.add(trip);
+        return trip;
+    }
+}
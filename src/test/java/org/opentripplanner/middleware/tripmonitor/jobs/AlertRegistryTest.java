@@ -0,0 +1,43 @@
+package org.opentripplanner.middleware.tripmonitor.jobs;
+
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.otp.response.LocalizedAlert;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class AlertRegistryTest {
+    @Test
+    void canIdentifyEqualAlerts() {
+        AlertRegistry registry = new AlertRegistry();
+        int id = registry.getId(new LocalizedAlert("Detour", "Route 10 is detoured."));
+
+        assertEquals(id, registry.getId(new LocalizedAlert("Detour", "Route 10 is detoured.")));
+        assertNotEquals(id, registry.getId(new LocalizedAlert("Detour", "Route 12 is detoured.")));
+        assertEquals(2, registry.getAlertCount());
+    }
+
+    @Test
+    void canFindUnseenAndResolvedAlerts() {
+        AlertRegistry registry = new AlertRegistry();
+        LocalizedAlert remainingAlert = new LocalizedAlert("Remaining alert", "Remaining alert description");
+        LocalizedAlert resolvedAlert = new LocalizedAlert("Resolved alert", "Resolved alert description");
+        LocalizedAlert newAlert = new LocalizedAlert("New alert", "New alert description");
+
+        AlertRegistry.AlertDiff diff = registry.diff(
+            List.of(remainingAlert, resolvedAlert, new LocalizedAlert("Resolved alert", "Resolved alert description")),
+            List.of(new LocalizedAlert("Remaining alert", "Remaining alert description"), newAlert)
+        );
+
+        assertEquals(1, diff.unseenAlerts.size());
+        assertSame(newAlert, diff.unseenAlerts.get(0));
+        assertEquals(1, diff.resolvedAlerts.size());
+        assertSame(resolvedAlert, diff.resolvedAlerts.get(0));
+        assertEquals(2, diff.previousAlertCount);
+        // Only the current alerts are retained by the registry.
+        assertEquals(2, registry.getAlertCount());
+    }
+}
@@ -1,6 +1,7 @@
 package org.opentripplanner.middleware.tripmonitor.jobs;
 
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.opentripplanner.middleware.models.ItineraryExistence;
 import org.opentripplanner.middleware.models.MonitoredTrip;
@@ -15,6 +16,7 @@ import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoField;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -60,6 +62,41 @@ class CheckMonitoredTripBasicTest {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource("createNextCheckCases")
+    void canComputeNextCheckTime(
+        int tripStartOffsetMins,
+        int leadTimeInMinutes,
+        int lastCheckedOffsetMins,
+        TripStatus tripStatus,
+        long expectedNextCheckOffsetMins,
+        String message
+    ) {
+        long nowMillis = System.currentTimeMillis();
+        MonitoredTrip trip = makeMonitoredTripFromNow(tripStartOffsetMins * 60, tripStartOffsetMins * 60 + 600);
+        trip.leadTimeInMinutes = leadTimeInMinutes;
+        trip.journeyState.matchingItinerary = trip.itinerary;
+        trip.journeyState.lastCheckedEpochMillis = nowMillis + TimeUnit.MINUTES.toMillis(lastCheckedOffsetMins);
+        trip.journeyState.tripStatus = tripStatus;
+        long nextCheckMillis = CheckMonitoredTrip.computeNextCheckEpochMillis(trip, trip.journeyState, nowMillis);
+        assertEquals(
+            expectedNextCheckOffsetMins,
+            TimeUnit.MILLISECONDS.toMinutes(nextCheckMillis - nowMillis),
+            message
+        );
+    }
+
+    private static Stream<Arguments> createNextCheckCases() {
+        return Stream.of(
+            Arguments.of(120, 30, 0, TripStatus.TRIP_UPCOMING, 89, "Should check trip when it enters the lead time"),
+            Arguments.of(120, 180, -10, TripStatus.TRIP_UPCOMING, 50, "Should check trip hourly when over an hour away"),
+            Arguments.of(45, 90, -5, TripStatus.TRIP_UPCOMING, 10, "Should check trip every 15 minutes when within an hour"),
+            Arguments.of(20, 30, 0, TripStatus.TRIP_ACTIVE, 0, "Should check trip every minute when within 30 minutes"),
+            Arguments.of(20, 30, 0, TripStatus.NO_LONGER_POSSIBLE, 24 * 60, "Should defer trip that is no longer possible"),
+            Arguments.of(-30, 30, 0, TripStatus.TRIP_UPCOMING, 0, "Should check trip whose itinerary has concluded")
+        );
+    }
+
     /** Add the day-of-week of the itinerary start time as the recurring day, and the next day too. */
     static void setRecurringTodayAndTomorrow(MonitoredTrip trip) {
         DayOfWeek dayOfWeek = DayOfWeek.of(LocalDate.ofInstant(
@@ -15,6 +15,8 @@ import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
 import org.opentripplanner.middleware.testutils.OtpTestUtils;
 import org.opentripplanner.middleware.testutils.PersistenceTestUtils;
 import org.opentripplanner.middleware.tripmonitor.JourneyState;
+import org.opentripplanner.middleware.tripmonitor.RealtimeChangeFeed;
+import org.opentripplanner.middleware.tripmonitor.RealtimeChangeIngestion;
 import org.opentripplanner.middleware.models.MonitoredTrip;
 import org.opentripplanner.middleware.models.OtpUser;
 import org.opentripplanner.middleware.models.TripMonitorNotification;
@@ -717,6 +719,95 @@ public class CheckMonitoredTripTest extends OtpMiddlewareTestEnvironment {
         PersistenceTestUtils.deleteMonitoredTrip(monitoredTrip);
     }
 
+    @Test
+    void shouldDiscardCheckIfTripIsUpdatedDuringCheck() throws Exception {
+        MonitoredTrip monitoredTrip = PersistenceTestUtils.createMonitoredTrip(
+            user.id,
+            OtpTestUtils.OTP2_DISPATCHER_PLAN_RESPONSE.clone(),
+            false,
+            OtpTestUtils.createDefaultJourneyState()
+        );
+        monitoredTrip.itineraryExistence.monday = new ItineraryExistence.ItineraryExistenceResult();
+        Persistence.monitoredTrips.create(monitoredTrip);
+        TripStatus initialTripStatus = monitoredTrip.journeyState.tripStatus;
+
+        OtpResponse unexpectedResponse = getMockOtpResponse();
+        // Remove the final itinerary leg so that the matching itineraries check fails.
+        unexpectedResponse.plan.itineraries.get(0).legs.remove(2);
+
+        // Mock the current time to be 8:45am on Monday, June 15, 2020.
+        DateTimeUtils.useFixedClockAt(
+            noonMonday8June2020
+                .withDayOfMonth(15)
+                .withHour(8)
+                .withMinute(45)
+        );
+
+        // The user updates the trip while OTP is queried, and the itinerary is not found.
+        CheckMonitoredTrip checkMonitoredTrip = new CheckMonitoredTrip(monitoredTrip, () -> {
+            Persistence.monitoredTrips.updateField(monitoredTrip.id, "version", monitoredTrip.version + 1);
+            return unexpectedResponse;
+        }, true);
+        checkMonitoredTrip.run();
+
+        // The outdated check neither notifies the user nor changes the trip status.
+        assertTrue(checkMonitoredTrip.notifications.isEmpty());
+        assertEquals(-1, checkMonitoredTrip.notificationTimestampMillis);
+        MonitoredTrip savedTrip = Persistence.monitoredTrips.getById(monitoredTrip.id);
+        assertEquals(monitoredTrip.version + 1, savedTrip.version);
+        assertEquals(initialTripStatus, savedTrip.journeyState.tripStatus);
+        assertEquals(0, savedTrip.attemptsToGetMatchingItinerary);
+
+        // Clear the created trip.
+        PersistenceTestUtils.deleteMonitoredTrip(monitoredTrip);
+    }
+
+    @Test
+    void shouldKeepTripDueIfRealtimeChangesAreReceivedDuringCheck() throws Exception {
+        MonitoredTrip monitoredTrip = PersistenceTestUtils.createMonitoredTrip(
+            user.id,
+            OtpTestUtils.OTP2_DISPATCHER_PLAN_RESPONSE.clone(),
+            false,
+            OtpTestUtils.createDefaultJourneyState()
+        );
+        monitoredTrip.itineraryExistence.monday = new ItineraryExistence.ItineraryExistenceResult();
+        Persistence.monitoredTrips.create(monitoredTrip);
+        String tripId = monitoredTrip.itinerary.legs.stream()
+            .filter(leg -> Boolean.TRUE.equals(leg.transitLeg))
+            .map(leg -> leg.tripId)
+            .findFirst()
+            .orElseThrow();
+
+        OtpResponse expectedResponse = getMockOtpResponse();
+
+        // Mock the current time to be 8:45am on Monday, June 15, 2020.
+        DateTimeUtils.useFixedClockAt(
+            noonMonday8June2020
+                .withDayOfMonth(15)
+                .withHour(8)
+                .withMinute(45)
+        );
+
+        // Realtime changes affecting the trip are received while OTP is queried.
+        CheckMonitoredTrip checkMonitoredTrip = new CheckMonitoredTrip(monitoredTrip, () -> {
+            RealtimeChangeFeed tripChanges = new RealtimeChangeFeed();
+            tripChanges.tripUpdates.add(new RealtimeChangeFeed.AffectedEntity(null, tripId, null));
+            RealtimeChangeIngestion.enqueueAffectedTrips(tripChanges);
+            return expectedResponse;
+        }, true);
+        checkMonitoredTrip.run();
+
+        // The check results are saved, but the trip remains due for a check that reflects the realtime changes.
+        assertEquals(TRIP_ACTIVE, monitoredTrip.journeyState.tripStatus);
+        MonitoredTrip savedTrip = Persistence.monitoredTrips.getById(monitoredTrip.id);
+        assertEquals(TRIP_ACTIVE, savedTrip.journeyState.tripStatus);
+        assertTrue(savedTrip.journeyState.nextCheckEpochMillis <= DateTimeUtils.currentTimeMillis());
+        assertTrue(savedTrip.journeyState.recheckRequestedEpochMillis > savedTrip.journeyState.lastCheckedEpochMillis);
+
+        // Clear the created trip.
+        PersistenceTestUtils.deleteMonitoredTrip(monitoredTrip);
+    }
+
     /**
      * Create mock OTP response and set the base times of the first itinerary to Monday, June 15, 2020.
      */
@@ -0,0 +1,238 @@
+package org.opentripplanner.middleware.tripmonitor.jobs;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.OtpMiddlewareMain;
+import org.opentripplanner.middleware.models.MonitoredTrip;
+import org.opentripplanner.middleware.models.OtpUser;
+import org.opentripplanner.middleware.otp.OtpDispatcher;
+import org.opentripplanner.middleware.otp.OtpGraphQLVariables;
+import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.testutils.CommonTestUtils;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+import org.opentripplanner.middleware.utils.ConfigUtils;
+import org.opentripplanner.middleware.utils.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.opentripplanner.middleware.utils.YamlUtils.yamlMapper;
+
+/**
+ * Measures the throughput of {@link MonitorAllTripsJob} over a large number of synthetic monitored trips, with OTP
+ * replaced by a stub that returns a canned plan response after a configurable delay. For each cycle, the number of
+ * trips analyzed per second, the cycle duration, the number of OTP requests, the number of Mongo operations and the
+ * heap usage are logged.
+ *
+ * This class is not picked up by a regular test run. Because it loads its own configuration (pointing OTP to the
+ * stub), it must be run on its own against a local Mongo instance, e.g.:
+ *   BENCHMARK_TRIP_COUNT=5000 BENCHMARK_OTP_LATENCY_MILLIS=200 mvn test -Dtest=MonitorAllTripsJobBenchmark
+ *
+ * Environment variables (all optional):
+ * - BENCHMARK_TRIP_COUNT: the number of monitored trips to seed (default 1000).
+ * - BENCHMARK_OTP_LATENCY_MILLIS: the delay before the OTP stub responds (default 100).
+ * - BENCHMARK_CYCLES: the number of consecutive job runs (default 3). The first run checks all seeded trips, later
+ *   runs only check the trips that are due again, as they would in production.
+ *
+ * The Mongo operation counts are taken from the server-wide opcounters, so they include any other activity on the
+ * Mongo instance.
+ */
+public class MonitorAllTripsJobBenchmark {
+    private static final Logger LOG = LoggerFactory.getLogger(MonitorAllTripsJobBenchmark.class);
+
+    private static final int TRIP_COUNT = getIntEnvVar("BENCHMARK_TRIP_COUNT", 1000);
+    private static final int OTP_LATENCY_MILLIS = getIntEnvVar("BENCHMARK_OTP_LATENCY_MILLIS", 100);
+    private static final int CYCLES = getIntEnvVar("BENCHMARK_CYCLES", 3);
+
+    private static final String BENCHMARK_DB_NAME = "otp_middleware_benchmark";
+    private static final String PLAN_QUERY_PATH = "/planQuery.graphql";
+    private static final int SEED_BATCH_SIZE = 500;
+    private static final int[] LEAD_TIMES_IN_MINUTES = {15, 30, 60, 120, 240};
+
+    private static WireMockServer otpServer;
+    private static MongoClient statsClient;
+    private static OtpUser user;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        otpServer = new WireMockServer(options().dynamicPort());
+        otpServer.start();
+
+        // Point OTP and the plan query to the stub, and use a separate database. This must be done before any class
+        // that reads the configuration in a static initializer is loaded.
+        ObjectNode config = (ObjectNode) yamlMapper.readTree(new FileInputStream("configurations/test/env.yml"));
+        String stubRoot = "http://localhost:" + otpServer.port();
+        config.put("OTP2_API_ROOT", stubRoot + "/otp");
+        config.put("PLAN_QUERY_RESOURCE_URI", stubRoot + PLAN_QUERY_PATH);
+        config.put("MONGO_DB_NAME", BENCHMARK_DB_NAME);
+        File configFile = File.createTempFile("benchmark-env", ".yml");
+        configFile.deleteOnExit();
+        yamlMapper.writeValue(configFile, config);
+        OtpMiddlewareMain.inTestEnvironment = true;
+        ConfigUtils.loadConfig(new String[]{configFile.getPath()});
+        Persistence.initialize();
+        statsClient = MongoClients.create(
+            "mongodb://" + ConfigUtils.getConfigPropertyAsText("MONGO_HOST", "localhost:27017")
+        );
+
+        otpServer.stubFor(
+            get(urlPathEqualTo(PLAN_QUERY_PATH))
+                .willReturn(aResponse().withBody("query Plan { plan { itineraries { duration } } }"))
+        );
+        otpServer.stubFor(
+            post(urlPathMatching(".*" + OtpDispatcher.OTP_GRAPHQL_ENDPOINT))
+                .willReturn(
+                    aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(CommonTestUtils.getTestResourceAsString("otp/response/planResponse-otp2.json"))
+                        .withFixedDelay(OTP_LATENCY_MILLIS)
+                )
+        );
+
+        user = new OtpUser();
+        user.email = "benchmark-" + System.currentTimeMillis() + "@example.com";
+        Persistence.otpUsers.create(user);
+        seedTrips();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        if (user != null) {
+            Persistence.monitoredTrips.removeFiltered(Filters.eq("userId", user.id));
+            Persistence.otpUsers.removeById(user.id);
+        }
+        if (statsClient != null) statsClient.close();
+        if (otpServer != null) otpServer.stop();
+    }
+
+    /**
+     * Creates monitored trips for the benchmark user, with various days, trip times, lead times and arriveBy values so
+     * that the trips are in different monitoring states and have different check cadences.
+     */
+    private static void seedTrips() throws Exception {
+        Random random = new Random(42);
+        ZonedDateTime now = DateTimeUtils.nowAsZonedDateTime(DateTimeUtils.getOtpZoneId());
+        DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm");
+        List<MonitoredTrip> batch = new ArrayList<>();
+        long startMillis = System.currentTimeMillis();
+        for (int i = 0; i < TRIP_COUNT; i++) {
+            OtpGraphQLVariables params = OtpTestUtils.getSampleQueryParams();
+            // Trip times range from an hour ago to ten hours from now.
+            params.time = now.plusMinutes(random.nextInt(660) - 60).format(timeFormatter);
+            params.arriveBy = random.nextBoolean();
+            MonitoredTrip trip = new MonitoredTrip(params, OtpTestUtils.OTP2_DISPATCHER_PLAN_RESPONSE);
+            trip.userId = user.id;
+            trip.tripName = "benchmark trip " + i;
+            trip.leadTimeInMinutes = LEAD_TIMES_IN_MINUTES[random.nextInt(LEAD_TIMES_IN_MINUTES.length)];
+            trip.monday = random.nextBoolean();
+            trip.tuesday = random.nextBoolean();
+            trip.wednesday = random.nextBoolean();
+            trip.thursday = random.nextBoolean();
+            trip.friday = random.nextBoolean();
+            trip.saturday = random.nextBoolean();
+            // Make sure each trip is monitored on at least one day.
+            boolean hasWeekday = trip.monday || trip.tuesday || trip.wednesday || trip.thursday || trip.friday ||
+                trip.saturday;
+            trip.sunday = random.nextBoolean() || !hasWeekday;
+            trip.isActive = true;
+            batch.add(trip);
+            if (batch.size() == SEED_BATCH_SIZE || i == TRIP_COUNT - 1) {
+                Persistence.monitoredTrips.createMany(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        LOG.info("Seeded {} monitored trips in {} ms.", TRIP_COUNT, System.currentTimeMillis() - startMillis);
+    }
+
+    @Test
+    void runMonitorAllTripsJob() {
+        MonitorAllTripsJob job = new MonitorAllTripsJob(null);
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) heapPools.add(pool);
+        }
+
+        for (int i = 1; i <= CYCLES; i++) {
+            System.gc();
+            heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            otpServer.resetRequests();
+            Document opCountersBefore = getMongoOpCounters();
+
+            job.run();
+
+            MonitoringCycle cycle = MonitorAllTripsJob.getLastCompletedCycle();
+            Document opCountersAfter = getMongoOpCounters();
+            int otpRequests = otpServer.countRequestsMatching(
+                postRequestedFor(urlPathMatching(".*" + OtpDispatcher.OTP_GRAPHQL_ENDPOINT)).build()
+            ).getCount();
+            long peakHeapBytes = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+            long durationMillis = Math.max(1, cycle.getDurationMillis());
+            LOG.info(
+                "Cycle {}/{}: {} trips in {} ms ({} trips/sec), {} checked, {} skipped, {} failed, {} deferred; " +
+                    "{} OTP requests ({} shared responses); Mongo ops: {}; peak heap {} MB, heap after cycle {} MB",
+                i,
+                CYCLES,
+                cycle.getProcessedCount(),
+                durationMillis,
+                String.format("%.1f", cycle.getProcessedCount() * 1000.0 / durationMillis),
+                cycle.getCheckedCount(),
+                cycle.getSkippedCount(),
+                cycle.getFailedCount(),
+                cycle.getDeferredCount(),
+                otpRequests,
+                cycle.getOtpResponseHitCount(),
+                getOpCounterDiff(opCountersBefore, opCountersAfter),
+                peakHeapBytes / (1024 * 1024),
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024)
+            );
+            // All seeded trips are due on the first cycle.
+            if (i == 1) assertEquals(TRIP_COUNT, cycle.getProcessedCount() + cycle.getDeferredCount());
+        }
+    }
+
+    private static Document getMongoOpCounters() {
+        Document serverStatus = statsClient.getDatabase("admin").runCommand(new Document("serverStatus", 1));
+        return serverStatus.get("opcounters", Document.class);
+    }
+
+    /**
+     * @return the number of each kind of Mongo operation performed between two opcounters samples.
+     */
+    private static Document getOpCounterDiff(Document before, Document after) {
+        Document diff = new Document();
+        for (String key : after.keySet()) {
+            diff.put(key, ((Number) after.get(key)).longValue() - ((Number) before.get(key)).longValue());
+        }
+        return diff;
+    }
+
+    private static int getIntEnvVar(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+}
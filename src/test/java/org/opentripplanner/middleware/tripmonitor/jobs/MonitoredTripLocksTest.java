@@ -0,0 +1,76 @@
+package org.opentripplanner.middleware.tripmonitor.jobs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MonitoredTripLocksTest {
+    @Test
+    void shouldAcquireLockOnlyOnce() {
+        String tripId = "lock-once-trip";
+        MonitoredTripLocks.TripLock lock = MonitoredTripLocks.tryLock(tripId, "first holder");
+        assertNotNull(lock);
+        assertNull(MonitoredTripLocks.tryLock(tripId, "second holder"));
+        assertTrue(MonitoredTripLocks.isLocked(tripId));
+
+        MonitoredTripLocks.unlock(lock);
+        assertFalse(MonitoredTripLocks.isLocked(tripId));
+        assertTrue(MonitoredTripLocks.wasUnlockedSince(tripId, lock.acquiredAtMillis));
+        MonitoredTripLocks.unlock(MonitoredTripLocks.tryLock(tripId, "second holder"));
+    }
+
+    @Test
+    void shouldReclaimExpiredLocks() {
+        String tripId = "expired-lock-trip";
+        long reclaimedCount = MonitoredTripLocks.getReclaimedCount();
+        MonitoredTripLocks.TripLock expiredLock = MonitoredTripLocks.tryLock(tripId, "crashed holder", 0);
+        assertFalse(MonitoredTripLocks.isLocked(tripId));
+
+        MonitoredTripLocks.TripLock lock = MonitoredTripLocks.tryLock(tripId, "new holder");
+        assertNotNull(lock);
+        assertEquals(reclaimedCount + 1, MonitoredTripLocks.getReclaimedCount());
+        // Releasing the expired lock must not release the lock of the new holder.
+        MonitoredTripLocks.unlock(expiredLock);
+        assertTrue(MonitoredTripLocks.isLocked(tripId));
+        MonitoredTripLocks.unlock(lock);
+    }
+
+    @Test
+    void shouldNotifyWaitersOnRelease() throws Exception {
+        String tripId = "waited-lock-trip";
+        long waitCount = MonitoredTripLocks.getWaitCount();
+        MonitoredTripLocks.TripLock analyzerLock = MonitoredTripLocks.tryLock(tripId, "trip analyzer");
+        CompletableFuture<MonitoredTripLocks.TripLock> waitingLock = CompletableFuture.supplyAsync(() -> {
+            try {
+                return MonitoredTripLocks.lock(tripId, "trip update request", 10_000);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        while (MonitoredTripLocks.getWaitCount() == waitCount) Thread.sleep(10);
+
+        long releaseTimeMillis = System.currentTimeMillis();
+        MonitoredTripLocks.unlock(analyzerLock);
+        MonitoredTripLocks.TripLock updateLock = waitingLock.get(5, TimeUnit.SECONDS);
+        assertNotNull(updateLock);
+        assertTrue(updateLock.acquiredAtMillis - releaseTimeMillis < 1000);
+        MonitoredTripLocks.unlock(updateLock);
+    }
+
+    @Test
+    void shouldGiveUpWaitingAfterMaxWaitTime() throws Exception {
+        String tripId = "busy-lock-trip";
+        long waitTimeoutCount = MonitoredTripLocks.getWaitTimeoutCount();
+        MonitoredTripLocks.TripLock analyzerLock = MonitoredTripLocks.tryLock(tripId, "trip analyzer");
+        assertNull(MonitoredTripLocks.lock(tripId, "trip update request", 50));
+        assertEquals(waitTimeoutCount + 1, MonitoredTripLocks.getWaitTimeoutCount());
+        MonitoredTripLocks.unlock(analyzerLock);
+    }
+}
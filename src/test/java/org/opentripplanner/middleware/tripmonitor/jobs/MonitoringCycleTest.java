@@ -0,0 +1,42 @@
+package org.opentripplanner.middleware.tripmonitor.jobs;
+
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.tripmonitor.JourneyState;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MonitoringCycleTest {
+    @Test
+    void shouldDeferTripsOnceOverBudget() {
+        MonitoringCycle cycle = new MonitoringCycle(null, 0);
+        new TripAnalyzer(List.of("trip-1", "trip-2", "trip-3"), cycle).run();
+        assertEquals(3, cycle.getDeferredCount());
+        assertEquals(0, cycle.getProcessedCount());
+    }
+
+    @Test
+    void shouldComputeStalenessAndCheckDelay() {
+        MonitoringCycle cycle = new MonitoringCycle(null, 60_000);
+        long nowMillis = 1_000_000;
+        cycle.recordTripDue(createJourneyState(nowMillis - 60_000, nowMillis - 10_000), nowMillis);
+        cycle.recordTripDue(createJourneyState(nowMillis - 300_000, nowMillis - 30_000), nowMillis);
+        // A trip updated by its owner to be checked right away is not counted towards the check delay.
+        cycle.recordTripDue(createJourneyState(nowMillis - 120_000, 0), nowMillis);
+        // A trip that was never checked is not counted.
+        cycle.recordTripDue(new JourneyState(), nowMillis);
+
+        assertEquals(300_000, cycle.getMaxStalenessMillis());
+        assertEquals(160_000, cycle.getAverageStalenessMillis());
+        assertEquals(30_000, cycle.getMaxCheckDelayMillis());
+        assertEquals(20_000, cycle.getAverageCheckDelayMillis());
+    }
+
+    private static JourneyState createJourneyState(long lastCheckedEpochMillis, long nextCheckEpochMillis) {
+        JourneyState journeyState = new JourneyState();
+        journeyState.lastCheckedEpochMillis = lastCheckedEpochMillis;
+        journeyState.nextCheckEpochMillis = nextCheckEpochMillis;
+        return journeyState;
+    }
+}
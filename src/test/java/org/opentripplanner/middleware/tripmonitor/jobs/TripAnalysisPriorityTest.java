@@ -0,0 +1,66 @@
+package org.opentripplanner.middleware.tripmonitor.jobs;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.tripmonitor.TripStatus;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.opentripplanner.middleware.tripmonitor.jobs.TripAnalysisPriority.MONITOR_ALL_TRIPS_JOB_PRIORITY_AGING_FACTOR;
+
+class TripAnalysisPriorityTest {
+    private static final long NOW_MILLIS = 1_700_000_000_000L;
+    private static final long ONE_MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long ONE_HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    void shouldAnalyzeImminentAndOngoingTripsFirst() {
+        List<Document> trips = List.of(
+            createTrip("tomorrow", TripStatus.TRIP_UPCOMING, NOW_MILLIS + 24 * ONE_HOUR, NOW_MILLIS),
+            createTrip("never-checked", null, 0, 0),
+            createTrip("in-two-minutes", TripStatus.TRIP_UPCOMING, NOW_MILLIS + 2 * ONE_MINUTE, NOW_MILLIS),
+            createTrip("ongoing", TripStatus.TRIP_ACTIVE, NOW_MILLIS - 10 * ONE_MINUTE, NOW_MILLIS)
+        );
+        assertEquals(
+            List.of("ongoing", "in-two-minutes", "never-checked", "tomorrow"),
+            TripAnalysisPriority.sortByPriority(trips, NOW_MILLIS)
+        );
+    }
+
+    @Test
+    void shouldRaisePriorityOfOverdueTrips() {
+        long departureMillis = NOW_MILLIS + 24 * ONE_HOUR;
+        // Once overdue for long enough, a trip departing tomorrow goes before a trip departing in two minutes.
+        long overdueMillis = 24 * ONE_HOUR / MONITOR_ALL_TRIPS_JOB_PRIORITY_AGING_FACTOR;
+        List<Document> trips = List.of(
+            createTrip("in-two-minutes", TripStatus.TRIP_UPCOMING, NOW_MILLIS + 2 * ONE_MINUTE, NOW_MILLIS),
+            createTrip("tomorrow", TripStatus.TRIP_UPCOMING, departureMillis, NOW_MILLIS - overdueMillis)
+        );
+        assertEquals(List.of("tomorrow", "in-two-minutes"), TripAnalysisPriority.sortByPriority(trips, NOW_MILLIS));
+    }
+
+    @Test
+    void shouldTreatStartedTripsAsOngoing() {
+        assertEquals(
+            0,
+            TripAnalysisPriority.getPriorityKey(
+                TripStatus.TRIP_UPCOMING,
+                NOW_MILLIS - ONE_MINUTE,
+                NOW_MILLIS + ONE_HOUR,
+                NOW_MILLIS,
+                NOW_MILLIS
+            )
+        );
+    }
+
+    private static Document createTrip(String id, TripStatus tripStatus, long departureMillis, long nextCheckMillis) {
+        Document journeyState = new Document()
+            .append("scheduledDepartureTimeEpochMillis", departureMillis)
+            .append("scheduledArrivalTimeEpochMillis", departureMillis + ONE_HOUR)
+            .append("nextCheckEpochMillis", nextCheckMillis);
+        if (tripStatus != null) journeyState.append("tripStatus", tripStatus.name());
+        return new Document("_id", id).append("journeyState", journeyState);
+    }
+}
@@ -241,12 +241,24 @@ public class ItineraryUtilsTest extends OtpMiddlewareTestEnvironment {
      */
     @ParameterizedTest
     @MethodSource("createItineraryComparisonTestCases")
-    void testItineraryMatches(ItineraryMatchTestCase testCase) {
+    void testItineraryMatches(ItineraryMatchTestCase testCase) throws CloneNotSupportedException {
         Assertions.assertEquals(
             testCase.shouldMatch,
             ItineraryUtils.itinerariesMatch(testCase.previousItinerary, testCase.newItinerary),
             testCase.name
         );
+        // The fingerprint of the previous itinerary should not change the outcome.
+        Assertions.assertEquals(
+            testCase.shouldMatch,
+            new ItineraryFingerprint(testCase.previousItinerary).matches(testCase.newItinerary),
+            testCase.name
+        );
+        // Nor should the hashes kept with the legs of a copy of the new itinerary.
+        Assertions.assertEquals(
+            testCase.shouldMatch,
+            new ItineraryFingerprint(testCase.previousItinerary).matches(testCase.newItinerary.copyWithLegs()),
+            testCase.name
+        );
     }
 
     private static List<ItineraryMatchTestCase> createItineraryComparisonTestCases() throws Exception {
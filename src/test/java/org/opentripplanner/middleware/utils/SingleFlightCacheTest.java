@@ -0,0 +1,64 @@
+package org.opentripplanner.middleware.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightCacheTest {
+    @Test
+    void canReuseComputedValue() {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>();
+        AtomicInteger loadCount = new AtomicInteger();
+        Supplier<String> loader = () -> "value" + loadCount.incrementAndGet();
+        assertEquals("value1", cache.get("key", loader));
+        assertEquals("value1", cache.get("key", loader));
+        assertEquals(1, loadCount.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void shouldNotRetainNullValues() {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>();
+        assertNull(cache.get("key", () -> null));
+        assertEquals("value", cache.get("key", () -> "value"));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    void canShareComputationInProgress() throws Exception {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>();
+        CountDownLatch loaderStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoader = new CountDownLatch(1);
+        AtomicInteger loadCount = new AtomicInteger();
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> cache.get("key", () -> {
+            loadCount.incrementAndGet();
+            loaderStarted.countDown();
+            try {
+                releaseLoader.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "value";
+        }));
+        assertTrue(loaderStarted.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> cache.get("key", () -> {
+            loadCount.incrementAndGet();
+            return "other value";
+        }));
+        releaseLoader.countDown();
+
+        assertEquals("value", first.get(5, TimeUnit.SECONDS));
+        assertEquals("value", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loadCount.get());
+    }
+}
@@ -0,0 +1,48 @@
+package org.opentripplanner.middleware.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TtlCacheTest {
+    private final AtomicLong nowMillis = new AtomicLong(1000);
+
+    private final TtlCache<String, String> cache = new TtlCache<>(10, 100, String::length, nowMillis::get);
+
+    @Test
+    void shouldExpireEntries() {
+        cache.put("a", "value");
+        nowMillis.addAndGet(99);
+        assertEquals("value", cache.get("a"));
+        nowMillis.addAndGet(1);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getTotalWeight());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedEntriesOverMaxWeight() {
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        // Use "a" so that "b" is the least recently used entry.
+        cache.get("a");
+        cache.put("c", "cccc");
+
+        assertEquals("aaaa", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("cccc", cache.get("c"));
+        assertEquals(8, cache.getTotalWeight());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void shouldNotCacheValuesHeavierThanMaxWeight() {
+        cache.put("a", "a value longer than ten");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+}